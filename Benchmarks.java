@@ -0,0 +1,479 @@
+import java.io.*;
+import java.lang.management.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+
+// Small timing harness for the hot paths of the games. Each benchmark is warmed up
+// first, then timed, and reports the average time per call, throughput, latency
+// percentiles, bytes allocated per call, the allocation rate and how many collections
+// ran while it was timed.
+// Run with: java Benchmarks [group...] [--save file] [--baseline file]
+// With --save the average times are written to a file, and with --baseline they are
+// compared against one written earlier. Anything more than REGRESSION times slower
+// than the baseline is flagged and the exit status is 1, so a change can be checked
+// by saving before it and comparing after.
+class Benchmarks {
+  static final String[] GROUPS = { "worklists", "search", "resistance", "mcts", "bridgeit",
+      "concentration" };
+  static final double REGRESSION = 1.10;
+  static final long ROUND_NANOS = 300_000_000;
+
+  static long sink; // Results are added here so the JIT can't throw the work away
+  static Map<String, Double> results = new LinkedHashMap<String, Double>(); // ns/op by name
+
+  // Runs body for warmup calls and then times calls more, printing the results. Both
+  // are repeated until they have taken at least ROUND_NANOS, so the JIT is done with
+  // the code before it is timed and the timing isn't one lucky slice. After the timed
+  // run the calls are made again in batches that take about a microsecond, timing each
+  // batch, which gives the latency percentiles. Batching keeps reading the clock from
+  // being most of what gets measured for the fast benchmarks, so for those the
+  // percentiles are per call averages over a batch.
+  static void run(String name, int warmup, int calls, LongSupplier body) {
+    long warmupStart = System.nanoTime();
+    do {
+      for (int i = 0; i < warmup; i++) {
+        sink += body.getAsLong();
+      }
+    } while (System.nanoTime() - warmupStart < ROUND_NANOS);
+
+    long collectionsBefore = collections();
+    long bytesBefore = allocatedBytes();
+    long start = System.nanoTime();
+    long done = 0;
+    long elapsed;
+    do {
+      for (int i = 0; i < calls; i++) {
+        sink += body.getAsLong();
+      }
+      done += calls;
+      elapsed = System.nanoTime() - start;
+    } while (elapsed < ROUND_NANOS);
+    long bytes = allocatedBytes() - bytesBefore;
+    long collections = collections() - collectionsBefore;
+    double nanos = (double) elapsed / done;
+
+    int batch = (int) Math.max(1, Math.min(calls, 1000 / Math.max(1, nanos)));
+    LatencyHistogram latency = new LatencyHistogram(name);
+    for (int sampled = 0; sampled < calls; sampled += batch) {
+      long batchStart = System.nanoTime();
+      for (int i = 0; i < batch; i++) {
+        sink += body.getAsLong();
+      }
+      latency.record((System.nanoTime() - batchStart) / batch);
+    }
+
+    System.out.printf("%-40s %12.1f ns/op %12.0f ops/s p50 %10d ns p99 %10d ns"
+        + " %12.1f B/op %8.1f MB/s %4d gc%n", name, nanos, 1e9 / nanos,
+        latency.percentile(50), latency.percentile(99), (double) bytes / done,
+        bytes * 1e3 / elapsed, collections);
+    results.put(name, nanos);
+  }
+
+  // Bytes allocated so far by this thread, or 0 if the JVM can't tell us
+  static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
+  // Garbage collections so far, added up over every collector
+  static long collections() {
+    long total = 0;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      total += Math.max(0, collector.getCollectionCount());
+    }
+    return total;
+  }
+
+  public static void main(String[] args) {
+    List<String> groups = new ArrayList<String>();
+    String save = null;
+    String baseline = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--save") && i + 1 < args.length) {
+        save = args[++i];
+      }
+      else if (args[i].equals("--baseline") && i + 1 < args.length) {
+        baseline = args[++i];
+      }
+      else if (Arrays.asList(GROUPS).contains(args[i])) {
+        groups.add(args[i]);
+      }
+      else {
+        throw new IllegalArgumentException("Unknown benchmark group " + args[i]);
+      }
+    }
+    if (groups.isEmpty()) {
+      groups.addAll(Arrays.asList(GROUPS));
+    }
+
+    for (String group : groups) {
+      runGroup(group);
+    }
+    if (save != null) {
+      save(save);
+    }
+    if (baseline != null && compare(baseline) > 0) {
+      System.exit(1);
+    }
+  }
+
+  // Runs every benchmark in a group
+  static void runGroup(String group) {
+    if (group.equals("worklists")) {
+      worklists();
+    }
+    else if (group.equals("search")) {
+      search();
+    }
+    else if (group.equals("resistance")) {
+      resistance();
+    }
+    else if (group.equals("mcts")) {
+      mcts();
+    }
+    else if (group.equals("bridgeit")) {
+      bridgeItWorld();
+      bridgeItPathSearch();
+      bridgeItScene();
+    }
+    else {
+      concentration();
+    }
+  }
+
+  // Writes each benchmark's name and average time, one per line split by a tab
+  static void save(String file) {
+    List<String> lines = new ArrayList<String>();
+    for (Map.Entry<String, Double> result : results.entrySet()) {
+      lines.add(result.getKey() + "\t" + result.getValue());
+    }
+    try {
+      Files.write(Paths.get(file), lines);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Saving the results failed", e);
+    }
+  }
+
+  // Prints how this run compares to a saved one and returns how many benchmarks got
+  // slower by more than REGRESSION. Benchmarks that are only in one of the two runs
+  // are left out.
+  static int compare(String file) {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(Paths.get(file));
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Reading the baseline failed", e);
+    }
+    int regressions = 0;
+    for (String line : lines) {
+      String[] parts = line.split("\t");
+      Double now = results.get(parts[0]);
+      if (parts.length == 2 && now != null) {
+        double ratio = now / Double.parseDouble(parts[1]);
+        boolean slower = ratio > REGRESSION;
+        System.out.printf("%-40s %8.2fx%s%n", parts[0], ratio, slower ? "  REGRESSION" : "");
+        if (slower) {
+          regressions++;
+        }
+      }
+    }
+    return regressions;
+  }
+
+  // Pushes and pops a board's worth of cells through the generic Stack and the int
+  // collections, then floods a whole white board depth first and breadth first
+  static void worklists() {
+    int count = 201 * 201;
+    Vertex[] vertices = new Vertex[count];
+    for (int i = 0; i < count; i++) {
+      vertices[i] = new Vertex(i / 201, i % 201, java.awt.Color.WHITE);
+    }
+
+    run("Stack<Vertex> add/remove 201x201", 20, 100, () -> {
+      Stack<Vertex> stack = new Stack<Vertex>();
+      for (int i = 0; i < count; i++) {
+        stack.add(vertices[i]);
+      }
+      long total = 0;
+      while (stack.size() > 0) {
+        total += stack.remove().col;
+      }
+      return total;
+    });
+
+    IntStack intStack = new IntStack(16);
+    run("IntStack add/remove 201x201", 20, 100, () -> {
+      intStack.clear();
+      for (int i = 0; i < count; i++) {
+        intStack.add(i);
+      }
+      long total = 0;
+      while (intStack.size() > 0) {
+        total += intStack.remove();
+      }
+      return total;
+    });
+
+    IntQueue intQueue = new IntQueue(16);
+    run("IntQueue add/remove 201x201", 20, 100, () -> {
+      intQueue.clear();
+      for (int i = 0; i < count; i++) {
+        intQueue.add(i);
+      }
+      long total = 0;
+      while (intQueue.size() > 0) {
+        total += intQueue.remove();
+      }
+      return total;
+    });
+
+    // Every cell white so the flood covers the whole board
+    BridgeItBoard board = new BridgeItBoard(201);
+    BridgeItQuery depthFirst = new BridgeItQuery(board, new IntStack(16));
+    BridgeItQuery breadthFirst = new BridgeItQuery(board, new IntQueue(16));
+    run("reachableFrom depth first 201x201", 20, 100, () -> depthFirst.reachableFrom(0));
+    run("reachableFrom breadth first 201x201", 20, 100, () -> breadthFirst.reachableFrom(0));
+  }
+
+  // Claims and takes back every line of play four moves deep on one 7x7 board, the way
+  // a tree search walks the game without copying it
+  static void search() {
+    BridgeItBoard board = new BridgeItWorld(7).board;
+    run("claim/unclaim 4 ply 7x7", 3, 10, () -> perft(board, BridgeItBoard.PINK, 4));
+    System.out.printf("%-40s %12d positions%n", "claim/unclaim 4 ply 7x7",
+        perft(board, BridgeItBoard.PINK, 4));
+  }
+
+  // Counts the positions depth moves ahead of the board, stopping early on a win
+  static long perft(BridgeItBoard board, byte color, int depth) {
+    if (depth == 0) {
+      return 1;
+    }
+    long positions = 0;
+    for (int cell = 0; cell < board.cells.length; cell++) {
+      if (board.cells[cell] == BridgeItBoard.WHITE) {
+        if (board.claim(cell, color)) {
+          positions++;
+        }
+        else {
+          positions += perft(board, MctsPlayer.other(color), depth - 1);
+        }
+        board.unclaim();
+      }
+    }
+    return positions;
+  }
+
+  // One resistance evaluation of a 51x51 game 60 moves in, for both players, starting
+  // from the last solve and from nothing
+  static void resistance() {
+    BridgeItWorld world = new BridgeItWorld(51);
+    RandomPlayer player = new RandomPlayer(new java.util.SplittableRandom(1));
+    for (int i = 0; i < 60; i++) {
+      int move = player.chooseMove(world.board, BridgeItSelfPlay.toMove(world));
+      world.play(world.board.row(move), world.board.col(move));
+    }
+    ResistanceEvaluator warm = new ResistanceEvaluator(world.board);
+    int[] cell = new int[1];
+    run("resistance evaluate 51x51 warm", 50, 200, () -> {
+      // Claim and take back a cell each time so there is something to solve again
+      while (world.board.cells[cell[0]] != BridgeItBoard.WHITE) {
+        cell[0] = (cell[0] + 1) % world.board.cells.length;
+      }
+      world.board.claim(cell[0], BridgeItBoard.PINK);
+      double score = warm.evaluate(BridgeItBoard.PINK);
+      world.board.unclaim();
+      cell[0] = (cell[0] + 1) % world.board.cells.length;
+      return (long) (score * 1000);
+    });
+    run("resistance evaluate 51x51 cold", 50, 200,
+        () -> (long) (new ResistanceEvaluator(world.board).evaluate(BridgeItBoard.PINK)
+            * 1000));
+  }
+
+  // Playouts per second for a one second search on an empty 9x9 board, with one thread
+  // and then with every core
+  static void mcts() {
+    BridgeItWorld world = new BridgeItWorld(9);
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int threads : new int[] { 1, cores }) {
+      try (MctsPlayer player = new MctsPlayer(1000, Long.MAX_VALUE, threads)) {
+        player.chooseMove(world.board, BridgeItBoard.PINK);
+        player.chooseMove(world.board, BridgeItBoard.PINK);
+        System.out.printf("%-40s %12.0f playouts/s%n", "mcts 9x9 " + threads + " threads",
+            player.lastPlayoutsPerSecond);
+      }
+    }
+  }
+
+  // Frame cost of BridgeItWorld.makeScene, drawing the whole board from scratch against
+  // drawing over the kept scene after one move
+  static void bridgeItScene() {
+    for (int size : new int[] { 9, 101, 501 }) {
+      BridgeItWorld world = new BridgeItWorld(size);
+      int calls = size > 200 ? 20 : 200;
+      run("makeScene full redraw " + size, calls, calls, () -> {
+        world.scene = null;
+        return world.makeScene().hashCode();
+      });
+      int[] cell = new int[1];
+      run("makeScene after a move " + size, 1000, 10000, () -> {
+        world.dirty.add(cell[0]);
+        cell[0] = (cell[0] + 1) % world.board.cells.length;
+        return world.makeScene().hashCode();
+      });
+    }
+  }
+
+  // Making a world, which sets up the packed board and joins the edge cells to their
+  // edges
+  static void bridgeItWorld() {
+    for (int size : new int[] { 9, 51, 201, 1001 }) {
+      int calls = size > 500 ? 20 : size > 100 ? 200 : 20000;
+      run("BridgeItWorld construction " + size, calls, calls,
+          () -> new BridgeItWorld(size).board.cells.length);
+    }
+  }
+
+  // hasPathDFS on the worst board for it, where the search covers as much as it can
+  // and still has to come back with no path
+  static void bridgeItPathSearch() {
+    for (int size : new int[] { 9, 51, 201, 1001 }) {
+      BridgeItWorld world = nearlyFull(size);
+      int calls = size > 500 ? 20 : size > 100 ? 200 : 20000;
+      run("hasPathDFS near complete " + size, calls, calls, () -> world.hasPathDFS() ? 1 : 0);
+    }
+  }
+
+  // A board with every white cell claimed, where magenta holds the column next to
+  // pink's right edge and pink has everything else. Pink's search reaches every cell
+  // left of that column without finding a path.
+  static BridgeItWorld nearlyFull(int size) {
+    BridgeItWorld world = new BridgeItWorld(size);
+    BridgeItBoard board = world.board;
+    for (int cell = 0; cell < board.cells.length; cell++) {
+      if (board.cells[cell] == BridgeItBoard.WHITE) {
+        if (board.col(cell) == size - 2) {
+          board.claim(cell, BridgeItBoard.MAGENTA);
+        }
+        else {
+          board.claim(cell, BridgeItBoard.PINK);
+        }
+      }
+    }
+    world.p1turn = true;
+    return world;
+  }
+
+  // Dealing a board, matching cards, ticks while a guess is being checked, drawing
+  // frames of Concentration, from scratch and over the kept scene after a card flips,
+  // and finding partners and hints
+  static void concentration() {
+    run("Concentration createBoard", 20000, 200000,
+        () -> ConcentrationWorld.createBoard().length);
+
+    // Dealing a new game onto the same cards, shuffling the world's own deck and then
+    // taking deals shuffled ahead of time on another thread
+    ConcentrationWorld resets = new ConcentrationWorld(1);
+    run("Concentration reset", 20000, 200000, () -> {
+      resets.newGame();
+      return resets.card(0).code;
+    });
+    try (DealPool pool = new DealPool(256, 2)) {
+      resets.deals = pool;
+      run("Concentration reset from a deal pool", 20000, 200000, () -> {
+        resets.newGame();
+        return resets.card(0).code;
+      });
+      resets.deals = null;
+    }
+
+    Card[] cards = ConcentrationWorld.createBoard();
+    int[] pair = new int[1];
+    run("Card isMatch", 1000000, 10000000, () -> {
+      pair[0] = (pair[0] + 1) % (52 * 52);
+      return cards[pair[0] / 52].isMatch(cards[pair[0] % 52]) ? 1 : 0;
+    });
+
+    // Keeps picking the same two cards and moves the clock one tick each time, so
+    // every thirtieth tick checks a guess
+    ManualGameClock clock = new ManualGameClock(0);
+    ConcentrationWorld world = new ConcentrationWorld(cards, clock);
+    // The first card only has one partner, so one of the next two doesn't match it
+    int other = cards[0].isMatch(cards[1]) ? 2 : 1;
+    run("Concentration onTick", 100000, 1000000, () -> {
+      if (!world.waitingForMatch) {
+        cards[0].isFaceUp = true;
+        cards[other].isFaceUp = true;
+        world.firstSelected = cards[0];
+        world.secondSelected = cards[other];
+        world.firstIndex = 0;
+        world.secondIndex = other;
+        world.maxSteps = 100;
+        world.pairsLeft = 26;
+        world.gameWon = false;
+        world.gameOver = false;
+        world.waitForMatch();
+      }
+      clock.advance(ConcentrationWorld.TICK_NANOS);
+      world.onTick();
+      return world.elapsedTime;
+    });
+
+    // Half the cards face up so both ways of drawing a card are timed. Only the cards
+    // in the view are drawn, so boards of every size should take about as long.
+    for (int decks : new int[] { 1, 4, 16, 64 }) {
+      ConcentrationWorld scene = new ConcentrationWorld(decks, 3);
+      for (int i = 0; i < scene.cards.length; i += 2) {
+        scene.cards[i].flip();
+      }
+      String name = "Concentration makeScene " + scene.cards.length + " cards";
+      run(name + " full redraw", 2000, 20000, () -> {
+        scene.scene = null;
+        return scene.makeScene().hashCode();
+      });
+      int[] flip = new int[1];
+      run(name + " after a flip", 20000, 200000, () -> {
+        flip[0] = (flip[0] + 1) % ConcentrationWorld.VIEW_COLUMNS;
+        scene.cards[scene.indexAt(scene.viewRow, scene.viewColumn + flip[0])].flip();
+        return scene.makeScene().hashCode();
+      });
+      // Scrolls down and back up a row, which draws the whole view again each time
+      int[] step = { 1 };
+      run(name + " after a scroll", 2000, 20000, () -> {
+        scene.scroll(step[0], 0);
+        step[0] = -step[0];
+        return scene.makeScene().hashCode();
+      });
+    }
+
+    // Finding a card's partner on a 64 deck board by looking at every card, and from
+    // the index, then finding a seen pair with half the cards seen
+    ConcentrationWorld big = new ConcentrationWorld(64, 4);
+    int[] card = new int[1];
+    run("Concentration partner by scan 3328 cards", 2000, 20000, () -> {
+      card[0] = (card[0] + 1) % big.cards.length;
+      for (int i = 0; i < big.cards.length; i++) {
+        if (i != card[0] && big.cards[i].isMatch(big.cards[card[0]])) {
+          return i;
+        }
+      }
+      return -1;
+    });
+    run("Concentration partner from the index 3328 cards", 1000000, 10000000, () -> {
+      card[0] = (card[0] + 1) % big.cards.length;
+      return big.index.partner(card[0]);
+    });
+    for (int i = 0; i < big.cards.length; i += 2) {
+      big.index.reveal(i);
+    }
+    run("Concentration hint 3328 cards", 1000000, 10000000, () -> big.hint());
+  }
+}
@@ -38,221 +38,1317 @@ class Stack<T> implements ICollection<T> {
   }
 }
 
+// A collection of ints that never boxes its items. clear() keeps the backing array
+// around, so the same collection can be reused for search after search.
+interface IntCollection {
+  // add an item to this collection
+  void add(int item);
+
+  // remove an item from this collection
+  int remove();
+
+  // size of this collection
+  int size();
+
+  // removes every item but keeps the space that has already been allocated
+  void clear();
+}
+
+// A last in first out IntCollection backed by an array that doubles when it is full
+class IntStack implements IntCollection {
+  int[] items;
+  int size;
+
+  IntStack(int capacity) {
+    this.items = new int[Math.max(1, capacity)];
+    this.size = 0;
+  }
+
+  // add an item to the top of this stack
+  public void add(int item) {
+    if (this.size == this.items.length) {
+      this.items = Arrays.copyOf(this.items, this.items.length * 2);
+    }
+    this.items[this.size] = item;
+    this.size++;
+  }
+
+  // remove the item on the top of this stack
+  public int remove() {
+    if (this.size == 0) {
+      throw new NoSuchElementException("Stack is empty");
+    }
+    this.size--;
+    return this.items[this.size];
+  }
+
+  // size of this stack
+  public int size() {
+    return this.size;
+  }
+
+  public void clear() {
+    this.size = 0;
+  }
+}
+
+// A first in first out IntCollection backed by a ring buffer whose length is always a
+// power of two, so wrapping around is a mask instead of a modulo. Items can also be
+// put on the front which makes it usable as a double ended queue.
+class IntQueue implements IntCollection {
+  int[] items;
+  int head; // Index of the first item
+  int size;
+
+  IntQueue(int capacity) {
+    this.items = new int[Integer.highestOneBit(Math.max(2, capacity) - 1) << 1];
+    this.head = 0;
+    this.size = 0;
+  }
+
+  // add an item to the back of this queue
+  public void add(int item) {
+    if (this.size == this.items.length) {
+      this.grow();
+    }
+    this.items[(this.head + this.size) & (this.items.length - 1)] = item;
+    this.size++;
+  }
+
+  // add an item to the front of this queue
+  void addFirst(int item) {
+    if (this.size == this.items.length) {
+      this.grow();
+    }
+    this.head = (this.head - 1) & (this.items.length - 1);
+    this.items[this.head] = item;
+    this.size++;
+  }
+
+  // remove the item at the front of this queue
+  public int remove() {
+    if (this.size == 0) {
+      throw new NoSuchElementException("Queue is empty");
+    }
+    int item = this.items[this.head];
+    this.head = (this.head + 1) & (this.items.length - 1);
+    this.size--;
+    return item;
+  }
+
+  // size of this queue
+  public int size() {
+    return this.size;
+  }
+
+  public void clear() {
+    this.head = 0;
+    this.size = 0;
+  }
+
+  // Doubles the ring buffer, unrolling the items so they start at index 0
+  void grow() {
+    int[] bigger = new int[this.items.length * 2];
+    int firstPart = this.items.length - this.head;
+    System.arraycopy(this.items, this.head, bigger, 0, firstPart);
+    System.arraycopy(this.items, 0, bigger, firstPart, this.head);
+    this.items = bigger;
+    this.head = 0;
+  }
+}
+
+// Disjoint sets over the cells of a board, plus virtual nodes for the edges the
+// players are trying to connect, so a win is just a check of whether both of a players
+// edge nodes ended up in the same set. Every merge is written to a log so it can be
+// taken back later. That rules out path compression, but union by rank on its own
+// still keeps the trees at most log n high.
+class UnionFind {
+  int[] parent; // The parent of each node, a root is its own parent
+  byte[] rank; // Upper bound on the height of the tree under each root
+  int count; // The number of nodes, the arrays can be longer than this
+  IntStack log; // The root that was hung under another by each merge, negated if the
+                // other root's rank went up
+
+  UnionFind(int nodes) {
+    this.parent = new int[Math.max(1, nodes)];
+    this.rank = new byte[Math.max(1, nodes)];
+    this.count = nodes;
+    this.log = new IntStack(16);
+    for (int i = 0; i < nodes; i++) {
+      this.parent[i] = i;
+    }
+  }
+
+  // Adds a new node in a set of its own and returns it, doubling the arrays if they
+  // are full
+  int add() {
+    if (this.count == this.parent.length) {
+      this.parent = Arrays.copyOf(this.parent, this.parent.length * 2);
+      this.rank = Arrays.copyOf(this.rank, this.rank.length * 2);
+    }
+    int node = this.count;
+    this.parent[node] = node;
+    this.count++;
+    return node;
+  }
+
+  // Finds the representative of the set containing node
+  int find(int node) {
+    while (this.parent[node] != node) {
+      node = this.parent[node];
+    }
+    return node;
+  }
+
+  // Merges the sets containing a and b, hanging the shorter tree under the taller one
+  void union(int a, int b) {
+    int rootA = this.find(a);
+    int rootB = this.find(b);
+    if (rootA == rootB) {
+      return;
+    }
+    if (this.rank[rootA] < this.rank[rootB]) {
+      this.parent[rootA] = rootB;
+      this.log.add(rootA);
+    }
+    else if (this.rank[rootA] > this.rank[rootB]) {
+      this.parent[rootB] = rootA;
+      this.log.add(rootB);
+    }
+    else {
+      this.parent[rootB] = rootA;
+      this.rank[rootA]++;
+      this.log.add(~rootB);
+    }
+  }
+
+  // Hangs a node that was just added under another node without logging it. The new
+  // node is a leaf, so taking back older merges can never split it from other.
+  void attach(int node, int other) {
+    this.parent[node] = other;
+  }
+
+  // A point in the log that rollback can go back to
+  int mark() {
+    return this.log.size();
+  }
+
+  // Takes back every merge made since mark, newest first
+  void rollback(int mark) {
+    while (this.log.size() > mark) {
+      int entry = this.log.remove();
+      if (entry < 0) {
+        entry = ~entry;
+        this.rank[this.parent[entry]]--;
+      }
+      this.parent[entry] = entry;
+    }
+  }
+
+  // Checks if a and b are in the same set
+  boolean connected(int a, int b) {
+    return this.find(a) == this.find(b);
+  }
+}
+
+// The rules of BridgeIt, whichever way the cells are stored. Cells are looked up by
+// row and column so a board doesn't need an index that fits in an int.
+interface IBridgeItBoard {
+  // The number of rows and columns
+  int size();
+
+  // Gets the color of the cell at row, col
+  byte get(int row, int col);
+
+  // Colors a white cell. Returns true if this gave the player a bridge.
+  boolean claim(int row, int col, byte color);
+
+  // Takes back the last claim
+  void unclaim();
+
+  // Checks if the given player has connected their two edges
+  boolean hasBridge(byte color);
+}
+
+// The rules of BridgeIt on a packed board. Each cell is a single byte in a flat array
+// indexed by row * size + col, and neighbors are worked out from the index instead of
+// being stored, so even very large boards only cost a few bytes per cell.
+class BridgeItBoard implements IBridgeItBoard {
+  static final byte WHITE = 0;
+  static final byte PINK = 1; // Player one, connects the left edge to the right edge
+  static final byte MAGENTA = 2; // Player two, connects the top edge to the bottom edge
+
+  int size; // The number of rows and columns
+  byte[] cells; // The color of every cell
+  UnionFind sets; // Cells joined with the same colored neighbors, plus four edge nodes
+  BridgeItQuery query; // Made the first time a query is run on this board
+  long[] hashes; // Zobrist hash of the claimed cells under each of the board's symmetries
+  IntStack moves; // Every cell claimed so far, in order
+  IntStack marks; // Where the UnionFind log was before each of those claims
+
+  BridgeItBoard(int size) {
+    this.size = size;
+    this.cells = new byte[size * size];
+    this.sets = new UnionFind(size * size + 4);
+    this.hashes = new long[4];
+    this.moves = new IntStack(16);
+    this.marks = new IntStack(16);
+  }
+
+  // The virtual edge nodes come right after the cells in the UnionFind
+  int leftEdge() {
+    return this.cells.length;
+  }
+
+  int rightEdge() {
+    return this.cells.length + 1;
+  }
+
+  int topEdge() {
+    return this.cells.length + 2;
+  }
+
+  int bottomEdge() {
+    return this.cells.length + 3;
+  }
+
+  int index(int row, int col) {
+    return row * this.size + col;
+  }
+
+  int row(int index) {
+    return index / this.size;
+  }
+
+  int col(int index) {
+    return index % this.size;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  // Gets the color of the cell at row, col
+  public byte get(int row, int col) {
+    return this.cells[this.index(row, col)];
+  }
+
+  // The neighbors of a cell, or -1 if the cell is on that edge of the board
+  int top(int index) {
+    return index < this.size ? -1 : index - this.size;
+  }
+
+  int bottom(int index) {
+    return index >= this.cells.length - this.size ? -1 : index + this.size;
+  }
+
+  int left(int index) {
+    return index % this.size == 0 ? -1 : index - 1;
+  }
+
+  int right(int index) {
+    return index % this.size == this.size - 1 ? -1 : index + 1;
+  }
+
+  // The neighbor of a cell on the given side, 0 to 3 for top, bottom, left and right
+  int neighbor(int index, int side) {
+    if (side == 0) {
+      return this.top(index);
+    }
+    else if (side == 1) {
+      return this.bottom(index);
+    }
+    else if (side == 2) {
+      return this.left(index);
+    }
+    else {
+      return this.right(index);
+    }
+  }
+
+  // The color a cell starts the game with. Even rows alternate White and Magenta,
+  // odd rows alternate Pink and White.
+  static byte initialColor(int row, int col) {
+    if (row % 2 == 0) {
+      return col % 2 == 0 ? WHITE : MAGENTA;
+    }
+    else {
+      return col % 2 == 0 ? PINK : WHITE;
+    }
+  }
+
+  // Fills in the starting pattern one row at a time
+  void initialize() {
+    int index = 0;
+    for (int row = 0; row < this.size; row++) {
+      for (int col = 0; col < this.size; col++) {
+        this.cells[index] = initialColor(row, col);
+        index++;
+      }
+    }
+    this.sets = new UnionFind(this.cells.length + 4);
+    this.hashes = new long[4];
+    this.moves.clear();
+    this.marks.clear();
+  }
+
+  // Joins the pre colored cells on each players edges to the edge nodes. They are
+  // never next to a cell of their own color so nothing else needs joining, and only
+  // the outer rows and columns have to be looked at.
+  void linkEdges() {
+    for (int row = 0; row < this.size; row++) {
+      this.join(this.index(row, 0));
+      this.join(this.index(row, this.size - 1));
+    }
+    for (int col = 0; col < this.size; col++) {
+      this.join(this.index(0, col));
+      this.join(this.index(this.size - 1, col));
+    }
+  }
+
+  // Joins a colored cell to the neighbors that share its color, and to the edge node
+  // if it sits on one of its owners edges
+  void join(int index) {
+    byte color = this.cells[index];
+    if (color == PINK) {
+      if (index % this.size == 0) {
+        this.sets.union(index, this.leftEdge());
+      }
+      if (index % this.size == this.size - 1) {
+        this.sets.union(index, this.rightEdge());
+      }
+    }
+    else if (color == MAGENTA) {
+      if (index < this.size) {
+        this.sets.union(index, this.topEdge());
+      }
+      if (index >= this.cells.length - this.size) {
+        this.sets.union(index, this.bottomEdge());
+      }
+    }
+    else {
+      return;
+    }
+
+    int top = this.top(index);
+    int bottom = this.bottom(index);
+    int left = this.left(index);
+    int right = this.right(index);
+    if (top != -1 && this.cells[top] == color) {
+      this.sets.union(index, top);
+    }
+    if (bottom != -1 && this.cells[bottom] == color) {
+      this.sets.union(index, bottom);
+    }
+    if (left != -1 && this.cells[left] == color) {
+      this.sets.union(index, left);
+    }
+    if (right != -1 && this.cells[right] == color) {
+      this.sets.union(index, right);
+    }
+  }
+
+  // Colors a white cell and joins it to its neighbors. Returns true if this gave the
+  // player a bridge.
+  boolean claim(int index, byte color) {
+    this.moves.add(index);
+    this.marks.add(this.sets.mark());
+    this.cells[index] = color;
+    this.hash(index, color);
+    this.join(index);
+    return this.hasBridge(color);
+  }
+
+  public boolean claim(int row, int col, byte color) {
+    return this.claim(this.index(row, col), color);
+  }
+
+  // Takes back the last claim, putting the cell, the sets and the hashes back the way
+  // they were. Returns the cell that was cleared. Searches can claim and unclaim moves
+  // on one board instead of copying it for every branch.
+  int unclaimIndex() {
+    if (this.moves.size() == 0) {
+      throw new NoSuchElementException("No moves to take back");
+    }
+    int index = this.moves.remove();
+    this.hash(index, this.cells[index]);
+    this.cells[index] = WHITE;
+    this.sets.rollback(this.marks.remove());
+    return index;
+  }
+
+  public void unclaim() {
+    this.unclaimIndex();
+  }
+
+  // The query engine for this board, so its arrays are only ever allocated once
+  BridgeItQuery query() {
+    if (this.query == null) {
+      this.query = new BridgeItQuery(this);
+    }
+    return this.query;
+  }
+
+  // The board looks the same turned half way around, and also looks the same flipped
+  // along its diagonal if the two players swap colors. These map a cell to where it
+  // ends up under symmetry 0 (nothing), 1 (half turn), 2 (flip and swap) or 3 (both).
+  int mapCell(int index, int symmetry) {
+    int row = this.row(index);
+    int col = this.col(index);
+    int last = this.size - 1;
+    if (symmetry == 0) {
+      return index;
+    }
+    else if (symmetry == 1) {
+      return this.cells.length - 1 - index;
+    }
+    else if (symmetry == 2) {
+      return this.index(col, row);
+    }
+    else {
+      return this.index(last - col, last - row);
+    }
+  }
+
+  // The color a cell of the given color turns into under a symmetry
+  static byte mapColor(byte color, int symmetry) {
+    if (symmetry < 2 || color == WHITE) {
+      return color;
+    }
+    return color == PINK ? MAGENTA : PINK;
+  }
+
+  // A random looking 64 bit key for a cell holding a color. The keys are mixed from
+  // the index instead of being kept in a table so huge boards don't pay for them.
+  static long zobristKey(int index, byte color) {
+    long z = (index * 4L + color) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  // Key that is mixed in when it is player two's turn
+  static final long MAGENTA_TO_MOVE = zobristKey(-1, PINK);
+
+  // Adds or removes a claimed cell from the hashes
+  void hash(int index, byte color) {
+    for (int symmetry = 0; symmetry < 4; symmetry++) {
+      this.hashes[symmetry] ^= zobristKey(this.mapCell(index, symmetry),
+          mapColor(color, symmetry));
+    }
+  }
+
+  // The hash of this position with the given player to move
+  long hash(byte toMove) {
+    return this.hashes[0] ^ (toMove == MAGENTA ? MAGENTA_TO_MOVE : 0);
+  }
+
+  // The symmetry that gives this position its smallest hash. Positions that are the
+  // same up to symmetry all share that smallest hash.
+  int canonicalSymmetry(byte toMove) {
+    int best = 0;
+    long bestHash = this.symmetricHash(0, toMove);
+    for (int symmetry = 1; symmetry < 4; symmetry++) {
+      long hash = this.symmetricHash(symmetry, toMove);
+      if (Long.compareUnsigned(hash, bestHash) < 0) {
+        best = symmetry;
+        bestHash = hash;
+      }
+    }
+    return best;
+  }
+
+  // The hash of the position once a symmetry has been applied to it, including the
+  // player to move who also swaps under symmetries 2 and 3
+  long symmetricHash(int symmetry, byte toMove) {
+    byte mover = mapColor(toMove, symmetry);
+    return this.hashes[symmetry] ^ (mover == MAGENTA ? MAGENTA_TO_MOVE : 0);
+  }
+
+  long canonicalHash(byte toMove) {
+    return this.symmetricHash(this.canonicalSymmetry(toMove), toMove);
+  }
+
+  // Checks if the given player has connected their two edges
+  public boolean hasBridge(byte color) {
+    if (color == PINK) {
+      return this.sets.connected(this.leftEdge(), this.rightEdge());
+    }
+    else {
+      return this.sets.connected(this.topEdge(), this.bottomEdge());
+    }
+  }
+}
+
+// A BridgeIt board that only stores the cells that matter. A cell that has never been
+// touched still has its starting color, which is worked out from its row and column,
+// so making a board takes the same time no matter how big it is. Claimed cells and
+// the colored cells next to them get a node in the UnionFind the first time they are
+// looked at, and are found again with an open addressing table keyed on position.
+class SparseBridgeItBoard implements IBridgeItBoard {
+  static final int LEFT_EDGE = 0;
+  static final int RIGHT_EDGE = 1;
+  static final int TOP_EDGE = 2;
+  static final int BOTTOM_EDGE = 3;
+
+  int size; // The number of rows and columns
+  long[] keys; // row * size + col + 1 of the cell in each slot, or 0 for an empty slot
+  int[] nodes; // The node of the cell in the same slot of keys
+  int used; // How many slots are taken
+  byte[] colors; // The color of each node
+  UnionFind sets; // The four edge nodes, then a node for every cell that has been seen
+  IntStack moves; // The node of every cell claimed so far, in order
+  IntStack marks; // Where the UnionFind log was before each of those claims
+
+  SparseBridgeItBoard(int size) {
+    if (size < 3 || size % 2 == 0) {
+      throw new IllegalArgumentException("Size was either less than 3 or not odd");
+    }
+    this.size = size;
+    this.keys = new long[64];
+    this.nodes = new int[64];
+    this.used = 0;
+    this.colors = new byte[32];
+    this.sets = new UnionFind(4);
+    this.moves = new IntStack(16);
+    this.marks = new IntStack(16);
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  // Gets the color of the cell at row, col
+  public byte get(int row, int col) {
+    int node = this.find(row, col);
+    if (node == -1) {
+      return BridgeItBoard.initialColor(row, col);
+    }
+    return this.colors[node];
+  }
+
+  // Colors a white cell and joins it to its neighbors. Returns true if this gave the
+  // player a bridge.
+  public boolean claim(int row, int col, byte color) {
+    int node = this.nodeAt(row, col);
+    this.moves.add(node);
+    this.marks.add(this.sets.mark());
+    this.colors[node] = color;
+    int edge = this.edge(node, row, col);
+    if (edge != -1) {
+      this.sets.union(node, edge);
+    }
+    if (row > 0 && this.get(row - 1, col) == color) {
+      this.sets.union(node, this.nodeAt(row - 1, col));
+    }
+    if (row < this.size - 1 && this.get(row + 1, col) == color) {
+      this.sets.union(node, this.nodeAt(row + 1, col));
+    }
+    if (col > 0 && this.get(row, col - 1) == color) {
+      this.sets.union(node, this.nodeAt(row, col - 1));
+    }
+    if (col < this.size - 1 && this.get(row, col + 1) == color) {
+      this.sets.union(node, this.nodeAt(row, col + 1));
+    }
+    return this.hasBridge(color);
+  }
+
+  // Takes back the last claim. The nodes made along the way are kept, since they
+  // still have the right color and edge.
+  public void unclaim() {
+    if (this.moves.size() == 0) {
+      throw new NoSuchElementException("No moves to take back");
+    }
+    this.colors[this.moves.remove()] = BridgeItBoard.WHITE;
+    this.sets.rollback(this.marks.remove());
+  }
+
+  // Checks if the given player has connected their two edges
+  public boolean hasBridge(byte color) {
+    if (color == BridgeItBoard.PINK) {
+      return this.sets.connected(LEFT_EDGE, RIGHT_EDGE);
+    }
+    else {
+      return this.sets.connected(TOP_EDGE, BOTTOM_EDGE);
+    }
+  }
+
+  // The number of cells that have a node so far
+  int cellsStored() {
+    return this.used;
+  }
+
+  // The slot a key starts looking from. The key is mixed first so the cells along a
+  // row don't all pile up next to each other.
+  int slot(long key) {
+    key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+    key = key ^ (key >>> 33);
+    return (int) key & (this.keys.length - 1);
+  }
+
+  // Finds the node of the cell at row, col, or -1 if it doesn't have one
+  int find(int row, int col) {
+    long key = (long) row * this.size + col + 1;
+    int slot = this.slot(key);
+    while (this.keys[slot] != 0) {
+      if (this.keys[slot] == key) {
+        return this.nodes[slot];
+      }
+      slot = (slot + 1) & (this.keys.length - 1);
+    }
+    return -1;
+  }
+
+  // Finds the node of the cell at row, col, making one with the cell's starting color
+  // if it doesn't have one yet
+  int nodeAt(int row, int col) {
+    int node = this.find(row, col);
+    if (node != -1) {
+      return node;
+    }
+    node = this.sets.add();
+    if (node == this.colors.length) {
+      this.colors = Arrays.copyOf(this.colors, this.colors.length * 2);
+    }
+    this.colors[node] = BridgeItBoard.initialColor(row, col);
+    this.put((long) row * this.size + col + 1, node);
+    // Starting cells are never next to their own color, so the edge is all they need.
+    // It is attached without logging so taking back moves never unlinks it.
+    int edge = this.edge(node, row, col);
+    if (edge != -1) {
+      this.sets.attach(node, edge);
+    }
+    return node;
+  }
+
+  // Stores the node for a key, doubling the table when it gets half full
+  void put(long key, int node) {
+    if ((this.used + 1) * 2 > this.keys.length) {
+      long[] oldKeys = this.keys;
+      int[] oldNodes = this.nodes;
+      this.keys = new long[oldKeys.length * 2];
+      this.nodes = new int[oldNodes.length * 2];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != 0) {
+          this.insert(oldKeys[i], oldNodes[i]);
+        }
+      }
+    }
+    this.insert(key, node);
+    this.used++;
+  }
+
+  // Puts a key in the first empty slot from where it starts looking
+  void insert(long key, int node) {
+    int slot = this.slot(key);
+    while (this.keys[slot] != 0) {
+      slot = (slot + 1) & (this.keys.length - 1);
+    }
+    this.keys[slot] = key;
+    this.nodes[slot] = node;
+  }
+
+  // The edge node a node belongs with if its cell sits on one of its owners edges,
+  // or -1 if it doesn't
+  int edge(int node, int row, int col) {
+    byte color = this.colors[node];
+    if (color == BridgeItBoard.PINK) {
+      if (col == 0) {
+        return LEFT_EDGE;
+      }
+      if (col == this.size - 1) {
+        return RIGHT_EDGE;
+      }
+    }
+    else if (color == BridgeItBoard.MAGENTA) {
+      if (row == 0) {
+        return TOP_EDGE;
+      }
+      if (row == this.size - 1) {
+        return BOTTOM_EDGE;
+      }
+    }
+    return -1;
+  }
+}
+
+// Connectivity queries over a BridgeItBoard that reuse the same arrays every time.
+// Cells are marked as seen by stamping them with the current generation, so starting
+// a new query is just bumping the generation instead of clearing or allocating.
+class BridgeItQuery {
+  BridgeItBoard board;
+  int[] seen; // The generation each cell was last reached in
+  int generation; // Bumped at the start of every query
+  IntCollection worklist; // Cells waiting to be expanded, a stack or a queue
+  int[] distance; // Distances for shortestBridgeDistance, only valid for seen cells
+  IntQueue deque; // Double ended queue for shortestBridgeDistance
+  int expanded; // Cells taken off the worklist by the last isConnected
+  int scanned; // Cells whose color was looked at by the last query
+
+  // Searches depth first
+  BridgeItQuery(BridgeItBoard board) {
+    this(board, new IntStack(board.cells.length));
+  }
+
+  // Searches in whatever order the given worklist hands cells back in, depth first for
+  // an IntStack and breadth first for an IntQueue
+  BridgeItQuery(BridgeItBoard board, IntCollection worklist) {
+    this.board = board;
+    this.seen = new int[board.cells.length];
+    this.generation = 0;
+    this.worklist = worklist;
+  }
+
+  // Starts a new query so every cell counts as unseen again
+  void nextGeneration() {
+    if (this.generation == Integer.MAX_VALUE) {
+      Arrays.fill(this.seen, 0);
+      this.generation = 0;
+    }
+    this.generation++;
+    this.worklist.clear();
+    this.expanded = 0;
+    this.scanned = 0;
+  }
+
+  // Checks if a cell was reached by the last query
+  boolean reached(int index) {
+    return this.seen[index] == this.generation;
+  }
+
+  // Checks if the given player has a path of their own cells from one of their edges
+  // to the other
+  boolean isConnected(byte color) {
+    this.nextGeneration();
+    int size = this.board.size;
+
+    // Every cell of theirs on the first edge is a starting point
+    for (int i = 0; i < size; i++) {
+      int start = color == BridgeItBoard.PINK ? i * size : i;
+      this.push(start, color);
+    }
+
+    while (this.worklist.size() > 0) {
+      int current = this.worklist.remove();
+      this.expanded++;
+      if (this.onSecondEdge(current, color)) {
+        return true;
+      }
+      this.push(this.board.top(current), color);
+      this.push(this.board.bottom(current), color);
+      this.push(this.board.left(current), color);
+      this.push(this.board.right(current), color);
+    }
+    return false;
+  }
+
+  // Counts the cells connected to the given cell through cells of the same color.
+  // Afterwards reached can be used to see which cells they were.
+  int reachableFrom(int index) {
+    this.nextGeneration();
+    byte color = this.board.cells[index];
+    this.push(index, color);
+    int count = 0;
+
+    while (this.worklist.size() > 0) {
+      int current = this.worklist.remove();
+      count++;
+      this.push(this.board.top(current), color);
+      this.push(this.board.bottom(current), color);
+      this.push(this.board.left(current), color);
+      this.push(this.board.right(current), color);
+    }
+    return count;
+  }
+
+  // Adds a cell to the worklist if it has the right color and hasn't been seen
+  void push(int index, byte color) {
+    if (index == -1) {
+      return;
+    }
+    this.scanned++;
+    if (this.board.cells[index] == color && this.seen[index] != this.generation) {
+      this.seen[index] = this.generation;
+      this.worklist.add(index);
+    }
+  }
+
+  // Checks if a cell is on the edge the given player is trying to reach
+  boolean onSecondEdge(int index, byte color) {
+    if (color == BridgeItBoard.PINK) {
+      return this.board.col(index) == this.board.size - 1;
+    }
+    else {
+      return this.board.row(index) == this.board.size - 1;
+    }
+  }
+
+  // The fewest white cells the given player still has to claim to connect their edges,
+  // or -1 if the other player has already cut them off. Own cells cost nothing to walk
+  // through, white cells cost one and the other players cells are walls, so this is a
+  // 0-1 breadth first search where free steps go on the front of the queue.
+  int shortestBridgeDistance(byte color) {
+    if (this.deque == null) {
+      this.deque = new IntQueue(this.board.cells.length);
+      this.distance = new int[this.board.cells.length];
+    }
+    this.nextGeneration();
+    this.deque.clear();
+    int size = this.board.size;
+
+    for (int i = 0; i < size; i++) {
+      int start = color == BridgeItBoard.PINK ? i * size : i;
+      byte cell = this.board.cells[start];
+      if (cell == color) {
+        this.seen[start] = this.generation;
+        this.distance[start] = 0;
+        this.deque.addFirst(start);
+      }
+      else if (cell == BridgeItBoard.WHITE) {
+        this.seen[start] = this.generation;
+        this.distance[start] = 1;
+        this.deque.add(start);
+      }
+    }
+
+    while (this.deque.size() > 0) {
+      int current = this.deque.remove();
+      int dist = this.distance[current];
+      if (this.onSecondEdge(current, color)) {
+        // Cells leave the deque in order of distance so the first one is the closest
+        return dist;
+      }
+
+      for (int side = 0; side < 4; side++) {
+        int next = this.board.neighbor(current, side);
+        if (next == -1) {
+          continue;
+        }
+        byte cell = this.board.cells[next];
+        if (cell != color && cell != BridgeItBoard.WHITE) {
+          continue;
+        }
+        int cost = cell == color ? 0 : 1;
+        if (this.seen[next] != this.generation || dist + cost < this.distance[next]) {
+          this.seen[next] = this.generation;
+          this.distance[next] = dist + cost;
+          if (cost == 0) {
+            this.deque.addFirst(next);
+          }
+          else {
+            this.deque.add(next);
+          }
+        }
+      }
+    }
+    return -1;
+  }
+}
+
+// Something that can pick moves for a player without a mouse
+interface IBridgeItPlayer {
+  // Returns the index of the white cell to claim for the given player, or -1 if there
+  // is nothing left to claim
+  int chooseMove(BridgeItBoard board, byte color);
+}
+
 class BridgeItWorld extends World {
-  ArrayList<ArrayList<Vertex>> board;
+  BridgeItBoard board; // The packed board, or null when playing on a sparse board
+  IBridgeItBoard game; // The board moves are made on, the same as board when it is packed
   int size; // This is the size of the grid (If set to 5 the grid would be 5x5)
   boolean p1turn; // This is used to keep track of who's turn it is. (If true then player 1)
   boolean gameOver; // This is used so when a valid path is found we can update the game state
+  IBridgeItPlayer computer; // Plays for player two, or null when two people are playing
+  int moveCount; // How many cells have been claimed so far
+  ShannonPlayer hints; // Works out hints, made the first time one is asked for
+  int hint; // The cell suggested by the last hint, or -1 if there isn't one showing
+  IntStack history; // The row then col of every move played, so they can be undone
+  IntStack undone; // The row then col of every move undone since the last new move
+  int viewRow; // The top row shown on screen
+  int viewCol; // The left column shown on screen
+  int viewSize; // How many rows and columns are shown on screen
+  WorldScene scene; // Kept from frame to frame, made again when this is null
+  IntStack dirty; // Cells in the view that changed since the scene was last drawn
+  int hintDrawn; // The cell with a hint mark on the scene, or -1
+  boolean winnerDrawn; // Whether the winner message is on the scene
+  int placed; // Images placed on the scene since it was made
+
+  static final WorldImage HINT_MARK = new CircleImage(10, OutlineMode.SOLID, Color.GRAY);
+  // The scene keeps every image ever placed on it, and undo, redo and hints draw over
+  // the same cells again and again, so once this many have piled up it is thrown away
+  // and drawn again from scratch
+  static final int REBUILD_AFTER = 2000;
 
   // Constructor to initialize the world with a grid size.
   BridgeItWorld(int size) {
+    this(size, null);
+  }
+
+  // Constructor for playing against the computer, which takes player two's turns
+  BridgeItWorld(int size, IBridgeItPlayer computer) {
     // Does a check for whether the size is valid i.e. greater than 3 and is odd.
     if (size < 3 || size % 2 == 0) {
       throw new IllegalArgumentException("Size was either less than 3 or not odd");
     }
+    // The cells are indexed with an int so the whole board has to fit in one
+    if (size > 46339) {
+      throw new IllegalArgumentException("Size was too big for a packed board");
+    }
     this.size = size;
+    this.history = new IntStack(16);
+    this.undone = new IntStack(16);
     this.boardInitialization();
     this.linkCells();
     this.p1turn = true;
     this.gameOver = false;
+    this.computer = computer;
+    this.moveCount = 0;
+    this.hint = -1;
+    this.viewRow = 0;
+    this.viewCol = 0;
+    this.viewSize = size;
+    this.dirty = new IntStack(16);
+  }
+
+  // Constructor for a sparse board, which can be far too big to show at once so only
+  // viewSize rows and columns are drawn. The arrow keys move the view around.
+  BridgeItWorld(SparseBridgeItBoard game, int viewSize) {
+    if (viewSize < 1) {
+      throw new IllegalArgumentException("View size must be positive");
+    }
+    this.board = null;
+    this.game = game;
+    this.size = game.size();
+    this.history = new IntStack(16);
+    this.undone = new IntStack(16);
+    this.p1turn = true;
+    this.gameOver = false;
+    this.computer = null;
+    this.moveCount = 0;
+    this.hint = -1;
+    this.viewRow = 0;
+    this.viewCol = 0;
+    this.viewSize = Math.min(viewSize, this.size);
+    this.dirty = new IntStack(16);
   }
 
   // Handles player input as the only input is mouse clicks
   public void onMouseClicked(Posn pos) {
-    if (gameOver) {
+    if (this.computer != null && !this.p1turn) {
       return;
     }
     int row = pos.y / 40;
     int col = pos.x / 40;
+    if (pos.x >= 0 && pos.y >= 0 && row < this.viewSize && col < this.viewSize) {
+      this.play(this.viewRow + row, this.viewCol + col);
+    }
+  }
 
-    if (row >= 0 && row < this.size && col >= 0 && col < this.size) {
-      Vertex selected = this.board.get(row).get(col);
-      if (selected.color.equals(Color.WHITE)) {
-        // Selected color is determined by who's turn it is
-        if (p1turn) {
-          selected.color = Color.PINK;
-        }
-        else {
-          selected.color = Color.MAGENTA;
-        }
+  // Lets the computer take its turn. This happens on the tick after the click so the
+  // players move is drawn before the computer starts thinking.
+  public void onTick() {
+    if (this.computer != null && !this.p1turn && !this.gameOver) {
+      int move = this.computer.chooseMove(this.board, BridgeItBoard.MAGENTA);
+      if (move != -1) {
+        this.play(this.board.row(move), this.board.col(move));
+      }
+    }
+  }
 
-        // After we update the vertex we check to see if a winning path has been found
-        // if so we then update the game state. Else we switch the players turn
-        if (hasPathDFS()) {
-          gameOver = true;
-        }
-        else {
-          this.p1turn = !this.p1turn;
-        }
+  // Claims the cell at row, col for whoever's turn it is. Returns false and leaves the
+  // game alone if the move isn't allowed.
+  boolean play(int row, int col) {
+    if (gameOver) {
+      return false;
+    }
+
+    if (row >= 0 && row < this.size && col >= 0 && col < this.size) {
+      if (this.game.get(row, col) == BridgeItBoard.WHITE) {
+        // A new move means the undone ones can't be redone any more
+        this.undone.clear();
+        this.makeMove(row, col);
+        return true;
       }
     }
+    return false;
   }
 
-  boolean hasPathDFS() {
-    // We first determine the target color we are checking paths for based on whos
-    // turn it is
-    Color targetColor;
+  // Claims a white cell for whoever's turn it is
+  void makeMove(int row, int col) {
+    MoveEvent event = new MoveEvent();
+    event.begin();
+    long start = GameMetrics.start();
+
+    // Selected color is determined by who's turn it is
+    byte color;
     if (p1turn) {
-      targetColor = Color.PINK;
+      color = BridgeItBoard.PINK;
     }
     else {
-      targetColor = Color.MAGENTA;
+      color = BridgeItBoard.MAGENTA;
     }
 
-    // Check from the left to right for Player 1
-    if (targetColor == Color.PINK) {
-      for (int row = 0; row < this.size; row++) {
-        if (this.board.get(row).get(0).color.equals(targetColor) && dfs(this.board.get(row).get(0),
-            this.board.get(row).get(size - 1), targetColor, new Stack<Vertex>())) {
-          return true;
-        }
-      }
+    // After we update the cell we check to see if a winning path has been found
+    // if so we then update the game state. Else we switch the players turn
+    this.moveCount++;
+    this.hint = -1;
+    this.markDirty(row, col);
+    this.history.add(row);
+    this.history.add(col);
+    if (this.game.claim(row, col, color)) {
+      gameOver = true;
     }
-    // Check from the top to the bottom for Player 2
     else {
-      for (int col = 0; col < this.size; col++) {
-        if (this.board.get(0).get(col).color.equals(targetColor) && dfs(this.board.get(0).get(col),
-            this.board.get(size - 1).get(col), targetColor, new Stack<Vertex>())) {
-          return true;
-        }
-      }
+      this.p1turn = !this.p1turn;
     }
-    return false;
+    GameMetrics.BRIDGEIT_MOVES.recordSince(start);
+    event.report("BridgeIt", row, col, true, this.gameOver);
   }
 
-  boolean dfs(Vertex start, Vertex target, Color targetColor, ICollection<Vertex> worklist) {
-    ArrayList<Vertex> alreadySeen = new ArrayList<Vertex>();
-    worklist.add(start);
-
-    // If we have reached a valid edge return true so the game ends
-    if (targetColor == Color.PINK && start.col == this.size - 1) {
-      return true;
+  // Takes back the last move, including a winning one. Returns false if there are no
+  // moves to take back.
+  boolean undo() {
+    if (this.history.size() == 0) {
+      return false;
+    }
+    int col = this.history.remove();
+    int row = this.history.remove();
+    this.game.unclaim();
+    this.undone.add(row);
+    this.undone.add(col);
+    this.moveCount--;
+    this.hint = -1;
+    this.markDirty(row, col);
+    // The winner doesn't get their turn flipped, so neither does taking their move back
+    if (this.gameOver) {
+      this.gameOver = false;
+      this.scene = null;
+    }
+    else {
+      this.p1turn = !this.p1turn;
     }
-    if (targetColor == Color.MAGENTA && start.row == this.size - 1) {
-      return true;
+    return true;
+  }
+
+  // Plays the last undone move again. Returns false if there isn't one.
+  boolean redo() {
+    if (this.undone.size() == 0 || this.gameOver) {
+      return false;
     }
+    int col = this.undone.remove();
+    int row = this.undone.remove();
+    this.makeMove(row, col);
+    return true;
+  }
 
-    while (worklist.size() > 0) {
-      Vertex current = worklist.remove();
-      if (current == target && current.color.equals(targetColor)) {
-        return true;
+  // Pressing "h" shows the best move for the player whos turn it is, "u" and "r" undo
+  // and redo moves, and the arrow keys move the view when the board is bigger than the
+  // screen. "m" and "d" switch latency recording on and off and print it.
+  public void onKeyEvent(String key) {
+    if (GameMetrics.onKey(key)) {
+      return;
+    }
+    else if (key.equals("h") && !this.gameOver && this.board != null) {
+      if (this.hints == null) {
+        this.hints = new ShannonPlayer(new GreedyPlayer(new SplittableRandom()));
+      }
+      byte color = p1turn ? BridgeItBoard.PINK : BridgeItBoard.MAGENTA;
+      this.hint = this.hints.chooseMove(this.board, color);
+    }
+    else if (key.equals("u")) {
+      // Against the computer this goes back to the last time it was the players turn
+      this.undo();
+      if (this.computer != null && !this.p1turn) {
+        this.undo();
       }
+    }
+    else if (key.equals("r")) {
+      this.redo();
+      if (this.computer != null && !this.p1turn) {
+        this.redo();
+      }
+    }
+    else if (key.equals("up")) {
+      this.moveView(-this.viewSize / 2, 0);
+    }
+    else if (key.equals("down")) {
+      this.moveView(this.viewSize / 2, 0);
+    }
+    else if (key.equals("left")) {
+      this.moveView(0, -this.viewSize / 2);
+    }
+    else if (key.equals("right")) {
+      this.moveView(0, this.viewSize / 2);
+    }
+  }
 
-      // This adds the current vertexs neighbors to the worklist if it exists
-      else if (!alreadySeen.contains(current)) {
-        if (current.top != null && current.top.color.equals(targetColor)
-            && !alreadySeen.contains(current.top)) {
-          worklist.add(current.top);
-        }
-        if (current.bottom != null && current.bottom.color.equals(targetColor)
-            && !alreadySeen.contains(current.bottom)) {
-          worklist.add(current.bottom);
-        }
-        if (current.left != null && current.left.color.equals(targetColor)
-            && !alreadySeen.contains(current.left)) {
-          worklist.add(current.left);
-        }
-        if (current.right != null && current.right.color.equals(targetColor)
-            && !alreadySeen.contains(current.right)) {
-          worklist.add(current.right);
-        }
+  // Scrolls the view, keeping it on the board, and starts a new scene if it moved
+  void moveView(int rows, int cols) {
+    int last = this.size - this.viewSize;
+    int row = Math.max(0, Math.min(last, this.viewRow + rows));
+    int col = Math.max(0, Math.min(last, this.viewCol + cols));
+    if (row != this.viewRow || col != this.viewCol) {
+      this.viewRow = row;
+      this.viewCol = col;
+      this.scene = null;
+    }
+  }
 
-        alreadySeen.add(current);
-      }
+  // Remembers that a cell needs drawing again if it is on screen
+  void markDirty(int row, int col) {
+    int viewRow = row - this.viewRow;
+    int viewCol = col - this.viewCol;
+    if (viewRow >= 0 && viewRow < this.viewSize && viewCol >= 0 && viewCol < this.viewSize) {
+      this.dirty.add(viewRow * this.viewSize + viewCol);
     }
-    return false;
+  }
+
+  // Checks if the player whos turn it is has connected their two edges
+  boolean hasBridge() {
+    if (p1turn) {
+      return this.game.hasBridge(BridgeItBoard.PINK);
+    }
+    else {
+      return this.game.hasBridge(BridgeItBoard.MAGENTA);
+    }
+  }
+
+  // Searches the board for a path between the edges of the player whos turn it is.
+  // The game itself uses hasBridge, this walks the cells to get the same answer. A
+  // sparse board has no cells to walk, so it is asked with hasBridge instead.
+  boolean hasPathDFS() {
+    WinCheckEvent event = new WinCheckEvent();
+    event.begin();
+    long start = GameMetrics.start();
+    byte color = p1turn ? BridgeItBoard.PINK : BridgeItBoard.MAGENTA;
+    boolean found;
+    int expanded = 0;
+    int scanned = 0;
+    if (this.board == null) {
+      found = this.game.hasBridge(color);
+    }
+    else {
+      BridgeItQuery query = this.board.query();
+      found = query.isConnected(color);
+      expanded = query.expanded;
+      scanned = query.scanned;
+    }
+    GameMetrics.BRIDGEIT_WIN_CHECKS.recordSince(start);
+    event.report("BridgeIt", expanded, scanned, found);
+    return found;
   }
 
   // Initializes the board with cells and assigns colors based on the row and
   // column.
   void boardInitialization() {
-    this.board = new ArrayList<>();
-    for (int row = 0; row < this.size; row++) {
-      ArrayList<Vertex> cell = new ArrayList<>();
-      for (int col = 0; col < this.size; col++) {
-        Color color;
-
-        // If the Row is odd then we alternate between White and Magenta
-        if (row % 2 == 0) {
-          // If the column is odd the vertex should be White otherwise we default to
-          // Magenta
-          if (col % 2 == 0) {
-            color = Color.WHITE;
-          }
-          else {
-            color = Color.MAGENTA;
-          }
-          // If the Row is even then we alternate between Pink and White
-        }
-        else {
-          // If the column is odd the vertex should then be Pink otherwise we default to
-          // White
-          if (col % 2 == 0) {
-            color = Color.PINK;
-          }
-          else {
-            color = Color.WHITE;
-          }
-        }
-        cell.add(new Vertex(row, col, color));
-      }
-      this.board.add(cell);
-    }
+    this.board = new BridgeItBoard(this.size);
+    this.board.initialize();
+    this.game = this.board;
+    this.history.clear();
+    this.undone.clear();
+    this.scene = null;
   }
 
-  // This method should link the cells/vertexs to their respective neighbors
+  // Neighbors are worked out from a cells index so there is nothing to link between
+  // the cells themselves, all that is left is joining the edge cells to their edges
   void linkCells() {
-    for (int row = 0; row < this.size; row++) {
-      for (int col = 0; col < this.size; col++) {
-        Vertex current = this.board.get(row).get(col);
+    this.board.linkEdges();
+  }
 
-        if (row > 0) {
-          current.top = this.board.get(row - 1).get(col);
-        }
-        if (row < this.size - 1) {
-          current.bottom = this.board.get(row + 1).get(col);
-        }
-        if (col > 0) {
-          current.left = this.board.get(row).get(col - 1);
-        }
-        if (col < this.size - 1) {
-          current.right = this.board.get(row).get(col + 1);
-        }
-      }
+  // Turns a packed cell into the color it is drawn with
+  static Color colorOf(byte cell) {
+    if (cell == BridgeItBoard.PINK) {
+      return Color.PINK;
+    }
+    else if (cell == BridgeItBoard.MAGENTA) {
+      return Color.MAGENTA;
+    }
+    else {
+      return Color.WHITE;
     }
   }
 
-  // Creates the scene and then renders the gameboard
+  // Makes the vertex used to draw the cell at row, col
+  Vertex vertexAt(int row, int col) {
+    return new Vertex(row, col, colorOf(this.game.get(row, col)));
+  }
+
+  // Creates the scene and then renders the part of the gameboard in view. The scene is
+  // kept between frames and only the cells that changed since the last frame are drawn
+  // over it.
   public WorldScene makeScene() {
-    WorldScene scene = new WorldScene(this.size * 40, this.size * 40);
+    FrameEvent event = new FrameEvent();
+    event.begin();
+    long start = GameMetrics.start();
+    boolean rebuilt = this.scene == null || this.placed > REBUILD_AFTER;
+    if (rebuilt) {
+      this.scene = new WorldScene(this.viewSize * 40, this.viewSize * 40);
+      this.placed = 0;
+      for (int cell = 0; cell < this.viewSize * this.viewSize; cell++) {
+        this.drawCell(cell);
+      }
+      this.dirty.clear();
+      this.hintDrawn = -1;
+      this.winnerDrawn = false;
+    }
 
-    for (ArrayList<Vertex> row : this.board) {
-      for (Vertex cell : row) {
-        scene.placeImageXY(cell.draw(), cell.col * 40 + 20, cell.row * 40 + 20);
+    int drawn = rebuilt ? this.viewSize * this.viewSize : this.dirty.size();
+    while (this.dirty.size() > 0) {
+      this.drawCell(this.dirty.remove());
+    }
+
+    // Marks the hinted cell, and covers up the last mark if the hint moved. Hints only
+    // happen on packed boards, which are always shown whole.
+    if (this.hint != this.hintDrawn) {
+      if (this.hintDrawn != -1) {
+        this.drawCell(this.hintDrawn);
+        drawn++;
       }
+      if (this.hint != -1) {
+        this.place(HINT_MARK, this.board.col(this.hint) * 40 + 20,
+            this.board.row(this.hint) * 40 + 20);
+      }
+      this.hintDrawn = this.hint;
     }
 
     // If the game is over display who won.
-    if (gameOver && p1turn) {
-      scene.placeImageXY(new TextImage("Player one has won!", 20, Color.BLACK),
-          (this.size * 40) / 2, (this.size * 40) / 2);
-    }
-    else if (gameOver && !p1turn) {
-      scene.placeImageXY(new TextImage("Player two has won!", 20, Color.BLACK),
-          (this.size * 40) / 2, (this.size * 40) / 2);
+    if (gameOver && !this.winnerDrawn) {
+      if (p1turn) {
+        this.place(new TextImage("Player one has won!", 20, Color.BLACK),
+            (this.viewSize * 40) / 2, (this.viewSize * 40) / 2);
+      }
+      else {
+        this.place(new TextImage("Player two has won!", 20, Color.BLACK),
+            (this.viewSize * 40) / 2, (this.viewSize * 40) / 2);
+      }
+      this.winnerDrawn = true;
     }
-    return scene;
+    GameMetrics.BRIDGEIT_FRAMES.recordSince(start);
+    event.report("BridgeIt", drawn, rebuilt);
+    return this.scene;
+  }
+
+  // Places the sprite for a cell in the view on the kept scene
+  void drawCell(int viewIndex) {
+    int row = viewIndex / this.viewSize;
+    int col = viewIndex % this.viewSize;
+    byte cell = this.game.get(this.viewRow + row, this.viewCol + col);
+    this.place(Vertex.sprite(colorOf(cell)), col * 40 + 20, row * 40 + 20);
+  }
+
+  // Places an image on the kept scene, counting it
+  void place(WorldImage image, int x, int y) {
+    this.scene.placeImageXY(image, x, y);
+    this.placed++;
   }
 }
 
+// A cell as it is drawn on screen. The game itself works on the packed BridgeItBoard,
+// these only get made when rendering.
 class Vertex {
   int row; // The row of the cell in the grid.
   int col; // The column of the cell in the grid.
   Color color; // The color of the cell.
-  Vertex top; // Reference to the top neighbor.
-  Vertex bottom; // Reference to the bottom neighbor.
-  Vertex right; // Reference to the right neighbor.
-  Vertex left; // Reference to the left neighbor.
 
   Vertex(int row, int col, Color color) {
     this.row = row;
@@ -260,9 +1356,32 @@ class Vertex {
     this.color = color;
   }
 
-  WorldImage draw() {
-    return new RectangleImage(40, 40, OutlineMode.SOLID, this.color);
+  // There are only three colors a cell can be, so each gets one image that every cell
+  // shares
+  static final WorldImage WHITE_SPRITE = new RectangleImage(40, 40, OutlineMode.SOLID,
+      Color.WHITE);
+  static final WorldImage PINK_SPRITE = new RectangleImage(40, 40, OutlineMode.SOLID,
+      Color.PINK);
+  static final WorldImage MAGENTA_SPRITE = new RectangleImage(40, 40, OutlineMode.SOLID,
+      Color.MAGENTA);
+
+  static WorldImage sprite(Color color) {
+    if (color.equals(Color.WHITE)) {
+      return WHITE_SPRITE;
+    }
+    else if (color.equals(Color.PINK)) {
+      return PINK_SPRITE;
+    }
+    else if (color.equals(Color.MAGENTA)) {
+      return MAGENTA_SPRITE;
+    }
+    else {
+      return new RectangleImage(40, 40, OutlineMode.SOLID, color);
+    }
+  }
 
+  WorldImage draw() {
+    return sprite(this.color);
   }
 }
 
@@ -297,62 +1416,89 @@ class ExamplesBridgeIt {
     BridgeItWorld world = new BridgeItWorld(5);
     world.linkCells();
 
-    ArrayList<ArrayList<Vertex>> board = world.board;
+    BridgeItBoard board = world.board;
 
     // Checks a cell that has a neighbor in the right and bottom
-    Vertex cell = board.get(0).get(0);
-    t.checkExpect(cell.right, board.get(0).get(1));
-    t.checkExpect(cell.bottom, board.get(1).get(0));
+    int cell = board.index(0, 0);
+    t.checkExpect(board.right(cell), board.index(0, 1));
+    t.checkExpect(board.bottom(cell), board.index(1, 0));
+    t.checkExpect(board.top(cell), -1);
+    t.checkExpect(board.left(cell), -1);
 
     // Checks a cell that has a neighbor in only the left and botoom
-    cell = board.get(0).get(4);
-    t.checkExpect(cell.left, board.get(0).get(3));
-    t.checkExpect(cell.bottom, board.get(1).get(4));
+    cell = board.index(0, 4);
+    t.checkExpect(board.left(cell), board.index(0, 3));
+    t.checkExpect(board.bottom(cell), board.index(1, 4));
+    t.checkExpect(board.right(cell), -1);
 
     // Checks a cell that has a neighbor in only the top and right
-    cell = board.get(4).get(0);
-    t.checkExpect(cell.top, board.get(3).get(0));
-    t.checkExpect(cell.right, board.get(4).get(1));
+    cell = board.index(4, 0);
+    t.checkExpect(board.top(cell), board.index(3, 0));
+    t.checkExpect(board.right(cell), board.index(4, 1));
+    t.checkExpect(board.bottom(cell), -1);
 
     // Checks a cell that has a neighbor in only the top and left
-    cell = board.get(4).get(4);
-    t.checkExpect(cell.top, board.get(3).get(4));
-    t.checkExpect(cell.left, board.get(4).get(3));
+    cell = board.index(4, 4);
+    t.checkExpect(board.top(cell), board.index(3, 4));
+    t.checkExpect(board.left(cell), board.index(4, 3));
 
     // Checks a cell that has a neighbor in all directions
-    cell = board.get(2).get(2);
-    t.checkExpect(cell.top, board.get(1).get(2));
-    t.checkExpect(cell.bottom, board.get(3).get(2));
-    t.checkExpect(cell.right, board.get(2).get(3));
-    t.checkExpect(cell.left, board.get(2).get(1));
+    cell = board.index(2, 2);
+    t.checkExpect(board.top(cell), board.index(1, 2));
+    t.checkExpect(board.bottom(cell), board.index(3, 2));
+    t.checkExpect(board.right(cell), board.index(2, 3));
+    t.checkExpect(board.left(cell), board.index(2, 1));
 
+    // The pre colored edge cells are joined to their edges
+    t.checkExpect(board.sets.connected(board.index(1, 0), board.leftEdge()), true);
+    t.checkExpect(board.sets.connected(board.index(3, 4), board.rightEdge()), true);
+    t.checkExpect(board.sets.connected(board.index(0, 1), board.topEdge()), true);
+    t.checkExpect(board.sets.connected(board.index(4, 3), board.bottomEdge()), true);
+    t.checkExpect(board.sets.connected(board.leftEdge(), board.rightEdge()), false);
   }
 
   void testBoardInitialization(Tester t) {
     // Creates a world with a size of 5 (A 5x5 grid)
     BridgeItWorld world = new BridgeItWorld(5);
-    ArrayList<ArrayList<Vertex>> board = world.board;
+    BridgeItBoard board = world.board;
 
     // This checks to make sure the board size is actually 5 as inputted by checking
     // amount of rows and columns
-    t.checkExpect(board.size(), 5);
-    t.checkExpect(board.get(0).size(), 5);
+    t.checkExpect(board.size, 5);
+    t.checkExpect(board.cells.length, 25);
 
     // This checks to make sure the first cell at 0,0 is actually white
-    t.checkExpect(board.get(0).get(0).color, Color.WHITE);
+    t.checkExpect(board.get(0, 0), BridgeItBoard.WHITE);
 
     // This checks to make sure the second cell (0,1) should be magenta as this
     // should always be magenta and should always exist no matter the grid size
-    t.checkExpect(board.get(0).get(1).color, Color.MAGENTA);
+    t.checkExpect(board.get(0, 1), BridgeItBoard.MAGENTA);
 
     // This checks to make sure the first cell of the second row (1,0) should be
     // pink as this should always be pink and should always exist no matter the grid
     // size
-    t.checkExpect(board.get(1).get(0).color, Color.PINK);
+    t.checkExpect(board.get(1, 0), BridgeItBoard.PINK);
 
     // This checks to make sure the second cell of the second row at 1,1 is white as
     // this should always be white and always exist
-    t.checkExpect(board.get(1).get(1).color, Color.WHITE);
+    t.checkExpect(board.get(1, 1), BridgeItBoard.WHITE);
+
+    // The renderer turns the packed cells back into colors
+    t.checkExpect(world.vertexAt(0, 1).color, Color.MAGENTA);
+    t.checkExpect(world.vertexAt(1, 0).color, Color.PINK);
+    t.checkExpect(world.vertexAt(1, 1).draw(),
+        new RectangleImage(40, 40, OutlineMode.SOLID, Color.WHITE));
+  }
+
+  void testLargeBoard(Tester t) {
+    // A 2001x2001 board is only a byte per cell plus the sets
+    BridgeItWorld world = new BridgeItWorld(2001);
+    t.checkExpect(world.board.cells.length, 2001 * 2001);
+    t.checkExpect(world.board.get(2000, 2000), BridgeItBoard.WHITE);
+    t.checkExpect(world.board.get(1999, 2000), BridgeItBoard.PINK);
+    t.checkExpect(world.play(2000, 2000), true);
+    t.checkExpect(world.board.get(2000, 2000), BridgeItBoard.PINK);
+    t.checkExpect(world.play(2000, 2000), false);
   }
 
   void testHasPathDFS(Tester t) {
@@ -379,12 +1525,12 @@ class ExamplesBridgeIt {
 
     t.checkExpect(world.p1turn, true);
     world.onMouseClicked(new Posn(0, 0));
-    t.checkExpect(world.board.get(0).get(0).color, Color.PINK);
+    t.checkExpect(world.board.get(0, 0), BridgeItBoard.PINK);
 
     // After a click the player turn should swap
     t.checkExpect(world.p1turn, false);
     world.onMouseClicked(new Posn(60, 60));
-    t.checkExpect(world.board.get(0).get(1).color, Color.MAGENTA);
+    t.checkExpect(world.board.get(0, 1), BridgeItBoard.MAGENTA);
 
     t.checkExpect(world.p1turn, true);
     world.onMouseClicked(new Posn(0, 0));
@@ -393,6 +1539,193 @@ class ExamplesBridgeIt {
     t.checkExpect(world.p1turn, true);
   }
 
+  void testMakeScene(Tester t) {
+    BridgeItWorld world = new BridgeItWorld(5);
+    WorldScene scene = world.makeScene();
+
+    // The same scene comes back every frame with just the claimed cell drawn again
+    world.play(1, 1);
+    t.checkExpect(world.dirty.size(), 1);
+    t.checkExpect(world.makeScene() == scene, true);
+    t.checkExpect(world.dirty.size(), 0);
+
+    // Cells of the same color share one image
+    t.checkExpect(world.vertexAt(1, 1).draw() == world.vertexAt(1, 0).draw(), true);
+    t.checkExpect(Vertex.sprite(Color.WHITE), Vertex.WHITE_SPRITE);
+
+    // Undoing and redoing draws over the same cell, until the scene is made again
+    t.checkExpect(world.placed, 26);
+    world.undo();
+    world.makeScene();
+    world.redo();
+    t.checkExpect(world.makeScene() == scene, true);
+    t.checkExpect(world.placed, 28);
+    world.placed = BridgeItWorld.REBUILD_AFTER + 1;
+    WorldScene rebuilt = world.makeScene();
+    t.checkExpect(rebuilt == scene, false);
+    t.checkExpect(world.placed, 25);
+
+    // A new board starts a new scene
+    world.boardInitialization();
+    world.linkCells();
+    t.checkExpect(world.makeScene() == rebuilt, false);
+  }
+
+  void testHasBridge(Tester t) {
+    // A 3x3 board is won by whoever takes the middle
+    BridgeItWorld world = new BridgeItWorld(3);
+    t.checkExpect(world.hasBridge(), false);
+    world.onMouseClicked(new Posn(60, 60));
+    t.checkExpect(world.hasBridge(), true);
+
+    // A bridge that changes rows on the way across still counts. Player one takes
+    // (1,1), (2,2) and (3,3) which links (1,0) on the left to (3,4) on the right.
+    BridgeItWorld world2 = new BridgeItWorld(5);
+    world2.onMouseClicked(new Posn(60, 60));
+    world2.onMouseClicked(new Posn(0, 0));
+    world2.onMouseClicked(new Posn(100, 100));
+    world2.onMouseClicked(new Posn(160, 0));
+    t.checkExpect(world2.gameOver, false);
+    world2.onMouseClicked(new Posn(140, 140));
+    t.checkExpect(world2.gameOver, true);
+    t.checkExpect(world2.p1turn, true);
+  }
+
+  void testUnionFind(Tester t) {
+    UnionFind sets = new UnionFind(5);
+    t.checkExpect(sets.connected(0, 1), false);
+    sets.union(0, 1);
+    sets.union(3, 4);
+    t.checkExpect(sets.connected(0, 1), true);
+    t.checkExpect(sets.connected(1, 4), false);
+    sets.union(1, 3);
+    t.checkExpect(sets.connected(0, 4), true);
+    t.checkExpect(sets.connected(2, 4), false);
+  }
+
+  void testQueryIsConnected(Tester t) {
+    BridgeItWorld world = new BridgeItWorld(5);
+    BridgeItQuery query = world.board.query();
+    t.checkExpect(query.isConnected(BridgeItBoard.PINK), false);
+    t.checkExpect(query.isConnected(BridgeItBoard.MAGENTA), false);
+
+    // The same bridge as testHasBridge, which changes rows on the way across
+    world.play(1, 1);
+    world.play(0, 0);
+    world.play(2, 2);
+    world.play(0, 4);
+    t.checkExpect(query.isConnected(BridgeItBoard.PINK), false);
+    world.play(3, 3);
+    t.checkExpect(query.isConnected(BridgeItBoard.PINK), true);
+    t.checkExpect(query.isConnected(BridgeItBoard.PINK),
+        world.board.hasBridge(BridgeItBoard.PINK));
+    t.checkExpect(query.isConnected(BridgeItBoard.MAGENTA), false);
+    t.checkExpect(world.board.query(), query);
+  }
+
+  void testQueryReachableFrom(Tester t) {
+    BridgeItWorld world = new BridgeItWorld(5);
+    BridgeItQuery query = world.board.query();
+
+    // Pre colored cells start out on their own
+    t.checkExpect(query.reachableFrom(world.board.index(1, 0)), 1);
+
+    // (1,0) (1,1) (1,2) (2,2) (3,2) once player one claims (1,1) and (2,2)
+    world.play(1, 1);
+    world.play(0, 0);
+    world.play(2, 2);
+    t.checkExpect(query.reachableFrom(world.board.index(1, 0)), 5);
+    t.checkExpect(query.reached(world.board.index(3, 2)), true);
+    t.checkExpect(query.reached(world.board.index(3, 0)), false);
+
+    // White cells are a region too
+    t.checkExpect(query.reachableFrom(world.board.index(4, 4)), 1);
+  }
+
+  void testQueryShortestBridgeDistance(Tester t) {
+    // A new 3x3 board needs one cell from either player
+    BridgeItWorld world = new BridgeItWorld(3);
+    BridgeItQuery query = world.board.query();
+    t.checkExpect(query.shortestBridgeDistance(BridgeItBoard.PINK), 1);
+    t.checkExpect(query.shortestBridgeDistance(BridgeItBoard.MAGENTA), 1);
+
+    // A new 5x5 board needs two, one between each pair of columns
+    BridgeItWorld world2 = new BridgeItWorld(5);
+    query = world2.board.query();
+    t.checkExpect(query.shortestBridgeDistance(BridgeItBoard.PINK), 2);
+    world2.play(1, 1);
+    t.checkExpect(query.shortestBridgeDistance(BridgeItBoard.PINK), 1);
+
+    // Player two blocks the middle of row 1, so player one has to go around
+    world2.play(1, 3);
+    t.checkExpect(query.shortestBridgeDistance(BridgeItBoard.PINK), 2);
+
+    // Once player one has won, player two is cut off
+    world2.play(2, 2);
+    world2.play(0, 0);
+    world2.play(3, 3);
+    t.checkExpect(world2.gameOver, true);
+    t.checkExpect(query.shortestBridgeDistance(BridgeItBoard.PINK), 0);
+    t.checkExpect(query.shortestBridgeDistance(BridgeItBoard.MAGENTA), -1);
+  }
+
+  void testIntStack(Tester t) {
+    IntStack stack = new IntStack(2);
+    stack.add(1);
+    stack.add(2);
+    stack.add(3);
+    t.checkExpect(stack.size(), 3);
+    t.checkExpect(stack.remove(), 3);
+    t.checkExpect(stack.remove(), 2);
+
+    // Clearing keeps the array it grew into
+    int[] items = stack.items;
+    stack.clear();
+    t.checkExpect(stack.size(), 0);
+    t.checkExpect(stack.items, items);
+    t.checkException(new NoSuchElementException("Stack is empty"), stack, "remove");
+  }
+
+  void testIntQueue(Tester t) {
+    IntQueue queue = new IntQueue(3);
+    t.checkExpect(queue.items.length, 4);
+    queue.add(1);
+    queue.add(2);
+    queue.add(3);
+    t.checkExpect(queue.remove(), 1);
+    queue.add(4);
+    queue.add(5);
+
+    // The buffer has wrapped around and is full, so putting one on the front grows it
+    queue.addFirst(0);
+    queue.add(6);
+    t.checkExpect(queue.items.length, 8);
+    t.checkExpect(queue.size(), 6);
+    t.checkExpect(queue.remove(), 0);
+    t.checkExpect(queue.remove(), 2);
+    t.checkExpect(queue.remove(), 3);
+    t.checkExpect(queue.remove(), 4);
+    t.checkExpect(queue.remove(), 5);
+    t.checkExpect(queue.remove(), 6);
+    queue.clear();
+    t.checkExpect(queue.items.length, 8);
+    t.checkException(new NoSuchElementException("Queue is empty"), queue, "remove");
+  }
+
+  void testQueryBreadthFirst(Tester t) {
+    // A queue instead of a stack gives the same answers in a different order
+    BridgeItWorld world = new BridgeItWorld(5);
+    BridgeItQuery query = new BridgeItQuery(world.board, new IntQueue(4));
+    world.play(1, 1);
+    world.play(0, 0);
+    world.play(2, 2);
+    t.checkExpect(query.reachableFrom(world.board.index(1, 0)), 5);
+    world.play(0, 4);
+    world.play(3, 3);
+    t.checkExpect(query.isConnected(BridgeItBoard.PINK), true);
+    t.checkExpect(query.isConnected(BridgeItBoard.MAGENTA), false);
+  }
+
   void testGameOverCondition(Tester t) {
     BridgeItWorld world = new BridgeItWorld(3);
     world.boardInitialization();
@@ -407,4 +1740,216 @@ class ExamplesBridgeIt {
     t.checkExpect(world.p1turn, true);
   }
 
+  void testSparseBoard(Tester t) {
+    // Far too big for a packed board, but nothing is stored until cells get claimed
+    SparseBridgeItBoard board = new SparseBridgeItBoard(100001);
+    t.checkExpect(board.size(), 100001);
+    t.checkExpect(board.get(0, 0), BridgeItBoard.WHITE);
+    t.checkExpect(board.get(1, 0), BridgeItBoard.PINK);
+    t.checkExpect(board.get(0, 1), BridgeItBoard.MAGENTA);
+    t.checkExpect(board.get(100000, 99999), BridgeItBoard.MAGENTA);
+    t.checkExpect(board.cellsStored(), 0);
+
+    // Claiming a cell stores it and the two pink cells it joins
+    t.checkExpect(board.claim(1, 1, BridgeItBoard.PINK), false);
+    t.checkExpect(board.get(1, 1), BridgeItBoard.PINK);
+    t.checkExpect(board.cellsStored(), 3);
+    t.checkExpect(board.sets.connected(board.find(1, 0), board.find(1, 2)), true);
+    t.checkExpect(board.sets.connected(board.find(1, 0), SparseBridgeItBoard.LEFT_EDGE),
+        true);
+
+    // Lots of claims make the table grow without losing any cells
+    for (int col = 1; col < 200; col += 2) {
+      board.claim(99999, col, BridgeItBoard.PINK);
+    }
+    t.checkExpect(board.get(99999, 101), BridgeItBoard.PINK);
+    t.checkExpect(board.get(99999, 100), BridgeItBoard.PINK);
+    t.checkExpect(board.get(99998, 100), BridgeItBoard.WHITE);
+    t.checkExpect(board.sets.connected(board.find(99999, 0), board.find(99999, 200)), true);
+    t.checkConstructorException(
+        new IllegalArgumentException("Size was either less than 3 or not odd"),
+        "SparseBridgeItBoard", 100000);
+  }
+
+  void testSparseBoardMatchesPacked(Tester t) {
+    // The same random game on both kinds of board has the same winner on the same move
+    for (int seed = 0; seed < 20; seed++) {
+      BridgeItWorld packed = new BridgeItWorld(7);
+      BridgeItWorld sparse = new BridgeItWorld(new SparseBridgeItBoard(7), 7);
+      SplittableRandom random = new SplittableRandom(seed);
+      boolean same = true;
+      while (!packed.gameOver) {
+        int row = random.nextInt(7);
+        int col = random.nextInt(7);
+        same = same && packed.play(row, col) == sparse.play(row, col)
+            && packed.gameOver == sparse.gameOver && packed.p1turn == sparse.p1turn;
+      }
+      t.checkExpect(same, true);
+      t.checkExpect(sparse.gameOver, true);
+      t.checkExpect(sparse.moveCount, packed.moveCount);
+    }
+  }
+
+  void testSparsePathDFS(Tester t) {
+    BridgeItWorld packed = new BridgeItWorld(3);
+    BridgeItWorld sparse = new BridgeItWorld(new SparseBridgeItBoard(3), 3);
+    t.checkExpect(sparse.hasPathDFS(), false);
+    packed.game.claim(1, 1, BridgeItBoard.PINK);
+    sparse.game.claim(1, 1, BridgeItBoard.PINK);
+    t.checkExpect(sparse.hasPathDFS(), true);
+    t.checkExpect(sparse.hasPathDFS(), packed.hasPathDFS());
+  }
+
+  void testSparseView(Tester t) {
+    BridgeItWorld world = new BridgeItWorld(new SparseBridgeItBoard(100001), 11);
+    t.checkExpect(world.board, null);
+    t.checkExpect(world.viewSize, 11);
+
+    // Clicks land relative to the top left of the view
+    world.onMouseClicked(new Posn(85, 85));
+    t.checkExpect(world.game.get(2, 2), BridgeItBoard.PINK);
+    world.onKeyEvent("down");
+    world.onKeyEvent("right");
+    t.checkExpect(world.viewRow, 5);
+    t.checkExpect(world.viewCol, 5);
+    world.onMouseClicked(new Posn(5, 5));
+    t.checkExpect(world.game.get(5, 5), BridgeItBoard.MAGENTA);
+    t.checkExpect(world.moveCount, 2);
+
+    // Clicks past the edge of the view are ignored
+    world.onMouseClicked(new Posn(40 * 11 + 5, 5));
+    t.checkExpect(world.moveCount, 2);
+    // and so are clicks just above or left of it, which would round to the first cell
+    world.onMouseClicked(new Posn(-5, 45));
+    world.onMouseClicked(new Posn(45, -5));
+    t.checkExpect(world.moveCount, 2);
+
+    // The view stops at the edges of the board
+    world.onKeyEvent("up");
+    world.onKeyEvent("up");
+    t.checkExpect(world.viewRow, 0);
+    world.viewCol = 100001 - 11;
+    world.onKeyEvent("right");
+    t.checkExpect(world.viewCol, 100001 - 11);
+    world.makeScene();
+    world.onMouseClicked(new Posn(40 * 10 + 5, 5));
+    t.checkExpect(world.game.get(0, 100000), BridgeItBoard.PINK);
+    world.onMouseClicked(new Posn(40 * 9 + 5, 45));
+    t.checkExpect(world.game.get(1, 99999), BridgeItBoard.MAGENTA);
+    t.checkExpect(world.dirty.size(), 2);
+    world.makeScene();
+    t.checkExpect(world.dirty.size(), 0);
+
+    // There is no hint on a sparse board
+    world.onKeyEvent("h");
+    t.checkExpect(world.hint, -1);
+  }
+
+  void testUnionFindRollback(Tester t) {
+    UnionFind sets = new UnionFind(5);
+    sets.union(0, 1);
+    int mark = sets.mark();
+    sets.union(3, 4);
+    sets.union(1, 3);
+    t.checkExpect(sets.connected(0, 4), true);
+    sets.rollback(mark);
+    t.checkExpect(sets.connected(0, 1), true);
+    t.checkExpect(sets.connected(0, 4), false);
+    t.checkExpect(sets.connected(3, 4), false);
+    t.checkExpect(sets.rank[sets.find(0)], (byte) 1);
+    t.checkExpect(sets.rank[3], (byte) 0);
+    sets.rollback(0);
+    t.checkExpect(sets.connected(0, 1), false);
+    t.checkExpect(sets.rank[0], (byte) 0);
+  }
+
+  void testUnclaim(Tester t) {
+    // Playing out a random game and taking every move back leaves the board exactly
+    // as it started
+    BridgeItWorld world = new BridgeItWorld(9);
+    BridgeItBoard board = world.board;
+    byte[] start = board.cells.clone();
+    int[] parents = Arrays.copyOf(board.sets.parent, board.sets.count);
+    SplittableRandom random = new SplittableRandom(3);
+    byte color = BridgeItBoard.PINK;
+    int claimed = 0;
+    boolean won = false;
+    while (!won) {
+      int cell = random.nextInt(board.cells.length);
+      if (board.cells[cell] == BridgeItBoard.WHITE) {
+        won = board.claim(cell, color);
+        color = MctsPlayer.other(color);
+        claimed++;
+      }
+    }
+    t.checkExpect(board.unclaimIndex() >= 0, true);
+    t.checkExpect(board.hasBridge(BridgeItBoard.PINK), false);
+    t.checkExpect(board.hasBridge(BridgeItBoard.MAGENTA), false);
+    for (int i = 1; i < claimed; i++) {
+      board.unclaim();
+    }
+    t.checkExpect(board.cells, start);
+    t.checkExpect(Arrays.copyOf(board.sets.parent, board.sets.count), parents);
+    t.checkExpect(board.hashes, new long[4]);
+    t.checkException(new NoSuchElementException("No moves to take back"), board, "unclaim");
+
+    // The sparse board takes moves back the same way
+    SparseBridgeItBoard sparse = new SparseBridgeItBoard(3);
+    sparse.claim(1, 1, BridgeItBoard.MAGENTA);
+    t.checkExpect(sparse.hasBridge(BridgeItBoard.MAGENTA), true);
+    sparse.unclaim();
+    t.checkExpect(sparse.get(1, 1), BridgeItBoard.WHITE);
+    t.checkExpect(sparse.hasBridge(BridgeItBoard.MAGENTA), false);
+    t.checkExpect(sparse.claim(1, 1, BridgeItBoard.PINK), true);
+  }
+
+  void testUndoRedo(Tester t) {
+    BridgeItWorld world = new BridgeItWorld(5);
+    t.checkExpect(world.undo(), false);
+    world.play(1, 1);
+    world.play(2, 2);
+    world.play(3, 3);
+    world.onKeyEvent("u");
+    t.checkExpect(world.board.get(3, 3), BridgeItBoard.WHITE);
+    t.checkExpect(world.p1turn, true);
+    t.checkExpect(world.moveCount, 2);
+    world.onKeyEvent("u");
+    t.checkExpect(world.board.get(2, 2), BridgeItBoard.WHITE);
+    t.checkExpect(world.p1turn, false);
+    world.onKeyEvent("r");
+    world.onKeyEvent("r");
+    t.checkExpect(world.board.get(2, 2), BridgeItBoard.MAGENTA);
+    t.checkExpect(world.board.get(3, 3), BridgeItBoard.PINK);
+    t.checkExpect(world.redo(), false);
+
+    // A new move after undoing throws away the moves that could have been redone
+    world.undo();
+    world.play(1, 3);
+    t.checkExpect(world.redo(), false);
+    t.checkExpect(world.board.get(1, 3), BridgeItBoard.PINK);
+
+    // Taking back a winning move carries on the game with the winner to play
+    BridgeItWorld small = new BridgeItWorld(3);
+    small.play(1, 1);
+    small.makeScene();
+    t.checkExpect(small.gameOver, true);
+    t.checkExpect(small.undo(), true);
+    t.checkExpect(small.gameOver, false);
+    t.checkExpect(small.p1turn, true);
+    t.checkExpect(small.winnerDrawn, true);
+    small.makeScene();
+    t.checkExpect(small.winnerDrawn, false);
+    t.checkExpect(small.redo(), true);
+    t.checkExpect(small.gameOver, true);
+
+    // Against the computer undo goes back to the players own turn
+    BridgeItWorld computer = new BridgeItWorld(5, new GreedyPlayer(new SplittableRandom(1)));
+    computer.play(1, 1);
+    computer.onTick();
+    t.checkExpect(computer.moveCount, 2);
+    computer.onKeyEvent("u");
+    t.checkExpect(computer.moveCount, 0);
+    t.checkExpect(computer.p1turn, true);
+  }
+
 }
@@ -0,0 +1,460 @@
+import java.util.*;
+import java.util.concurrent.*;
+import tester.*;
+import javalib.worldimages.*;
+
+// Picks any white cell at random
+class RandomPlayer implements IBridgeItPlayer {
+  SplittableRandom random;
+
+  RandomPlayer(SplittableRandom random) {
+    this.random = random;
+  }
+
+  public int chooseMove(BridgeItBoard board, byte color) {
+    int[] empties = MctsPlayer.whiteCells(board.cells);
+    if (empties.length == 0) {
+      return -1;
+    }
+    return empties[this.random.nextInt(empties.length)];
+  }
+}
+
+// Looks one move ahead and picks the cell that leaves the biggest gap between how many
+// cells the other player still needs and how many this player still needs. Ties are
+// broken at random.
+class GreedyPlayer implements IBridgeItPlayer {
+  SplittableRandom random;
+
+  GreedyPlayer(SplittableRandom random) {
+    this.random = random;
+  }
+
+  public int chooseMove(BridgeItBoard board, byte color) {
+    BridgeItQuery query = board.query();
+    byte opponent = MctsPlayer.other(color);
+    int best = -1;
+    int bestScore = Integer.MIN_VALUE;
+    int ties = 0;
+
+    for (int cell = 0; cell < board.cells.length; cell++) {
+      if (board.cells[cell] != BridgeItBoard.WHITE) {
+        continue;
+      }
+      // Only the cells are touched, the queries don't look at the sets
+      board.cells[cell] = color;
+      int mine = query.shortestBridgeDistance(color);
+      int theirs = query.shortestBridgeDistance(opponent);
+      board.cells[cell] = BridgeItBoard.WHITE;
+
+      int score;
+      if (theirs == -1 || mine == 0) {
+        score = Integer.MAX_VALUE;
+      }
+      else {
+        score = theirs - mine;
+      }
+      if (score > bestScore) {
+        best = cell;
+        bestScore = score;
+        ties = 1;
+      }
+      else if (score == bestScore) {
+        ties++;
+        if (this.random.nextInt(ties) == 0) {
+          best = cell;
+        }
+      }
+    }
+    return best;
+  }
+}
+
+// A computer player that picks moves with Monte Carlo Tree Search. Every search runs
+// one tree per thread (root parallelism) so the threads never share anything while
+// they work, then the visit counts at the roots are added together to pick a move.
+// The threads belong to the player, so it has to be closed once it is done with.
+class MctsPlayer implements IBridgeItPlayer, AutoCloseable {
+  long millisPerMove; // How long a search may take
+  long playoutsPerMove; // How many playouts a search may run, across all threads
+  int threads; // How many trees are searched at once
+  ForkJoinPool pool;
+  SplittableRandom seeds; // Hands each worker its own random stream
+  long lastPlayouts; // Playouts run by the last search
+  double lastPlayoutsPerSecond; // Speed of the last search
+
+  MctsPlayer(long millisPerMove, long playoutsPerMove, int threads) {
+    this(millisPerMove, playoutsPerMove, threads, new SplittableRandom());
+  }
+
+  MctsPlayer(long millisPerMove, long playoutsPerMove, int threads, SplittableRandom seeds) {
+    if (millisPerMove <= 0 || playoutsPerMove <= 0 || threads <= 0) {
+      throw new IllegalArgumentException("Budgets and thread count must be positive");
+    }
+    this.millisPerMove = millisPerMove;
+    this.playoutsPerMove = playoutsPerMove;
+    this.threads = threads;
+    this.pool = new ForkJoinPool(threads);
+    this.seeds = seeds;
+  }
+
+  // Searches the position and returns the index of the cell with the most visits
+  public int chooseMove(BridgeItBoard board, byte color) {
+    int[] empties = MctsPlayer.whiteCells(board.cells);
+    if (empties.length == 0) {
+      return -1;
+    }
+    if (empties.length == 1) {
+      return empties[0];
+    }
+
+    long start = System.nanoTime();
+    long deadline = start + this.millisPerMove * 1000000L;
+    ArrayList<MctsWorker> workers = new ArrayList<MctsWorker>();
+    for (int i = 0; i < this.threads; i++) {
+      long playouts = this.playoutsPerMove / this.threads;
+      if (i < this.playoutsPerMove % this.threads) {
+        playouts++;
+      }
+      workers.add(new MctsWorker(board.cells, board.size, color, empties, deadline, playouts,
+          this.seeds.split()));
+    }
+
+    // Add up how often each move was tried at the root of every tree
+    long[] visits = new long[board.cells.length];
+    long total = 0;
+    for (Future<MctsNode> result : this.pool.invokeAll(workers)) {
+      MctsNode root;
+      try {
+        root = result.get();
+      }
+      catch (InterruptedException | ExecutionException e) {
+        throw new IllegalStateException("Search failed", e);
+      }
+      for (int i = 0; i < root.childCount; i++) {
+        visits[root.children[i].move] += root.children[i].visits;
+      }
+      total += root.visits;
+    }
+    this.lastPlayouts = total;
+    this.lastPlayoutsPerSecond = total / Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+    int best = empties[0];
+    for (int cell : empties) {
+      if (visits[cell] > visits[best]) {
+        best = cell;
+      }
+    }
+    return best;
+  }
+
+  // Stops the search threads
+  public void close() {
+    this.pool.shutdown();
+  }
+
+  // The indexes of every white cell
+  static int[] whiteCells(byte[] cells) {
+    int count = 0;
+    for (byte cell : cells) {
+      if (cell == BridgeItBoard.WHITE) {
+        count++;
+      }
+    }
+    int[] empties = new int[count];
+    int next = 0;
+    for (int i = 0; i < cells.length; i++) {
+      if (cells[i] == BridgeItBoard.WHITE) {
+        empties[next] = i;
+        next++;
+      }
+    }
+    return empties;
+  }
+
+  // The player who moves after the given one
+  static byte other(byte color) {
+    return color == BridgeItBoard.PINK ? BridgeItBoard.MAGENTA : BridgeItBoard.PINK;
+  }
+}
+
+// A position in the search tree, reached by the mover claiming move
+class MctsNode {
+  int move; // The cell claimed to get here, -1 at the root
+  byte mover; // The player who claimed it
+  int visits; // Playouts that went through this node
+  int wins; // Playouts through this node that the mover won
+  MctsNode[] children;
+  int childCount;
+  int[] untried; // Moves that don't have a child yet
+  int untriedCount;
+
+  MctsNode(int move, byte mover, int[] untried) {
+    this.move = move;
+    this.mover = mover;
+    this.untried = untried;
+    this.untriedCount = untried.length;
+    this.children = new MctsNode[untried.length];
+    this.childCount = 0;
+  }
+
+  // Picks the child with the best upper confidence bound for the player to move here
+  MctsNode select() {
+    double logVisits = Math.log(this.visits);
+    MctsNode best = null;
+    double bestScore = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < this.childCount; i++) {
+      MctsNode child = this.children[i];
+      double score = (double) child.wins / child.visits
+          + 0.7 * Math.sqrt(logVisits / child.visits);
+      if (score > bestScore) {
+        bestScore = score;
+        best = child;
+      }
+    }
+    return best;
+  }
+}
+
+// One thread's share of a search. It builds its own tree and owns all of its scratch
+// arrays, so a playout is a copy of the root cells, a walk down the tree, a random fill
+// of every cell that is left and a single connectivity check.
+class MctsWorker implements Callable<MctsNode> {
+  byte[] rootCells;
+  int size;
+  byte rootColor; // The player to move at the root
+  int[] rootEmpties; // White cells at the root
+  long deadline; // System.nanoTime() to stop at
+  long playouts; // Most playouts to run
+  SplittableRandom random;
+  byte[] cells; // The board for the playout in progress
+  int[] free; // White cells left after walking down the tree
+  MctsNode[] path; // Nodes visited by the playout in progress
+  int[] stack; // Worklist for the connectivity check
+  int[] seen; // Generation stamps for the connectivity check
+  int generation;
+
+  MctsWorker(byte[] rootCells, int size, byte rootColor, int[] rootEmpties, long deadline,
+      long playouts, SplittableRandom random) {
+    this.rootCells = rootCells;
+    this.size = size;
+    this.rootColor = rootColor;
+    this.rootEmpties = rootEmpties;
+    this.deadline = deadline;
+    this.playouts = playouts;
+    this.random = random;
+    this.cells = new byte[rootCells.length];
+    this.free = new int[rootEmpties.length];
+    this.path = new MctsNode[rootEmpties.length + 1];
+    this.stack = new int[rootCells.length];
+    this.seen = new int[rootCells.length];
+    this.generation = 0;
+  }
+
+  public MctsNode call() {
+    MctsNode root = new MctsNode(-1, MctsPlayer.other(this.rootColor), this.rootEmpties.clone());
+    for (long played = 0; played < this.playouts; played++) {
+      // Reading the clock is slower than a playout on small boards so only check it
+      // every so often
+      if ((played & 127) == 0 && System.nanoTime() > this.deadline) {
+        break;
+      }
+      this.playout(root);
+    }
+    return root;
+  }
+
+  // Runs one playout from the root and records who won it along the way
+  void playout(MctsNode root) {
+    System.arraycopy(this.rootCells, 0, this.cells, 0, this.cells.length);
+    MctsNode node = root;
+    byte toMove = this.rootColor;
+    int depth = 0;
+    this.path[0] = root;
+
+    // Walk down through nodes that have tried every move
+    while (node.untriedCount == 0 && node.childCount > 0) {
+      node = node.select();
+      this.cells[node.move] = node.mover;
+      toMove = MctsPlayer.other(node.mover);
+      depth++;
+      this.path[depth] = node;
+    }
+
+    // Add one new child for a move that hasn't been tried from here
+    if (node.untriedCount > 0) {
+      int pick = this.random.nextInt(node.untriedCount);
+      int move = node.untried[pick];
+      node.untriedCount--;
+      node.untried[pick] = node.untried[node.untriedCount];
+      this.cells[move] = toMove;
+      MctsNode child = new MctsNode(move, toMove, this.whiteCells());
+      node.children[node.childCount] = child;
+      node.childCount++;
+      toMove = MctsPlayer.other(toMove);
+      depth++;
+      this.path[depth] = child;
+    }
+
+    // Fill the rest of the board in a random order. Bridg-it can't end in a draw and a
+    // bridge can't be broken by more moves, so the full board always has exactly one
+    // winner and it is whoever won first.
+    int count = this.whiteCells(this.free);
+    for (int i = 0; i < count; i++) {
+      int pick = i + this.random.nextInt(count - i);
+      int cell = this.free[pick];
+      this.free[pick] = this.free[i];
+      this.cells[cell] = toMove;
+      toMove = MctsPlayer.other(toMove);
+    }
+    byte winner = this.pinkConnected() ? BridgeItBoard.PINK : BridgeItBoard.MAGENTA;
+
+    for (int i = 0; i <= depth; i++) {
+      this.path[i].visits++;
+      if (this.path[i].mover == winner) {
+        this.path[i].wins++;
+      }
+    }
+  }
+
+  // The root empties that are still white, copied into a new array
+  int[] whiteCells() {
+    int[] result = new int[this.rootEmpties.length];
+    return Arrays.copyOf(result, this.whiteCells(result));
+  }
+
+  // Copies the root empties that are still white into the array and returns how many
+  int whiteCells(int[] into) {
+    int count = 0;
+    for (int cell : this.rootEmpties) {
+      if (this.cells[cell] == BridgeItBoard.WHITE) {
+        into[count] = cell;
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // Checks if pink cells join the left edge to the right edge of the playout board
+  boolean pinkConnected() {
+    this.generation++;
+    int top = 0;
+    for (int row = 0; row < this.size; row++) {
+      int start = row * this.size;
+      if (this.cells[start] == BridgeItBoard.PINK) {
+        this.seen[start] = this.generation;
+        this.stack[top] = start;
+        top++;
+      }
+    }
+    while (top > 0) {
+      top--;
+      int current = this.stack[top];
+      int col = current % this.size;
+      if (col == this.size - 1) {
+        return true;
+      }
+      if (current >= this.size) {
+        top = this.push(current - this.size, top);
+      }
+      if (current < this.cells.length - this.size) {
+        top = this.push(current + this.size, top);
+      }
+      if (col > 0) {
+        top = this.push(current - 1, top);
+      }
+      top = this.push(current + 1, top);
+    }
+    return false;
+  }
+
+  // Pushes a pink cell that hasn't been seen onto the stack
+  int push(int cell, int top) {
+    if (this.cells[cell] == BridgeItBoard.PINK && this.seen[cell] != this.generation) {
+      this.seen[cell] = this.generation;
+      this.stack[top] = cell;
+      return top + 1;
+    }
+    return top;
+  }
+}
+
+class ExamplesBridgeItAI {
+  void testMctsTakesTheWin(Tester t) {
+    // Whoever takes the middle of a 3x3 board wins, so the computer should take it
+    BridgeItWorld world = new BridgeItWorld(3);
+    MctsPlayer player = new MctsPlayer(1000, 2000, 2, new SplittableRandom(1));
+    world.play(0, 0);
+    t.checkExpect(player.chooseMove(world.board, BridgeItBoard.MAGENTA),
+        world.board.index(1, 1));
+    t.checkExpect(player.lastPlayouts, 2000L);
+  }
+
+  void testMctsFinishesABridge(Tester t) {
+    // Player one only needs (1,3) or (3,3) to finish a bridge
+    BridgeItWorld world = new BridgeItWorld(5);
+    world.play(1, 1);
+    world.play(0, 0);
+    world.play(2, 2);
+    world.play(4, 4);
+    MctsPlayer player = new MctsPlayer(1000, 4000, 2, new SplittableRandom(2));
+    int move = player.chooseMove(world.board, BridgeItBoard.PINK);
+    t.checkExpect(move == world.board.index(1, 3) || move == world.board.index(3, 3), true);
+  }
+
+  void testMctsLastCell(Tester t) {
+    BridgeItWorld world = new BridgeItWorld(3);
+    MctsPlayer player = new MctsPlayer(1000, 100, 1);
+    world.board.cells[world.board.index(0, 0)] = BridgeItBoard.PINK;
+    world.board.cells[world.board.index(0, 2)] = BridgeItBoard.PINK;
+    world.board.cells[world.board.index(2, 0)] = BridgeItBoard.MAGENTA;
+    world.board.cells[world.board.index(2, 2)] = BridgeItBoard.MAGENTA;
+    t.checkExpect(player.chooseMove(world.board, BridgeItBoard.PINK), world.board.index(1, 1));
+    world.board.cells[world.board.index(1, 1)] = BridgeItBoard.PINK;
+    t.checkExpect(player.chooseMove(world.board, BridgeItBoard.MAGENTA), -1);
+    player.close();
+    t.checkExpect(player.pool.isShutdown(), true);
+  }
+
+  void testRandomPlayer(Tester t) {
+    BridgeItWorld world = new BridgeItWorld(5);
+    RandomPlayer player = new RandomPlayer(new SplittableRandom(4));
+    for (int i = 0; i < 20; i++) {
+      int move = player.chooseMove(world.board, BridgeItBoard.PINK);
+      t.checkExpect(world.board.cells[move], BridgeItBoard.WHITE);
+    }
+  }
+
+  void testGreedyPlayer(Tester t) {
+    // Finishing the bridge beats anything else
+    BridgeItWorld world = new BridgeItWorld(5);
+    world.play(1, 1);
+    world.play(0, 0);
+    world.play(2, 2);
+    world.play(4, 4);
+    GreedyPlayer player = new GreedyPlayer(new SplittableRandom(5));
+    int move = player.chooseMove(world.board, BridgeItBoard.PINK);
+    t.checkExpect(move == world.board.index(1, 3) || move == world.board.index(3, 3), true);
+
+    // The look ahead leaves the board as it found it
+    t.checkExpect(world.board.get(1, 3), BridgeItBoard.WHITE);
+    t.checkExpect(world.board.get(3, 3), BridgeItBoard.WHITE);
+
+    // On a 3x3 board the middle wins straight away
+    BridgeItWorld world2 = new BridgeItWorld(3);
+    t.checkExpect(player.chooseMove(world2.board, BridgeItBoard.PINK), world2.board.index(1, 1));
+  }
+
+  void testComputerOpponent(Tester t) {
+    // The computer plays player two on its tick once player one has moved
+    BridgeItWorld world = new BridgeItWorld(3,
+        new MctsPlayer(1000, 2000, 2, new SplittableRandom(3)));
+    world.onTick();
+    t.checkExpect(world.p1turn, true);
+    world.onMouseClicked(new Posn(0, 0));
+    t.checkExpect(world.p1turn, false);
+    world.onTick();
+    t.checkExpect(world.board.get(1, 1), BridgeItBoard.MAGENTA);
+    t.checkExpect(world.gameOver, true);
+    t.checkExpect(world.p1turn, false);
+  }
+}
@@ -0,0 +1,367 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import tester.*;
+
+// One BridgeIt game as it is kept in an archive: the board size, who won, and the cell
+// of every move in order. A cell is row * size + col.
+//
+// On disk a record is a varint with the length of the rest, then the size as a
+// varint, one byte for the winner, the number of moves as a varint and then every
+// cell as a varint. Varints use seven bits a byte with the top bit set on every byte
+// but the last, so on the boards people actually play most moves take one or two
+// bytes.
+class GameRecord {
+  int size;
+  byte winner; // PINK, MAGENTA, or WHITE if the game wasn't finished
+  long[] moves;
+
+  GameRecord(int size, byte winner, long[] moves) {
+    this.size = size;
+    this.winner = winner;
+    this.moves = moves;
+  }
+
+  // The record of a game played in a world, from its move history
+  static GameRecord of(BridgeItWorld world) {
+    long[] moves = new long[world.history.size() / 2];
+    for (int i = 0; i < moves.length; i++) {
+      moves[i] = (long) world.history.items[2 * i] * world.size
+          + world.history.items[2 * i + 1];
+    }
+    byte winner = BridgeItBoard.WHITE;
+    if (world.gameOver) {
+      winner = world.p1turn ? BridgeItBoard.PINK : BridgeItBoard.MAGENTA;
+    }
+    return new GameRecord(world.size, winner, moves);
+  }
+
+  // Plays the moves again in a new world, through play just like clicks are, without
+  // drawing anything. Boards too big to pack are played on a sparse board.
+  BridgeItWorld replay() {
+    BridgeItWorld world;
+    if (this.size <= 46339) {
+      world = new BridgeItWorld(this.size);
+    }
+    else {
+      world = new BridgeItWorld(new SparseBridgeItBoard(this.size), 15);
+    }
+    for (int i = 0; i < this.moves.length; i++) {
+      if (!world.play((int) (this.moves[i] / this.size), (int) (this.moves[i] % this.size))) {
+        throw new IllegalStateException("Move " + i + " of the game isn't legal");
+      }
+    }
+    return world;
+  }
+
+  // Adds this record to the end of out, length first
+  void writeTo(ByteSink out) {
+    int lengthAt = out.size;
+    out.writeVarint(this.size);
+    out.write(this.winner);
+    out.writeVarint(this.moves.length);
+    for (long move : this.moves) {
+      out.writeVarint(move);
+    }
+    // The length goes in front, so the body is moved up once its length is known
+    int length = out.size - lengthAt;
+    int prefix = ByteSink.varintLength(length);
+    out.ensure(prefix);
+    System.arraycopy(out.bytes, lengthAt, out.bytes, lengthAt + prefix, length);
+    out.size = lengthAt;
+    out.writeVarint(length);
+    out.size += length;
+  }
+
+  // Reads the body of a record starting at the given position
+  static GameRecord readFrom(ByteBuffer in, int position) {
+    int[] at = { position };
+    int size = (int) ByteSink.readVarint(in, at);
+    byte winner = in.get(at[0]);
+    at[0]++;
+    long[] moves = new long[(int) ByteSink.readVarint(in, at)];
+    for (int i = 0; i < moves.length; i++) {
+      moves[i] = ByteSink.readVarint(in, at);
+    }
+    return new GameRecord(size, winner, moves);
+  }
+}
+
+// A growable byte array that records are encoded into before they are written
+class ByteSink {
+  byte[] bytes;
+  int size;
+
+  ByteSink(int capacity) {
+    this.bytes = new byte[Math.max(16, capacity)];
+    this.size = 0;
+  }
+
+  // Makes room for count more bytes
+  void ensure(int count) {
+    if (this.size + count > this.bytes.length) {
+      this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.size + count));
+    }
+  }
+
+  void write(byte b) {
+    this.ensure(1);
+    this.bytes[this.size] = b;
+    this.size++;
+  }
+
+  // Writes a value that isn't negative seven bits at a time, lowest bits first
+  void writeVarint(long value) {
+    this.ensure(10);
+    while ((value & ~0x7FL) != 0) {
+      this.bytes[this.size] = (byte) ((value & 0x7F) | 0x80);
+      this.size++;
+      value >>>= 7;
+    }
+    this.bytes[this.size] = (byte) value;
+    this.size++;
+  }
+
+  // The number of bytes writeVarint uses for a value
+  static int varintLength(long value) {
+    int length = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      length++;
+    }
+    return length;
+  }
+
+  // Reads a varint at at[0], moving at[0] past it
+  static long readVarint(ByteBuffer in, int[] at) {
+    long value = 0;
+    int shift = 0;
+    while (true) {
+      if (shift > 63) {
+        throw new IllegalArgumentException("Varint is too long at " + at[0]);
+      }
+      byte b = in.get(at[0]);
+      at[0]++;
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+      shift += 7;
+    }
+  }
+}
+
+// Adds games to the end of an archive file, making it with a header if it is new.
+// Games are gathered in memory and written in batches. Many self play threads can
+// share one writer.
+class GameArchiveWriter implements Closeable {
+  static final byte[] MAGIC = { 'B', 'R', 'G', 'A', 1 }; // The last byte is the version
+  static final int FLUSH_AT = 1 << 16; // Bytes gathered before they are written out
+
+  FileChannel channel;
+  ByteSink pending;
+  long games; // Games added through this writer
+
+  GameArchiveWriter(Path path) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+    this.pending = new ByteSink(FLUSH_AT);
+    if (this.channel.size() == 0) {
+      this.channel.write(ByteBuffer.wrap(MAGIC));
+    }
+  }
+
+  // Adds a game to the archive
+  synchronized void append(GameRecord record) throws IOException {
+    record.writeTo(this.pending);
+    this.games++;
+    if (this.pending.size >= FLUSH_AT) {
+      this.flush();
+    }
+  }
+
+  // Writes out every game added so far
+  synchronized void flush() throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(this.pending.bytes, 0, this.pending.size);
+    while (buffer.hasRemaining()) {
+      this.channel.write(buffer);
+    }
+    this.pending.size = 0;
+  }
+
+  public synchronized void close() throws IOException {
+    this.flush();
+    this.channel.close();
+  }
+}
+
+// Reads an archive by mapping the whole file into memory. Opening it walks the length
+// of every record once to build an index of where each game starts, after that any
+// game can be read straight away without touching the ones before it.
+class GameArchiveReader implements Closeable {
+  FileChannel channel;
+  MappedByteBuffer buffer;
+  int[] offsets; // Where the body of each game starts
+  int count;
+
+  GameArchiveReader(Path path) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    long length = this.channel.size();
+    if (length > Integer.MAX_VALUE) {
+      this.channel.close();
+      throw new IllegalArgumentException("Archive is too big to map in one piece");
+    }
+    this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    for (int i = 0; i < GameArchiveWriter.MAGIC.length; i++) {
+      if (i >= length || this.buffer.get(i) != GameArchiveWriter.MAGIC[i]) {
+        this.channel.close();
+        throw new IllegalArgumentException("Not a BridgeIt archive: " + path);
+      }
+    }
+
+    this.offsets = new int[64];
+    this.count = 0;
+    int[] at = { GameArchiveWriter.MAGIC.length };
+    while (at[0] < length) {
+      int body = (int) ByteSink.readVarint(this.buffer, at);
+      if (this.count == this.offsets.length) {
+        this.offsets = Arrays.copyOf(this.offsets, this.count * 2);
+      }
+      this.offsets[this.count] = at[0];
+      this.count++;
+      at[0] += body;
+    }
+    if (at[0] != length) {
+      this.channel.close();
+      throw new IllegalArgumentException("Archive ends part way through a game: " + path);
+    }
+  }
+
+  // The number of games in the archive
+  int count() {
+    return this.count;
+  }
+
+  // Reads game n, counting from 0
+  GameRecord get(int n) {
+    if (n < 0 || n >= this.count) {
+      throw new IndexOutOfBoundsException("No game " + n + " in an archive of " + this.count);
+    }
+    return GameRecord.readFrom(this.buffer, this.offsets[n]);
+  }
+
+  // Plays game n again in a new world
+  BridgeItWorld replay(int n) {
+    return this.get(n).replay();
+  }
+
+  public void close() throws IOException {
+    this.channel.close();
+  }
+}
+
+class ExamplesBridgeItArchive {
+  void testVarints(Tester t) {
+    ByteSink sink = new ByteSink(0);
+    long[] values = { 0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE };
+    for (long value : values) {
+      sink.writeVarint(value);
+    }
+    t.checkExpect(sink.size, 1 + 1 + 1 + 2 + 2 + 2 + 3 + 5 + 9);
+    t.checkExpect(ByteSink.varintLength(300), 2);
+    ByteBuffer in = ByteBuffer.wrap(sink.bytes, 0, sink.size);
+    int[] at = { 0 };
+    for (long value : values) {
+      t.checkExpect(ByteSink.readVarint(in, at), value);
+    }
+    t.checkExpect(at[0], sink.size);
+  }
+
+  void testRecord(Tester t) {
+    BridgeItWorld world = new BridgeItWorld(5);
+    world.play(1, 1);
+    world.play(2, 2);
+    world.play(1, 3);
+    GameRecord record = GameRecord.of(world);
+    t.checkExpect(record.size, 5);
+    t.checkExpect(record.winner, BridgeItBoard.PINK);
+    t.checkExpect(record.moves, new long[] { 6, 12, 8 });
+
+    // Length, size, winner, count and three one byte moves
+    ByteSink sink = new ByteSink(0);
+    record.writeTo(sink);
+    t.checkExpect(sink.size, 1 + 1 + 1 + 1 + 3);
+    t.checkExpect(sink.bytes[0], (byte) 6);
+    GameRecord read = GameRecord.readFrom(ByteBuffer.wrap(sink.bytes), 1);
+    t.checkExpect(read.moves, record.moves);
+    t.checkExpect(read.winner, BridgeItBoard.PINK);
+
+    // Playing it again ends the same way
+    BridgeItWorld replayed = read.replay();
+    t.checkExpect(replayed.gameOver, true);
+    t.checkExpect(replayed.p1turn, true);
+    t.checkExpect(replayed.board.cells, world.board.cells);
+
+    GameRecord bad = new GameRecord(5, BridgeItBoard.WHITE, new long[] { 6, 6 });
+    t.checkException(new IllegalStateException("Move 1 of the game isn't legal"), bad,
+        "replay");
+  }
+
+  void testArchive(Tester t) {
+    try {
+      Path path = Files.createTempFile("bridgeit", ".archive");
+      Files.delete(path);
+      BridgeItSelfPlay selfPlay = new BridgeItSelfPlay(7, null, null);
+      ArrayList<BridgeItWorld> games = new ArrayList<BridgeItWorld>();
+      GameArchiveWriter writer = new GameArchiveWriter(path);
+      for (int i = 0; i < 150; i++) {
+        BridgeItWorld world = selfPlay.playGame(new RandomPlayer(new SplittableRandom(i)),
+            new RandomPlayer(new SplittableRandom(-i)));
+        games.add(world);
+        writer.append(GameRecord.of(world));
+      }
+      writer.close();
+
+      // Adding to an archive keeps the games already in it
+      GameArchiveWriter more = new GameArchiveWriter(path);
+      BridgeItWorld last = selfPlay.playGame(new RandomPlayer(new SplittableRandom(999)),
+          new RandomPlayer(new SplittableRandom(998)));
+      games.add(last);
+      more.append(GameRecord.of(last));
+      more.close();
+
+      GameArchiveReader reader = new GameArchiveReader(path);
+      t.checkExpect(reader.count(), 151);
+      boolean same = true;
+      for (int n : new int[] { 150, 0, 57, 149, 3 }) {
+        BridgeItWorld replayed = reader.replay(n);
+        same = same && replayed.moveCount == games.get(n).moveCount
+            && replayed.p1turn == games.get(n).p1turn && replayed.gameOver
+            && Arrays.equals(replayed.board.cells, games.get(n).board.cells);
+      }
+      t.checkExpect(same, true);
+      t.checkException(new IndexOutOfBoundsException("No game 151 in an archive of 151"),
+          reader, "get", 151);
+      reader.close();
+      Files.delete(path);
+
+      // Anything else is turned away
+      Path other = Files.createTempFile("bridgeit", ".txt");
+      Files.write(other, new byte[] { 'h', 'i' });
+      String message = "";
+      try {
+        new GameArchiveReader(other).close();
+      }
+      catch (IllegalArgumentException e) {
+        message = e.getMessage();
+      }
+      t.checkExpect(message, "Not a BridgeIt archive: " + other);
+      Files.delete(other);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Archive test couldn't use the disk", e);
+    }
+  }
+}
@@ -0,0 +1,441 @@
+import java.util.*;
+import tester.*;
+
+// Scores a position by treating each players side of the board as an electrical
+// circuit, the same idea as the resistance evaluation used for Hex. A players own
+// cells are perfect conductors, the other players cells are insulators, and every
+// white cell is a resistor joining the cells around it. The fewer and the more
+// parallel the white cells a player still needs, the lower the resistance between
+// their two edges.
+//
+// Groups of a players own cells already share a set in the board's UnionFind, so each
+// group is a single node of the circuit. Putting one volt across the two edge groups
+// and solving the grid Laplacian for the voltages with conjugate gradients gives the
+// current, and the resistance is one over that. The voltages of the last solve are
+// kept for each player and used as the starting guess for the next one. After a move
+// most of the board hardly changes, which saves about a third of the iterations.
+class ResistanceEvaluator {
+  static final double TOLERANCE = 1e-7; // Relative size of the residual to stop at
+
+  BridgeItBoard board;
+  double[][] voltage; // For each player, the last voltage of every cell
+  int iterations; // How many iterations the last solve took
+
+  int[] nodeOf; // The node each key was given, for keys stamped this generation
+  int[] stamp; // Generation stamps for nodeOf
+  int generation;
+  int[] nodeCell; // A cell from each node, for the starting guess
+  int nodes;
+  int[] edgeStart; // Where each node's neighbors start in edgeTarget
+  int[] edgeTarget; // The neighbors of every node one after the other
+  boolean[] free; // Whether the voltage of each node is being solved for
+  IntQueue queue;
+
+  double[] x; // The voltage of each node
+  double[] b;
+  double[] r;
+  double[] z;
+  double[] p;
+  double[] ap;
+
+  ResistanceEvaluator(BridgeItBoard board) {
+    int cells = board.cells.length;
+    this.board = board;
+    this.voltage = new double[3][];
+    this.nodeOf = new int[cells + 4];
+    this.stamp = new int[cells + 4];
+    this.nodeCell = new int[cells + 4];
+    this.edgeStart = new int[cells + 5];
+    this.edgeTarget = new int[cells * 8];
+    this.free = new boolean[cells + 4];
+    this.queue = new IntQueue(64);
+    this.x = new double[cells + 4];
+    this.b = new double[cells + 4];
+    this.r = new double[cells + 4];
+    this.z = new double[cells + 4];
+    this.p = new double[cells + 4];
+    this.ap = new double[cells + 4];
+  }
+
+  // How good the position is for color, the log of how many times harder the other
+  // player finds it to get across. Positive is good for color, and a bridge either way
+  // is infinite.
+  double evaluate(byte color) {
+    double mine = this.resistance(color);
+    double theirs = this.resistance(MctsPlayer.other(color));
+    if (mine == 0 || theirs == Double.POSITIVE_INFINITY) {
+      return Double.POSITIVE_INFINITY;
+    }
+    if (theirs == 0 || mine == Double.POSITIVE_INFINITY) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    return Math.log(theirs / mine);
+  }
+
+  // The resistance between the two edges of the given player. Zero once they have a
+  // bridge and infinite once they are cut off.
+  double resistance(byte color) {
+    int source;
+    int sink;
+    if (color == BridgeItBoard.PINK) {
+      source = this.board.sets.find(this.board.leftEdge());
+      sink = this.board.sets.find(this.board.rightEdge());
+    }
+    else {
+      source = this.board.sets.find(this.board.topEdge());
+      sink = this.board.sets.find(this.board.bottomEdge());
+    }
+    this.iterations = 0;
+    if (source == sink) {
+      return 0;
+    }
+
+    this.build(color, source, sink);
+    int from = this.nodeOf[source];
+    int to = this.nodeOf[sink];
+    if (!this.reach(from, to)) {
+      return Double.POSITIVE_INFINITY;
+    }
+    this.solve(color, from, to);
+
+    // The current is everything flowing out of the source
+    double current = 0;
+    for (int e = this.edgeStart[from]; e < this.edgeStart[from + 1]; e++) {
+      current += 1 - this.x[this.edgeTarget[e]];
+    }
+    return 1 / current;
+  }
+
+  // The node for a key, giving it the next one if it doesn't have one yet
+  int node(int key, int cell) {
+    if (this.stamp[key] != this.generation) {
+      this.stamp[key] = this.generation;
+      this.nodeOf[key] = this.nodes;
+      this.nodeCell[this.nodes] = cell;
+      this.nodes++;
+    }
+    return this.nodeOf[key];
+  }
+
+  // Makes a node for every white cell and every group of the players own cells, and
+  // joins each white cell to the groups next to it. White cells are only ever next to
+  // colored cells, so those are the only wires.
+  void build(byte color, int source, int sink) {
+    BridgeItBoard board = this.board;
+    this.generation++;
+    this.nodes = 0;
+    this.node(source, -1);
+    this.node(sink, -1);
+
+    // Count the wires at each node first so they can be laid out in one array
+    Arrays.fill(this.edgeStart, 0);
+    for (int cell = 0; cell < board.cells.length; cell++) {
+      if (board.cells[cell] != BridgeItBoard.WHITE) {
+        continue;
+      }
+      int white = this.node(cell, cell);
+      for (int side = 0; side < 4; side++) {
+        int next = board.neighbor(cell, side);
+        if (next != -1 && board.cells[next] == color) {
+          int group = this.node(board.sets.find(next), next);
+          this.edgeStart[white + 1]++;
+          this.edgeStart[group + 1]++;
+        }
+      }
+    }
+    for (int i = 0; i < this.nodes; i++) {
+      this.edgeStart[i + 1] += this.edgeStart[i];
+    }
+
+    // Then fill them in, using the ends of the spans as cursors and putting them back
+    for (int cell = 0; cell < board.cells.length; cell++) {
+      if (board.cells[cell] != BridgeItBoard.WHITE) {
+        continue;
+      }
+      int white = this.nodeOf[cell];
+      for (int side = 0; side < 4; side++) {
+        int next = board.neighbor(cell, side);
+        if (next != -1 && board.cells[next] == color) {
+          int group = this.nodeOf[board.sets.find(next)];
+          this.edgeTarget[this.edgeStart[white]] = group;
+          this.edgeStart[white]++;
+          this.edgeTarget[this.edgeStart[group]] = white;
+          this.edgeStart[group]++;
+        }
+      }
+    }
+    for (int i = this.nodes; i > 0; i--) {
+      this.edgeStart[i] = this.edgeStart[i - 1];
+    }
+    this.edgeStart[0] = 0;
+  }
+
+  // Marks the nodes joined to the source as free, apart from the two edges. Anything
+  // that isn't joined to the source carries no current and is left out. Returns
+  // whether the sink was reached at all.
+  boolean reach(int from, int to) {
+    Arrays.fill(this.free, 0, this.nodes, false);
+    this.queue.clear();
+    this.queue.add(from);
+    this.free[from] = true;
+    while (this.queue.size() > 0) {
+      int node = this.queue.remove();
+      for (int e = this.edgeStart[node]; e < this.edgeStart[node + 1]; e++) {
+        int next = this.edgeTarget[e];
+        if (!this.free[next]) {
+          this.free[next] = true;
+          this.queue.add(next);
+        }
+      }
+    }
+    boolean reached = this.free[to];
+    this.free[from] = false;
+    this.free[to] = false;
+    return reached;
+  }
+
+  // Solves for the voltage at every free node with the source at one volt and the sink
+  // at zero, using conjugate gradients with each node's wire count as the
+  // preconditioner
+  void solve(byte color, int from, int to) {
+    if (this.voltage[color] == null) {
+      this.voltage[color] = new double[this.board.cells.length];
+      Arrays.fill(this.voltage[color], 0.5);
+    }
+    double[] last = this.voltage[color];
+    int n = this.nodes;
+
+    // Start from the last solve, the right hand side is the current pushed in by the
+    // source
+    double bNorm = 0;
+    for (int i = 0; i < n; i++) {
+      this.x[i] = this.free[i] ? last[this.nodeCell[i]] : 0;
+      this.b[i] = 0;
+    }
+    this.x[from] = 1;
+    for (int e = this.edgeStart[from]; e < this.edgeStart[from + 1]; e++) {
+      this.b[this.edgeTarget[e]] += 1;
+    }
+    for (int i = 0; i < n; i++) {
+      bNorm += this.b[i] * this.b[i];
+    }
+    double limit = TOLERANCE * TOLERANCE * bNorm;
+
+    this.multiply(this.x, this.ap);
+    double rz = 0;
+    double rr = 0;
+    for (int i = 0; i < n; i++) {
+      if (this.free[i]) {
+        this.r[i] = this.b[i] - this.ap[i];
+        this.z[i] = this.r[i] / this.degree(i);
+        this.p[i] = this.z[i];
+        rz += this.r[i] * this.z[i];
+        rr += this.r[i] * this.r[i];
+      }
+      else {
+        this.r[i] = 0;
+        this.p[i] = 0;
+      }
+    }
+
+    while (rr > limit && this.iterations < 10 * n) {
+      this.iterations++;
+      this.multiply(this.p, this.ap);
+      double pap = 0;
+      for (int i = 0; i < n; i++) {
+        pap += this.p[i] * this.ap[i];
+      }
+      double alpha = rz / pap;
+      double rzNext = 0;
+      rr = 0;
+      for (int i = 0; i < n; i++) {
+        if (this.free[i]) {
+          this.x[i] += alpha * this.p[i];
+          this.r[i] -= alpha * this.ap[i];
+          this.z[i] = this.r[i] / this.degree(i);
+          rzNext += this.r[i] * this.z[i];
+          rr += this.r[i] * this.r[i];
+        }
+      }
+      double beta = rzNext / rz;
+      rz = rzNext;
+      for (int i = 0; i < n; i++) {
+        if (this.free[i]) {
+          this.p[i] = this.z[i] + beta * this.p[i];
+        }
+      }
+    }
+
+    // Keep the answer for every cell so the next solve can start from it
+    for (int i = 0; i < n; i++) {
+      if (this.free[i]) {
+        last[this.nodeCell[i]] = this.x[i];
+      }
+    }
+    for (int cell = 0; cell < this.board.cells.length; cell++) {
+      byte owner = this.board.cells[cell];
+      if (owner == color && this.stamp[this.board.sets.find(cell)] == this.generation) {
+        last[cell] = this.x[this.nodeOf[this.board.sets.find(cell)]];
+      }
+    }
+  }
+
+  // The number of wires at a node
+  int degree(int node) {
+    return this.edgeStart[node + 1] - this.edgeStart[node];
+  }
+
+  // Multiplies v by the Laplacian of the free nodes, every wire has a conductance of
+  // one. The fixed nodes count as zero, their part is already in the right hand side.
+  void multiply(double[] v, double[] into) {
+    for (int i = 0; i < this.nodes; i++) {
+      if (!this.free[i]) {
+        into[i] = 0;
+        continue;
+      }
+      double sum = this.degree(i) * v[i];
+      for (int e = this.edgeStart[i]; e < this.edgeStart[i + 1]; e++) {
+        int next = this.edgeTarget[e];
+        if (this.free[next]) {
+          sum -= v[next];
+        }
+      }
+      into[i] = sum;
+    }
+  }
+}
+
+// Tries every white cell and keeps the one the resistance evaluation likes best. Each
+// cell is claimed and then taken back on the real board, and every evaluation starts
+// from the voltages of the one before, which are nearly the same.
+class ResistancePlayer implements IBridgeItPlayer {
+  SplittableRandom random; // Breaks ties
+  ResistanceEvaluator evaluator;
+
+  ResistancePlayer(SplittableRandom random) {
+    this.random = random;
+  }
+
+  public int chooseMove(BridgeItBoard board, byte color) {
+    if (this.evaluator == null || this.evaluator.board != board) {
+      this.evaluator = new ResistanceEvaluator(board);
+    }
+    int best = -1;
+    double bestScore = Double.NEGATIVE_INFINITY;
+    int ties = 0;
+    for (int cell = 0; cell < board.cells.length; cell++) {
+      if (board.cells[cell] != BridgeItBoard.WHITE) {
+        continue;
+      }
+      double score;
+      if (board.claim(cell, color)) {
+        score = Double.POSITIVE_INFINITY;
+      }
+      else {
+        score = this.evaluator.evaluate(color);
+      }
+      board.unclaim();
+
+      if (best == -1 || score > bestScore) {
+        best = cell;
+        bestScore = score;
+        ties = 1;
+      }
+      else if (score == bestScore) {
+        ties++;
+        if (this.random.nextInt(ties) == 0) {
+          best = cell;
+        }
+      }
+    }
+    return best;
+  }
+}
+
+class ExamplesBridgeItResistance {
+  void testEmptyBoards(Tester t) {
+    // On 3x3 the only way across is the middle cell, two halves of one wire each
+    BridgeItWorld world = new BridgeItWorld(3);
+    ResistanceEvaluator evaluator = new ResistanceEvaluator(world.board);
+    t.checkInexact(evaluator.resistance(BridgeItBoard.PINK), 2.0, 1e-6);
+
+    // On 5x5 there are two paths of four side by side, and the boards look the same to
+    // both players
+    BridgeItWorld world5 = new BridgeItWorld(5);
+    ResistanceEvaluator evaluator5 = new ResistanceEvaluator(world5.board);
+    t.checkInexact(evaluator5.resistance(BridgeItBoard.PINK), 2.0, 1e-6);
+    t.checkInexact(evaluator5.resistance(BridgeItBoard.MAGENTA), 2.0, 1e-6);
+    t.checkInexact(evaluator5.evaluate(BridgeItBoard.PINK), 0.0, 1e-6);
+  }
+
+  void testBridgesAndCuts(Tester t) {
+    BridgeItWorld world = new BridgeItWorld(3);
+    ResistanceEvaluator evaluator = new ResistanceEvaluator(world.board);
+    world.play(1, 1);
+    t.checkExpect(evaluator.resistance(BridgeItBoard.PINK), 0.0);
+    t.checkExpect(evaluator.resistance(BridgeItBoard.MAGENTA), Double.POSITIVE_INFINITY);
+    t.checkExpect(evaluator.evaluate(BridgeItBoard.PINK), Double.POSITIVE_INFINITY);
+    t.checkExpect(evaluator.evaluate(BridgeItBoard.MAGENTA), Double.NEGATIVE_INFINITY);
+  }
+
+  void testMovesChangeTheScore(Tester t) {
+    // A move in the middle helps the player who makes it
+    BridgeItWorld world = new BridgeItWorld(7);
+    ResistanceEvaluator evaluator = new ResistanceEvaluator(world.board);
+    double before = evaluator.resistance(BridgeItBoard.PINK);
+    world.play(3, 3);
+    t.checkExpect(evaluator.resistance(BridgeItBoard.PINK) < before, true);
+    t.checkExpect(evaluator.evaluate(BridgeItBoard.PINK) > 0, true);
+  }
+
+  void testWarmStart(Tester t) {
+    // Solving again straight away starts from the answer
+    BridgeItWorld world = new BridgeItWorld(51);
+    ResistanceEvaluator evaluator = new ResistanceEvaluator(world.board);
+    SplittableRandom random = new SplittableRandom(4);
+    RandomPlayer player = new RandomPlayer(random);
+    for (int i = 0; i < 60; i++) {
+      int move = player.chooseMove(world.board, BridgeItSelfPlay.toMove(world));
+      world.play(world.board.row(move), world.board.col(move));
+    }
+    double first = evaluator.resistance(BridgeItBoard.PINK);
+    t.checkInexact(evaluator.resistance(BridgeItBoard.PINK), first, 1e-6);
+    t.checkExpect(evaluator.iterations, 0);
+
+    // After a few more moves it takes fewer iterations than starting from nothing and
+    // gets the same answer
+    int warm = 0;
+    int cold = 0;
+    for (int i = 0; i < 10; i++) {
+      int move = player.chooseMove(world.board, BridgeItSelfPlay.toMove(world));
+      world.play(world.board.row(move), world.board.col(move));
+      double resistance = evaluator.resistance(BridgeItBoard.PINK);
+      warm += evaluator.iterations;
+      ResistanceEvaluator fresh = new ResistanceEvaluator(world.board);
+      t.checkInexact(fresh.resistance(BridgeItBoard.PINK), resistance, 1e-4);
+      cold += fresh.iterations;
+    }
+    t.checkExpect(warm < cold, true);
+  }
+
+
+  void testResistancePlayer(Tester t) {
+    // Finishing the bridge beats anything else
+    BridgeItWorld world = new BridgeItWorld(5);
+    world.play(1, 1);
+    world.play(0, 0);
+    world.play(2, 2);
+    world.play(4, 4);
+    ResistancePlayer player = new ResistancePlayer(new SplittableRandom(1));
+    int move = player.chooseMove(world.board, BridgeItBoard.PINK);
+    t.checkExpect(move == world.board.index(1, 3) || move == world.board.index(3, 3), true);
+    t.checkExpect(world.board.get(1, 3), BridgeItBoard.WHITE);
+    t.checkExpect(world.moveCount, 4);
+
+    // It should beat a random player nearly every time
+    SelfPlayStats stats = new BridgeItSelfPlay(7,
+        () -> new ResistancePlayer(new SplittableRandom(2)),
+        () -> new RandomPlayer(new SplittableRandom(3))).run(20, 2);
+    t.checkExpect(stats.p1Wins >= 19, true);
+  }
+}
@@ -0,0 +1,322 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import tester.*;
+
+// What a batch of self play games came out as
+class SelfPlayStats {
+  long games; // Games played
+  long p1Wins; // Games won by the player who moved first
+  long moves; // Moves made across every game
+  long decided; // Games stopped before a bridge because the winner was already certain
+  long nanos; // Wall clock time for the whole batch
+
+  // Adds another batch's counts to this one, the time is left alone
+  void add(SelfPlayStats other) {
+    this.games += other.games;
+    this.p1Wins += other.p1Wins;
+    this.moves += other.moves;
+    this.decided += other.decided;
+  }
+
+  double gamesPerSecond() {
+    return this.games / Math.max(1e-9, this.nanos / 1e9);
+  }
+
+  double averageLength() {
+    return this.games == 0 ? 0 : (double) this.moves / this.games;
+  }
+
+  double firstPlayerWinRate() {
+    return this.games == 0 ? 0 : (double) this.p1Wins / this.games;
+  }
+
+  public String toString() {
+    return String.format("%d games, %.1f games/s, %.2f moves/game, %.3f first player wins,"
+        + " %d stopped early", this.games, this.gamesPerSecond(), this.averageLength(),
+        this.firstPlayerWinRate(), this.decided);
+  }
+}
+
+// Plays BridgeIt games between two computer players with no window. Every move goes
+// through BridgeItWorld.play, the same as a click, and games are spread over a pool of
+// threads with each thread getting its own players.
+//
+// Games can also be stopped as soon as BridgeItOutcome shows one player is certain to
+// win, but only when that player is a ShannonPlayer. It plays the same solver that
+// found the win, so it is sure to finish the game off and stopping doesn't change who
+// wins. A certain win for any other player is played out, since they might throw it.
+class BridgeItSelfPlay {
+  int size; // The board size for every game
+  Supplier<IBridgeItPlayer> p1; // Makes a player one for each thread
+  Supplier<IBridgeItPlayer> p2; // Makes a player two for each thread
+  boolean stopEarly; // Whether games stop once they are decided
+  GameArchiveWriter archive; // Every game played is added here, unless it is null
+
+  BridgeItSelfPlay(int size, Supplier<IBridgeItPlayer> p1, Supplier<IBridgeItPlayer> p2) {
+    this(size, p1, p2, false);
+  }
+
+  BridgeItSelfPlay(int size, Supplier<IBridgeItPlayer> p1, Supplier<IBridgeItPlayer> p2,
+      boolean stopEarly) {
+    this.size = size;
+    this.p1 = p1;
+    this.p2 = p2;
+    this.stopEarly = stopEarly;
+  }
+
+  // Plays a single game to the end, or until a ShannonPlayer is certain to win it when
+  // stopping early, and returns the world as it was left
+  BridgeItWorld playGame(IBridgeItPlayer first, IBridgeItPlayer second) {
+    BridgeItWorld world = new BridgeItWorld(this.size);
+    boolean canStop = this.stopEarly
+        && (first instanceof ShannonPlayer || second instanceof ShannonPlayer);
+    BridgeItOutcome outcome = canStop ? new BridgeItOutcome(world.board) : null;
+    while (!world.gameOver && !converts(outcome, world, first, second)) {
+      byte color = world.p1turn ? BridgeItBoard.PINK : BridgeItBoard.MAGENTA;
+      IBridgeItPlayer player = world.p1turn ? first : second;
+      int move = player.chooseMove(world.board, color);
+      if (move == -1 || !world.play(world.board.row(move), world.board.col(move))) {
+        throw new IllegalStateException("Player made an illegal move: " + move);
+      }
+    }
+    return world;
+  }
+
+  // Plays the given number of games split over the given number of threads
+  SelfPlayStats run(int games, int threads) {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    long start = System.nanoTime();
+    try {
+      ArrayList<Callable<SelfPlayStats>> batches = new ArrayList<Callable<SelfPlayStats>>();
+      for (int i = 0; i < threads; i++) {
+        int count = games / threads + (i < games % threads ? 1 : 0);
+        batches.add(() -> this.runBatch(count));
+      }
+
+      SelfPlayStats total = new SelfPlayStats();
+      for (Future<SelfPlayStats> batch : pool.invokeAll(batches)) {
+        total.add(batch.get());
+      }
+      total.nanos = System.nanoTime() - start;
+      return total;
+    }
+    catch (InterruptedException | ExecutionException e) {
+      throw new IllegalStateException("Self play failed", e);
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  // Plays count games on the calling thread with players made just for it, closing
+  // them after
+  SelfPlayStats runBatch(int count) {
+    IBridgeItPlayer first = this.p1.get();
+    IBridgeItPlayer second = this.p2.get();
+    try {
+      return this.playBatch(count, first, second);
+    }
+    finally {
+      close(first);
+      close(second);
+    }
+  }
+
+  // Plays count games between the two players
+  SelfPlayStats playBatch(int count, IBridgeItPlayer first, IBridgeItPlayer second) {
+    SelfPlayStats stats = new SelfPlayStats();
+    for (int i = 0; i < count; i++) {
+      BridgeItWorld world = this.playGame(first, second);
+      if (this.archive != null) {
+        try {
+          this.archive.append(GameRecord.of(world));
+        }
+        catch (IOException e) {
+          throw new IllegalStateException("Couldn't save a game", e);
+        }
+      }
+      stats.games++;
+      stats.moves += world.moveCount;
+      if (!world.gameOver) {
+        stats.decided++;
+      }
+      if (winner(world) == BridgeItBoard.PINK) {
+        stats.p1Wins++;
+      }
+    }
+    return stats;
+  }
+
+  // Runs random against random, greedy against random and random against greedy.
+  // Usage: java BridgeItSelfPlay [size] [games] [threads] [archive]
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 9;
+    int games = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    int threads = args.length > 2 ? Integer.parseInt(args[2])
+        : Runtime.getRuntime().availableProcessors();
+    SplittableRandom seeds = new SplittableRandom();
+    Supplier<IBridgeItPlayer> random = () -> new RandomPlayer(split(seeds));
+    Supplier<IBridgeItPlayer> greedy = () -> new GreedyPlayer(split(seeds));
+
+    BridgeItSelfPlay randomVsRandom = new BridgeItSelfPlay(size, random, random);
+    if (args.length > 3) {
+      // Saves the random games to an archive, adding to it if it is already there
+      try {
+        randomVsRandom.archive = new GameArchiveWriter(Paths.get(args[3]));
+      }
+      catch (IOException e) {
+        throw new IllegalStateException("Couldn't open " + args[3], e);
+      }
+    }
+    System.out.println("random vs random: " + randomVsRandom.run(games, threads));
+    if (randomVsRandom.archive != null) {
+      try {
+        randomVsRandom.archive.close();
+      }
+      catch (IOException e) {
+        throw new IllegalStateException("Couldn't finish writing " + args[3], e);
+      }
+    }
+    System.out.println("greedy vs random: " + new BridgeItSelfPlay(size, greedy, random)
+        .run(games / 10, threads));
+    System.out.println("random vs greedy: " + new BridgeItSelfPlay(size, random, greedy)
+        .run(games / 10, threads));
+  }
+
+  // Whether the player who is certain to win the game is a ShannonPlayer, which will
+  // go on to win it
+  static boolean converts(BridgeItOutcome outcome, BridgeItWorld world,
+      IBridgeItPlayer first, IBridgeItPlayer second) {
+    if (outcome == null) {
+      return false;
+    }
+    byte winner = outcome.winner(toMove(world));
+    if (winner == BridgeItBoard.PINK) {
+      return first instanceof ShannonPlayer;
+    }
+    else if (winner == BridgeItBoard.MAGENTA) {
+      return second instanceof ShannonPlayer;
+    }
+    else {
+      return false;
+    }
+  }
+
+  // Closes a player that holds on to threads or other resources
+  static void close(IBridgeItPlayer player) {
+    if (player instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable) player).close();
+      }
+      catch (Exception e) {
+        throw new IllegalStateException("Closing a player failed", e);
+      }
+    }
+  }
+
+  // The player whos turn it is
+  static byte toMove(BridgeItWorld world) {
+    return world.p1turn ? BridgeItBoard.PINK : BridgeItBoard.MAGENTA;
+  }
+
+  // Who won a game that was played out, or who was certain to win one that was stopped
+  static byte winner(BridgeItWorld world) {
+    if (world.gameOver) {
+      return toMove(world);
+    }
+    return new BridgeItOutcome(world.board).winner(toMove(world));
+  }
+
+  // SplittableRandom isn't thread safe so splitting it is done one thread at a time
+  static SplittableRandom split(SplittableRandom seeds) {
+    synchronized (seeds) {
+      return seeds.split();
+    }
+  }
+}
+
+class ExamplesBridgeItSelfPlay {
+  void testPlayGame(Tester t) {
+    BridgeItSelfPlay selfPlay = new BridgeItSelfPlay(5,
+        () -> new RandomPlayer(new SplittableRandom(6)),
+        () -> new RandomPlayer(new SplittableRandom(7)));
+    BridgeItWorld world = selfPlay.playGame(new RandomPlayer(new SplittableRandom(6)),
+        new RandomPlayer(new SplittableRandom(7)));
+
+    // The game ends as soon as the player whos turn it still is has a bridge
+    t.checkExpect(world.gameOver, true);
+    t.checkExpect(world.hasBridge(), true);
+    t.checkExpect(world.moveCount >= 2, true);
+  }
+
+  void testRun(Tester t) {
+    BridgeItSelfPlay selfPlay = new BridgeItSelfPlay(5,
+        () -> new RandomPlayer(new SplittableRandom(8)),
+        () -> new RandomPlayer(new SplittableRandom(9)));
+    SelfPlayStats stats = selfPlay.run(101, 3);
+    t.checkExpect(stats.games, 101L);
+    t.checkExpect(stats.p1Wins <= 101, true);
+    t.checkExpect(stats.averageLength() >= 2, true);
+    t.checkExpect(stats.averageLength() <= 12, true);
+  }
+
+  void testClosesPlayers(Tester t) {
+    ConcurrentLinkedQueue<MctsPlayer> made = new ConcurrentLinkedQueue<MctsPlayer>();
+    BridgeItSelfPlay selfPlay = new BridgeItSelfPlay(3, () -> {
+      MctsPlayer player = new MctsPlayer(1000, 50, 1, new SplittableRandom(16));
+      made.add(player);
+      return player;
+    }, () -> new RandomPlayer(new SplittableRandom(17)));
+    t.checkExpect(selfPlay.run(4, 2).games, 4L);
+    t.checkExpect(made.size(), 2);
+    boolean closed = true;
+    for (MctsPlayer player : made) {
+      closed = closed && player.pool.isShutdown();
+    }
+    t.checkExpect(closed, true);
+  }
+
+  void testGreedyBeatsRandom(Tester t) {
+    // Player one wins Bridg-it with good play, greedy should win almost every game
+    BridgeItSelfPlay selfPlay = new BridgeItSelfPlay(7,
+        () -> new GreedyPlayer(new SplittableRandom(10)),
+        () -> new RandomPlayer(new SplittableRandom(11)));
+    SelfPlayStats stats = selfPlay.run(40, 2);
+    t.checkExpect(stats.firstPlayerWinRate() > 0.8, true);
+  }
+
+  void testStopEarly(Tester t) {
+    // Random players are never stopped, even though player one is certain to win from
+    // an empty board
+    BridgeItWorld random = new BridgeItSelfPlay(7, null, null, true).playGame(
+        new RandomPlayer(new SplittableRandom(12)), new RandomPlayer(new SplittableRandom(13)));
+    t.checkExpect(random.gameOver, true);
+
+    // Against a solver, a game is stopped once random play has thrown the win away, and
+    // has the same winner as the same game played out in fewer moves
+    int saved = 0;
+    boolean same = true;
+    for (int seed = 0; seed < 10; seed++) {
+      BridgeItWorld stopped = new BridgeItSelfPlay(7, null, null, true).playGame(
+          new RandomPlayer(new SplittableRandom(seed)),
+          new ShannonPlayer(new RandomPlayer(new SplittableRandom(seed + 100))));
+      BridgeItWorld full = new BridgeItSelfPlay(7, null, null).playGame(
+          new RandomPlayer(new SplittableRandom(seed)),
+          new ShannonPlayer(new RandomPlayer(new SplittableRandom(seed + 100))));
+      same = same && BridgeItSelfPlay.winner(stopped) == BridgeItSelfPlay.winner(full)
+          && stopped.moveCount <= full.moveCount;
+      saved += full.moveCount - stopped.moveCount;
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(saved > 0, true);
+
+    SelfPlayStats stats = new BridgeItSelfPlay(7,
+        () -> new RandomPlayer(new SplittableRandom(14)),
+        () -> new ShannonPlayer(new RandomPlayer(new SplittableRandom(15))), true).run(20, 2);
+    t.checkExpect(stats.decided > 0, true);
+    t.checkExpect(stats.p1Wins < 20, true);
+  }
+}
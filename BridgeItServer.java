@@ -0,0 +1,644 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import tester.*;
+
+// A TCP server that hosts BridgeIt matches between remote players. Every connection
+// gets its own thread that just blocks reading lines, which is cheap with virtual
+// threads. Each match has its own lock and no lock is shared between matches, so
+// thousands of matches can run at once without waiting on each other.
+//
+// The protocol is one command per line:
+//   JOIN size       wait for another player asking for the same size
+//                   answered with MATCH id PINK or MATCH id MAGENTA once paired
+//   MOVE row col    claim a cell, answered with OK or ERR and a reason. The other
+//                   player is sent MOVED row col.
+//   QUIT            leave, the other player wins
+// When a match ends both players are sent OVER PINK or OVER MAGENTA and can JOIN
+// again. Moves are checked and played by a BridgeItWorld, the same as clicks.
+class BridgeItServer implements Closeable {
+  ServerSocket socket;
+  ExecutorService threads;
+  ConcurrentHashMap<Integer, ServerConnection> waiting; // One player waiting per size
+  AtomicInteger nextMatch;
+  Set<ServerConnection> connections;
+  CountDownLatch closed; // Counted down when the server is closed
+
+  // Starts listening on the given port, or any free port if it is 0
+  BridgeItServer(int port) throws IOException {
+    this.socket = new ServerSocket();
+    this.socket.setReuseAddress(true);
+    this.socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+    this.threads = threadPerTask("bridgeit-server");
+    this.waiting = new ConcurrentHashMap<Integer, ServerConnection>();
+    this.nextMatch = new AtomicInteger();
+    this.connections = ConcurrentHashMap.newKeySet();
+    this.closed = new CountDownLatch(1);
+    this.threads.execute(this::acceptLoop);
+  }
+
+  // The port the server ended up on
+  int port() {
+    return this.socket.getLocalPort();
+  }
+
+  // Hands every new connection a thread of its own until the server is closed
+  void acceptLoop() {
+    while (!this.socket.isClosed()) {
+      try {
+        Socket client = this.socket.accept();
+        ServerConnection connection = new ServerConnection(this, client);
+        this.connections.add(connection);
+        this.threads.execute(connection::run);
+      }
+      catch (IOException e) {
+        // Accept fails when the server is closed, which ends the loop
+      }
+    }
+  }
+
+  // Pairs a player with whoever is waiting for the same size, or leaves them waiting
+  void join(ServerConnection player, int size) {
+    ServerConnection[] opponent = new ServerConnection[1];
+    this.waiting.compute(size, (key, waiter) -> {
+      if (waiter == null || waiter == player) {
+        player.waitingSize = size;
+        return player;
+      }
+      opponent[0] = waiter;
+      return null;
+    });
+    if (opponent[0] != null) {
+      ServerMatch match = new ServerMatch(this.nextMatch.incrementAndGet(), size, opponent[0],
+          player);
+      match.start();
+    }
+  }
+
+  // Stops a player waiting, if they were
+  void leave(ServerConnection player) {
+    for (Integer size : this.waiting.keySet()) {
+      this.waiting.remove(size, player);
+    }
+    player.waitingSize = 0;
+  }
+
+  public void close() throws IOException {
+    this.socket.close();
+    for (ServerConnection connection : this.connections) {
+      connection.close();
+    }
+    this.threads.shutdown();
+    this.closed.countDown();
+  }
+
+  // Blocks until the server is closed. The server's own threads are all daemons, so
+  // something has to keep the program running while it serves.
+  void awaitClose() {
+    try {
+      this.closed.await();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for the server", e);
+    }
+  }
+
+  // Runs every task on a thread of its own: a virtual thread on Java versions that have
+  // them, otherwise a daemon platform thread with a small stack
+  static ExecutorService threadPerTask(String name) {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    }
+    catch (ReflectiveOperationException e) {
+      AtomicInteger count = new AtomicInteger();
+      return Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(null, task, name + "-" + count.incrementAndGet(), 256 * 1024);
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  // Starts a server and runs until it is killed. Usage: java BridgeItServer [port]
+  public static void main(String[] args) throws IOException {
+    BridgeItServer server = new BridgeItServer(args.length > 0 ? Integer.parseInt(args[0]) : 7420);
+    System.out.println("BridgeIt server on port " + server.port());
+    server.awaitClose();
+  }
+}
+
+// One game between two connected players. Everything about the game happens while
+// holding this match's lock, which also keeps the messages to both players in order.
+class ServerMatch {
+  int id;
+  BridgeItWorld world;
+  ServerConnection pink; // Moves first
+  ServerConnection magenta;
+
+  ServerMatch(int id, int size, ServerConnection pink, ServerConnection magenta) {
+    this.id = id;
+    this.world = new BridgeItWorld(size);
+    this.pink = pink;
+    this.magenta = magenta;
+  }
+
+  // Tells both players they are in this match. The waiting player can leave after
+  // being taken off the waiting list but before this sets their match. Setting the
+  // match before looking at gone, while the leaving player sets gone before looking at
+  // their match, means one of the two always sees the other: either the match is
+  // called off here and the player still here waits again, or the leaving player
+  // finds the match and forfeits it once this is done.
+  synchronized void start() {
+    this.pink.match = this;
+    this.magenta.match = this;
+    // Cleared only once the match is set, so neither is ever free to join in between
+    this.pink.waitingSize = 0;
+    this.magenta.waitingSize = 0;
+    if (this.pink.gone || this.magenta.gone) {
+      this.world.gameOver = true;
+      this.pink.match = null;
+      this.magenta.match = null;
+      for (ServerConnection player : new ServerConnection[] { this.pink, this.magenta }) {
+        if (!player.gone) {
+          player.server.join(player, this.world.size);
+        }
+      }
+      return;
+    }
+    this.pink.send("MATCH " + this.id + " PINK");
+    this.magenta.send("MATCH " + this.id + " MAGENTA");
+  }
+
+  // Plays a move for a player if it is their turn and the cell is free
+  synchronized void move(ServerConnection player, int row, int col) {
+    if (this.world.gameOver) {
+      player.send("ERR game is over");
+      return;
+    }
+    if ((player == this.pink) != this.world.p1turn) {
+      player.send("ERR not your turn");
+      return;
+    }
+    if (!this.world.play(row, col)) {
+      player.send("ERR cell is taken");
+      return;
+    }
+    player.send("OK");
+    this.other(player).send("MOVED " + row + " " + col);
+    if (this.world.gameOver) {
+      this.finish(this.world.p1turn ? this.pink : this.magenta);
+    }
+  }
+
+  // Ends the game early because a player left, the other player wins
+  synchronized void forfeit(ServerConnection player) {
+    if (!this.world.gameOver) {
+      this.world.gameOver = true;
+      this.finish(this.other(player));
+    }
+  }
+
+  // Tells both players who won and frees them to join another match
+  void finish(ServerConnection winner) {
+    String message = winner == this.pink ? "OVER PINK" : "OVER MAGENTA";
+    this.pink.match = null;
+    this.magenta.match = null;
+    this.pink.send(message);
+    this.magenta.send(message);
+  }
+
+  ServerConnection other(ServerConnection player) {
+    return player == this.pink ? this.magenta : this.pink;
+  }
+}
+
+// The server's side of one player's connection. Only its own thread reads from it, but
+// matches write to it from whichever player's thread made the move, so writes are
+// synchronized.
+class ServerConnection {
+  BridgeItServer server;
+  Socket socket;
+  BufferedReader in;
+  Writer out;
+  volatile ServerMatch match; // The match this player is in, or null
+  volatile int waitingSize; // The size this player is waiting for a match of, or 0
+  volatile boolean gone; // Set once the player has quit or dropped
+
+  ServerConnection(BridgeItServer server, Socket socket) throws IOException {
+    this.server = server;
+    this.socket = socket;
+    socket.setTcpNoDelay(true);
+    this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+    this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+        "US-ASCII"));
+  }
+
+  // Reads commands until the player quits or the connection drops
+  void run() {
+    try {
+      String line = this.in.readLine();
+      while (line != null && !line.equals("QUIT")) {
+        this.handle(line);
+        line = this.in.readLine();
+      }
+    }
+    catch (IOException e) {
+      // The player went away, which is handled the same as quitting
+    }
+    finally {
+      this.gone = true;
+      this.server.leave(this);
+      ServerMatch current = this.match;
+      if (current != null) {
+        current.forfeit(this);
+      }
+      this.server.connections.remove(this);
+      this.close();
+    }
+  }
+
+  // Carries out one command
+  void handle(String line) {
+    String[] words = line.trim().split(" +");
+    try {
+      if (words[0].equals("JOIN") && words.length == 2) {
+        int size = Integer.parseInt(words[1]);
+        if (this.match != null) {
+          this.send("ERR already in a match");
+        }
+        else if (this.waitingSize != 0) {
+          this.send("ERR already waiting for a match");
+        }
+        else if (size < 3 || size % 2 == 0 || size > 101) {
+          this.send("ERR size must be odd and from 3 to 101");
+        }
+        else {
+          this.server.join(this, size);
+        }
+      }
+      else if (words[0].equals("MOVE") && words.length == 3) {
+        ServerMatch current = this.match;
+        if (current == null) {
+          this.send("ERR not in a match");
+        }
+        else {
+          current.move(this, Integer.parseInt(words[1]), Integer.parseInt(words[2]));
+        }
+      }
+      else {
+        this.send("ERR unknown command");
+      }
+    }
+    catch (NumberFormatException e) {
+      this.send("ERR bad number");
+    }
+  }
+
+  // Sends one line, dropping it if the player has already gone
+  synchronized void send(String message) {
+    try {
+      this.out.write(message);
+      this.out.write('\n');
+      this.out.flush();
+    }
+    catch (IOException e) {
+      this.close();
+    }
+  }
+
+  void close() {
+    try {
+      this.socket.close();
+    }
+    catch (IOException e) {
+      // Nothing else can be done with a socket that won't close
+    }
+  }
+}
+
+// Simulates lots of players against a server, each playing random moves over its own
+// connection, and measures how many moves a second get through and how long each
+// move takes from sending it to hearing OK back.
+class BridgeItLoadTest {
+  int players; // Must be even so everyone gets an opponent
+  int size;
+  int games; // Games each player plays
+
+  BridgeItLoadTest(int players, int size, int games) {
+    this.players = players;
+    this.size = size;
+    this.games = games;
+  }
+
+  // Runs every player at once against the server on the given port
+  LoadTestResult run(int port) {
+    ExecutorService threads = BridgeItServer.threadPerTask("bridgeit-player");
+    ArrayList<Future<long[]>> results = new ArrayList<Future<long[]>>();
+    long start = System.nanoTime();
+    for (int i = 0; i < this.players; i++) {
+      SplittableRandom random = new SplittableRandom(i);
+      results.add(threads.submit(() -> this.play(port, random)));
+    }
+
+    // Every player gives back how long each of its moves took
+    long[] all = new long[0];
+    try {
+      for (Future<long[]> result : results) {
+        long[] latencies = result.get();
+        int used = all.length;
+        all = Arrays.copyOf(all, used + latencies.length);
+        System.arraycopy(latencies, 0, all, used, latencies.length);
+      }
+    }
+    catch (InterruptedException | ExecutionException e) {
+      throw new IllegalStateException("Load test failed", e);
+    }
+    finally {
+      threads.shutdown();
+    }
+    return new LoadTestResult(all, System.nanoTime() - start);
+  }
+
+  // One player's whole session, returning the nanoseconds each of its moves took
+  long[] play(int port, SplittableRandom random) throws IOException {
+    long[] latencies = new long[16];
+    int moves = 0;
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      socket.setTcpNoDelay(true);
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+          "US-ASCII"));
+      Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+          "US-ASCII"));
+      RandomPlayer player = new RandomPlayer(random);
+      for (int game = 0; game < this.games; game++) {
+        send(out, "JOIN " + this.size);
+        String[] matched = expect(in, "MATCH");
+        boolean pink = matched[2].equals("PINK");
+
+        // Each player keeps its own copy of the game to pick moves from
+        BridgeItWorld world = new BridgeItWorld(this.size);
+        while (!world.gameOver) {
+          if (world.p1turn == pink) {
+            int move = player.chooseMove(world.board, BridgeItSelfPlay.toMove(world));
+            int row = world.board.row(move);
+            int col = world.board.col(move);
+            long sent = System.nanoTime();
+            send(out, "MOVE " + row + " " + col);
+            expect(in, "OK");
+            if (moves == latencies.length) {
+              latencies = Arrays.copyOf(latencies, moves * 2);
+            }
+            latencies[moves] = System.nanoTime() - sent;
+            moves++;
+            world.play(row, col);
+          }
+          else {
+            String[] moved = expect(in, "MOVED");
+            world.play(Integer.parseInt(moved[1]), Integer.parseInt(moved[2]));
+          }
+        }
+        expect(in, "OVER");
+      }
+      send(out, "QUIT");
+    }
+    return Arrays.copyOf(latencies, moves);
+  }
+
+  static void send(Writer out, String line) throws IOException {
+    out.write(line);
+    out.write('\n');
+    out.flush();
+  }
+
+  // Reads the next line and checks it starts with the word that was expected
+  static String[] expect(BufferedReader in, String word) throws IOException {
+    String line = in.readLine();
+    if (line == null) {
+      throw new EOFException("Server closed the connection waiting for " + word);
+    }
+    String[] words = line.split(" ");
+    if (!words[0].equals(word)) {
+      throw new IOException("Expected " + word + " but got " + line);
+    }
+    return words;
+  }
+
+  // Starts a server and throws players at it.
+  // Usage: java BridgeItLoadTest [players] [size] [games]
+  public static void main(String[] args) throws IOException {
+    int players = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int size = args.length > 1 ? Integer.parseInt(args[1]) : 9;
+    int games = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    try (BridgeItServer server = new BridgeItServer(0)) {
+      System.out.println(new BridgeItLoadTest(players, size, games).run(server.port()));
+    }
+  }
+}
+
+// The moves made in a load test and how long they took
+class LoadTestResult {
+  long[] latencies; // Nanoseconds for each move, sorted
+  long nanos; // Wall clock time for the whole test
+
+  LoadTestResult(long[] latencies, long nanos) {
+    this.latencies = latencies;
+    Arrays.sort(this.latencies);
+    this.nanos = nanos;
+  }
+
+  double movesPerSecond() {
+    return this.latencies.length / Math.max(1e-9, this.nanos / 1e9);
+  }
+
+  // The latency that the given fraction of moves were at or under
+  long percentile(double fraction) {
+    if (this.latencies.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(fraction * this.latencies.length) - 1;
+    return this.latencies[Math.max(0, Math.min(this.latencies.length - 1, index))];
+  }
+
+  public String toString() {
+    return String.format("%d moves, %.0f moves/s, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+        this.latencies.length, this.movesPerSecond(), this.percentile(0.5) / 1e6,
+        this.percentile(0.99) / 1e6, this.percentile(1) / 1e6);
+  }
+}
+
+class ExamplesBridgeItServer {
+  // Connects a raw client to the server
+  Socket connect(BridgeItServer server) throws IOException {
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+    socket.setSoTimeout(10000);
+    return socket;
+  }
+
+  BufferedReader reader(Socket socket) throws IOException {
+    return new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+  }
+
+  Writer writer(Socket socket) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "US-ASCII"));
+  }
+
+  // Waits until someone is waiting for a game of the given size, so the player who
+  // joined first is known to be pink
+  void waitForJoin(BridgeItServer server, int size) {
+    while (!server.waiting.containsKey(size)) {
+      Thread.onSpinWait();
+    }
+  }
+
+  void testMatch(Tester t) {
+    try (BridgeItServer server = new BridgeItServer(0);
+        Socket first = this.connect(server);
+        Socket second = this.connect(server)) {
+      BufferedReader in1 = this.reader(first);
+      BufferedReader in2 = this.reader(second);
+      Writer out1 = this.writer(first);
+      Writer out2 = this.writer(second);
+
+      BridgeItLoadTest.send(out1, "JOIN 3");
+      this.waitForJoin(server, 3);
+      BridgeItLoadTest.send(out2, "JOIN 3");
+      t.checkExpect(in1.readLine().endsWith(" PINK"), true);
+      t.checkExpect(in2.readLine().endsWith(" MAGENTA"), true);
+
+      // Magenta can't go first, and bad input is turned away
+      BridgeItLoadTest.send(out2, "MOVE 1 1");
+      t.checkExpect(in2.readLine(), "ERR not your turn");
+      BridgeItLoadTest.send(out1, "MOVE one 1");
+      t.checkExpect(in1.readLine(), "ERR bad number");
+      BridgeItLoadTest.send(out1, "JUMP");
+      t.checkExpect(in1.readLine(), "ERR unknown command");
+      BridgeItLoadTest.send(out1, "MOVE 1 0");
+      t.checkExpect(in1.readLine(), "ERR cell is taken");
+
+      // The middle of a 3x3 board wins straight away
+      BridgeItLoadTest.send(out1, "MOVE 1 1");
+      t.checkExpect(in1.readLine(), "OK");
+      t.checkExpect(in2.readLine(), "MOVED 1 1");
+      t.checkExpect(in1.readLine(), "OVER PINK");
+      t.checkExpect(in2.readLine(), "OVER PINK");
+
+      // Leaving part way through a game hands it to the other player
+      BridgeItLoadTest.send(out1, "JOIN 5");
+      this.waitForJoin(server, 5);
+      BridgeItLoadTest.send(out2, "JOIN 5");
+      t.checkExpect(in1.readLine().endsWith(" PINK"), true);
+      t.checkExpect(in2.readLine().endsWith(" MAGENTA"), true);
+      BridgeItLoadTest.send(out1, "QUIT");
+      t.checkExpect(in2.readLine(), "OVER MAGENTA");
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Server test failed", e);
+    }
+  }
+
+  void testJoinWhileWaiting(Tester t) {
+    try (BridgeItServer server = new BridgeItServer(0);
+        Socket first = this.connect(server);
+        Socket second = this.connect(server);
+        Socket third = this.connect(server)) {
+      BufferedReader in1 = this.reader(first);
+      BufferedReader in2 = this.reader(second);
+      BufferedReader in3 = this.reader(third);
+      Writer out1 = this.writer(first);
+      Writer out2 = this.writer(second);
+      Writer out3 = this.writer(third);
+
+      BridgeItLoadTest.send(out1, "JOIN 5");
+      BridgeItLoadTest.send(out1, "JOIN 7");
+      t.checkExpect(in1.readLine(), "ERR already waiting for a match");
+      t.checkExpect(server.waiting.containsKey(7), false);
+
+      // Nobody is left waiting for 7, so the third player has to wait
+      BridgeItLoadTest.send(out3, "JOIN 7");
+      this.waitForJoin(server, 7);
+      BridgeItLoadTest.send(out2, "JOIN 5");
+      t.checkExpect(in1.readLine().endsWith(" PINK"), true);
+      t.checkExpect(in2.readLine().endsWith(" MAGENTA"), true);
+      t.checkExpect(in3.ready(), false);
+
+      // Quitting only ends the match the first player is really in
+      BridgeItLoadTest.send(out1, "QUIT");
+      t.checkExpect(in2.readLine(), "OVER MAGENTA");
+      t.checkExpect(server.waiting.get(7) != null, true);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Server test failed", e);
+    }
+  }
+
+  void testWaiterLeavesWhilePaired(Tester t) {
+    try (BridgeItServer server = new BridgeItServer(0);
+        Socket first = this.connect(server);
+        Socket second = this.connect(server);
+        Socket third = this.connect(server)) {
+      BufferedReader in2 = this.reader(second);
+      BufferedReader in3 = this.reader(third);
+
+      BridgeItLoadTest.send(this.writer(first), "JOIN 5");
+      this.waitForJoin(server, 5);
+      // As if the first player dropped just after being taken off the waiting list
+      ServerConnection waiter = server.waiting.get(5);
+      waiter.gone = true;
+      BridgeItLoadTest.send(this.writer(second), "JOIN 5");
+      while (server.waiting.get(5) == waiter || !server.waiting.containsKey(5)) {
+        Thread.onSpinWait();
+      }
+      t.checkExpect(waiter.match, null);
+      t.checkExpect(in2.ready(), false);
+
+      // The second player is waiting again and gets the next opponent
+      BridgeItLoadTest.send(this.writer(third), "JOIN 5");
+      t.checkExpect(in2.readLine().endsWith(" PINK"), true);
+      t.checkExpect(in3.readLine().endsWith(" MAGENTA"), true);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Server test failed", e);
+    }
+  }
+
+  void testAwaitClose(Tester t) {
+    try {
+      BridgeItServer server = new BridgeItServer(0);
+      Thread waiter = new Thread(server::awaitClose);
+      waiter.start();
+      t.checkExpect(waiter.isAlive(), true);
+      server.close();
+      waiter.join(5000);
+      t.checkExpect(waiter.isAlive(), false);
+    }
+    catch (IOException | InterruptedException e) {
+      throw new IllegalStateException("Server test failed", e);
+    }
+  }
+
+  void testLoad(Tester t) {
+    try (BridgeItServer server = new BridgeItServer(0)) {
+      LoadTestResult result = new BridgeItLoadTest(200, 7, 3).run(server.port());
+      // Every player makes at least two moves a game on a 7x7 board
+      t.checkExpect(result.latencies.length >= 200 * 3 * 2, true);
+      t.checkExpect(result.percentile(0.99) >= result.percentile(0.5), true);
+      t.checkExpect(result.movesPerSecond() > 0, true);
+      t.checkExpect(server.waiting.isEmpty(), true);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Load test failed", e);
+    }
+  }
+
+  void testPercentile(Tester t) {
+    LoadTestResult result = new LoadTestResult(new long[] { 5, 1, 4, 2, 3 }, 1000000000L);
+    t.checkExpect(result.percentile(0.5), 3L);
+    t.checkExpect(result.percentile(0.99), 5L);
+    t.checkExpect(result.percentile(0), 1L);
+    t.checkInexact(result.movesPerSecond(), 5.0, 1e-9);
+  }
+}
@@ -0,0 +1,834 @@
+import java.util.*;
+import tester.*;
+import javalib.worldimages.*;
+
+// Plays Bridg-it perfectly for one player using the Shannon switching game strategy.
+//
+// From one players point of view the board is a graph. Their pre colored dots are the
+// nodes, all the dots on each of their two edges are squashed into a single node, and
+// every white cell between two of their dots is an edge. Claiming a cell contracts its
+// edge and the other player claiming it deletes the edge. If the graph has two edge
+// disjoint spanning trees the player can always win: when a tree edge is deleted, an
+// edge of the other tree reconnects the two halves and claiming it keeps both trees
+// spanning. The first player is one edge short of this at the start, so their first
+// move is the tree edge that joins the two halves of the second tree.
+//
+// The two trees are kept up to date as moves come in, so working out a reply is a
+// couple of walks over a tree rather than a search.
+class ShannonSolver {
+  static final byte FREE = 0;
+  static final byte OWNED = 1; // Claimed by this player, the edge is contracted
+  static final byte CUT = 2; // Claimed by the other player, the edge is gone
+
+  BridgeItBoard board;
+  byte color; // The player this solver plays for
+  int dotCount; // Number of dots of this players color
+  UnionFind contracted; // Dots squashed together by the edges and owned cells
+  int nodes; // Number of nodes left after squashing
+  int firstEdge; // A dot on the first of this players edges
+  int secondEdge; // A dot on the second of this players edges
+
+  int edgeCount;
+  int[] edgeCell; // The cell each edge belongs to
+  int[] edgeA; // The dots at each end of an edge
+  int[] edgeB;
+  byte[] status; // FREE, OWNED or CUT
+  byte[] forest; // 0 if the edge isn't in a tree, otherwise which of the two trees
+  int[] cellEdge; // The edge for each cell, -1 if the cell isn't an edge for this player
+
+  int[][][] adjacent; // For each tree, the tree edges touching each node
+  int[][] degree; // For each tree, how many tree edges touch each node
+  int[] treeSize; // How many edges are in each tree
+
+  int[] seen; // Generation stamps for walks over the nodes
+  int[] side; // Generation stamps for the second side of a cut
+  int generation;
+  int[] parentEdge; // The tree edge each node was reached by
+  int[] queue; // Worklist of nodes
+  boolean stale; // A cut couldn't be patched straight away so the trees may not be the biggest
+  int[] labelParent; // Edge swaps found while adding an edge to the trees
+  byte[] labelForest;
+  int[] labelSeen;
+  int[] edgeQueue;
+
+  ShannonSolver(BridgeItBoard board, byte color) {
+    this.board = board;
+    this.color = color;
+    this.build();
+  }
+
+  // The dot number for a cell that starts as this players color, or -1 if it doesn't
+  int dot(int row, int col) {
+    int size = this.board.size;
+    if (row < 0 || col < 0 || row >= size || col >= size
+        || BridgeItBoard.initialColor(row, col) != this.color) {
+      return -1;
+    }
+    int half = (size - 1) / 2;
+    if (this.color == BridgeItBoard.PINK) {
+      return (row / 2) * (half + 1) + col / 2;
+    }
+    else {
+      return (row / 2) * half + col / 2;
+    }
+  }
+
+  // Sets everything up from the position currently on the board
+  void build() {
+    int size = this.board.size;
+    int half = (size - 1) / 2;
+    this.adjacent = null;
+    this.dotCount = half * (half + 1);
+    this.contracted = new UnionFind(this.dotCount);
+    this.nodes = this.dotCount;
+
+    // Squash each edge of the board into one node
+    for (int i = 0; i < half; i++) {
+      int row = 2 * i + 1;
+      if (this.color == BridgeItBoard.PINK) {
+        this.merge(this.dot(row, 0), this.dot(1, 0));
+        this.merge(this.dot(row, size - 1), this.dot(1, size - 1));
+      }
+      else {
+        this.merge(this.dot(0, row), this.dot(0, 1));
+        this.merge(this.dot(size - 1, row), this.dot(size - 1, 1));
+      }
+    }
+    this.firstEdge = this.color == BridgeItBoard.PINK ? this.dot(1, 0) : this.dot(0, 1);
+    this.secondEdge = this.color == BridgeItBoard.PINK ? this.dot(1, size - 1)
+        : this.dot(size - 1, 1);
+
+    // Every cell that starts white and sits between two of this players dots is an edge
+    this.cellEdge = new int[this.board.cells.length];
+    Arrays.fill(this.cellEdge, -1);
+    int[] cells = new int[this.board.cells.length];
+    int[] ends = new int[this.board.cells.length * 2];
+    this.edgeCount = 0;
+    for (int row = 0; row < size; row++) {
+      for (int col = 0; col < size; col++) {
+        if (BridgeItBoard.initialColor(row, col) != BridgeItBoard.WHITE) {
+          continue;
+        }
+        int a = this.dot(row - 1, col);
+        int b = this.dot(row + 1, col);
+        if (a == -1 || b == -1) {
+          a = this.dot(row, col - 1);
+          b = this.dot(row, col + 1);
+        }
+        if (a != -1 && b != -1) {
+          cells[this.edgeCount] = this.board.index(row, col);
+          ends[this.edgeCount * 2] = a;
+          ends[this.edgeCount * 2 + 1] = b;
+          this.cellEdge[this.board.index(row, col)] = this.edgeCount;
+          this.edgeCount++;
+        }
+      }
+    }
+    this.edgeCell = Arrays.copyOf(cells, this.edgeCount);
+    this.edgeA = new int[this.edgeCount];
+    this.edgeB = new int[this.edgeCount];
+    for (int e = 0; e < this.edgeCount; e++) {
+      this.edgeA[e] = ends[e * 2];
+      this.edgeB[e] = ends[e * 2 + 1];
+    }
+    this.status = new byte[this.edgeCount];
+    this.forest = new byte[this.edgeCount];
+
+    this.adjacent = new int[3][this.dotCount][];
+    this.degree = new int[3][this.dotCount];
+    for (int f = 1; f <= 2; f++) {
+      for (int node = 0; node < this.dotCount; node++) {
+        this.adjacent[f][node] = new int[4];
+      }
+    }
+    this.treeSize = new int[3];
+    this.seen = new int[this.dotCount];
+    this.side = new int[this.dotCount];
+    this.parentEdge = new int[this.dotCount];
+    this.queue = new int[this.dotCount];
+    this.generation = 0;
+    this.labelParent = new int[this.edgeCount];
+    this.labelForest = new byte[this.edgeCount];
+    this.labelSeen = new int[this.edgeCount];
+    this.edgeQueue = new int[this.edgeCount];
+
+    // Contract the cells already claimed and drop the ones that are gone
+    for (int e = 0; e < this.edgeCount; e++) {
+      byte cell = this.board.cells[this.edgeCell[e]];
+      if (cell == this.color) {
+        this.status[e] = OWNED;
+        this.merge(this.edgeA[e], this.edgeB[e]);
+      }
+      else if (cell != BridgeItBoard.WHITE) {
+        this.status[e] = CUT;
+      }
+    }
+    this.packTrees();
+  }
+
+  // Fills the two trees with as many free edges as they can take. Edges go in greedily
+  // first and anything left over is tried again with swaps between the trees, the
+  // matroid partition algorithm, which finds the biggest pair of forests there is.
+  void packTrees() {
+    UnionFind first = new UnionFind(this.dotCount);
+    UnionFind second = new UnionFind(this.dotCount);
+    int[] leftOver = new int[this.edgeCount];
+    int leftOverCount = 0;
+    for (int e = 0; e < this.edgeCount; e++) {
+      if (this.status[e] != FREE) {
+        continue;
+      }
+      int a = this.contracted.find(this.edgeA[e]);
+      int b = this.contracted.find(this.edgeB[e]);
+      if (a == b) {
+        continue;
+      }
+      if (!first.connected(a, b)) {
+        first.union(a, b);
+        this.addToForest(e, 1);
+      }
+      else if (!second.connected(a, b)) {
+        second.union(a, b);
+        this.addToForest(e, 2);
+      }
+      else {
+        leftOver[leftOverCount] = e;
+        leftOverCount++;
+      }
+    }
+    for (int i = 0; i < leftOverCount && this.deficiency() > 0; i++) {
+      this.insert(leftOver[i]);
+    }
+    this.stale = false;
+  }
+
+  // Tries every spare edge again with swaps, which gets the trees back to the biggest
+  // they can be after cuts that couldn't be patched with a single spare edge. Stops
+  // once the trees are no more than target edges short.
+  void repack(int target) {
+    int e = 0;
+    while (e < this.edgeCount && this.deficiency() > target) {
+      if (this.status[e] == FREE && this.forest[e] == 0
+          && this.contracted.find(this.edgeA[e]) != this.contracted.find(this.edgeB[e])) {
+        this.insert(e);
+      }
+      e++;
+    }
+    // Stopping early leaves edges untried, so the trees might still grow
+    this.stale = e < this.edgeCount && this.deficiency() > 0;
+  }
+
+  // How many edges short of two spanning trees the forests are
+  int deficiency() {
+    return 2 * (this.nodes - 1) - this.treeSize[1] - this.treeSize[2];
+  }
+
+  // Squashes two nodes together, keeping the tree edges of both
+  void merge(int a, int b) {
+    int rootA = this.contracted.find(a);
+    int rootB = this.contracted.find(b);
+    if (rootA == rootB) {
+      return;
+    }
+    this.contracted.union(rootA, rootB);
+    int root = this.contracted.find(rootA);
+    int gone = root == rootA ? rootB : rootA;
+    this.nodes--;
+    if (this.adjacent == null) {
+      return;
+    }
+    for (int f = 1; f <= 2; f++) {
+      for (int i = 0; i < this.degree[f][gone]; i++) {
+        this.addAdjacent(f, root, this.adjacent[f][gone][i]);
+      }
+      this.degree[f][gone] = 0;
+    }
+  }
+
+  void addAdjacent(int f, int node, int edge) {
+    if (this.degree[f][node] == this.adjacent[f][node].length) {
+      this.adjacent[f][node] = Arrays.copyOf(this.adjacent[f][node], this.degree[f][node] * 2);
+    }
+    this.adjacent[f][node][this.degree[f][node]] = edge;
+    this.degree[f][node]++;
+  }
+
+  void removeAdjacent(int f, int node, int edge) {
+    int[] list = this.adjacent[f][node];
+    for (int i = 0; i < this.degree[f][node]; i++) {
+      if (list[i] == edge) {
+        this.degree[f][node]--;
+        list[i] = list[this.degree[f][node]];
+        return;
+      }
+    }
+  }
+
+  void addToForest(int edge, int f) {
+    this.forest[edge] = (byte) f;
+    this.treeSize[f]++;
+    this.addAdjacent(f, this.contracted.find(this.edgeA[edge]), edge);
+    this.addAdjacent(f, this.contracted.find(this.edgeB[edge]), edge);
+  }
+
+  void removeFromForest(int edge) {
+    int f = this.forest[edge];
+    this.forest[edge] = 0;
+    this.treeSize[f]--;
+    this.removeAdjacent(f, this.contracted.find(this.edgeA[edge]), edge);
+    this.removeAdjacent(f, this.contracted.find(this.edgeB[edge]), edge);
+  }
+
+  // The node on the other end of a tree edge
+  int across(int edge, int node) {
+    int a = this.contracted.find(this.edgeA[edge]);
+    return a == node ? this.contracted.find(this.edgeB[edge]) : a;
+  }
+
+  // Walks tree f out from start, stamping every node it reaches with the current
+  // generation and recording the edge it was reached by. Stops early at stop.
+  boolean walk(int f, int start, int stop) {
+    return this.walk(f, start, stop, this.seen);
+  }
+
+  boolean walk(int f, int start, int stop, int[] stamps) {
+    stamps[start] = this.generation;
+    this.parentEdge[start] = -1;
+    this.queue[0] = start;
+    int head = 0;
+    int tail = 1;
+    while (head < tail) {
+      int node = this.queue[head];
+      head++;
+      if (node == stop) {
+        return true;
+      }
+      for (int i = 0; i < this.degree[f][node]; i++) {
+        int edge = this.adjacent[f][node][i];
+        int next = this.across(edge, node);
+        if (stamps[next] != this.generation) {
+          stamps[next] = this.generation;
+          this.parentEdge[next] = edge;
+          this.queue[tail] = next;
+          tail++;
+        }
+      }
+    }
+    return false;
+  }
+
+  // The number of edges on the path between two nodes in tree f, with the edges left
+  // in parentEdge, or -1 if they aren't connected
+  int path(int f, int from, int to) {
+    this.generation++;
+    if (!this.walk(f, from, to)) {
+      return -1;
+    }
+    int length = 0;
+    for (int node = to; node != from; node = this.across(this.parentEdge[node], node)) {
+      length++;
+    }
+    return length;
+  }
+
+  // Tries to fit a free edge into the trees, moving other edges between the trees to
+  // make room if it has to. Each edge found in the way is labeled with the edge that
+  // wants its place, and the labels are searched breadth first so the chain of swaps
+  // that is finally made is a shortest one.
+  boolean insert(int start) {
+    this.generation++;
+    int labelGeneration = this.generation;
+    this.labelSeen[start] = labelGeneration;
+    this.labelParent[start] = -1;
+    this.edgeQueue[0] = start;
+    int head = 0;
+    int tail = 1;
+
+    while (head < tail) {
+      int edge = this.edgeQueue[head];
+      head++;
+      int a = this.contracted.find(this.edgeA[edge]);
+      int b = this.contracted.find(this.edgeB[edge]);
+      for (int f = 1; f <= 2; f++) {
+        if (this.forest[edge] == f) {
+          continue;
+        }
+        this.generation++;
+        if (!this.walk(f, a, b)) {
+          this.swapIn(edge, f);
+          return true;
+        }
+        for (int node = b; node != a; node = this.across(this.parentEdge[node], node)) {
+          int inTheWay = this.parentEdge[node];
+          if (this.labelSeen[inTheWay] != labelGeneration) {
+            this.labelSeen[inTheWay] = labelGeneration;
+            this.labelParent[inTheWay] = edge;
+            this.labelForest[inTheWay] = (byte) f;
+            this.edgeQueue[tail] = inTheWay;
+            tail++;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  // Puts edge into tree f and follows the labels back, giving each edge the place in
+  // a tree of the edge that made room for it
+  void swapIn(int edge, int f) {
+    int target = f;
+    while (edge != -1) {
+      int from = this.forest[edge];
+      if (from != 0) {
+        this.removeFromForest(edge);
+      }
+      this.addToForest(edge, target);
+      target = from;
+      edge = this.labelParent[edge];
+    }
+  }
+
+  // Brings the solver up to date with cells claimed on the board since it last looked.
+  // Normally that is this players last move and then the other players answer, so this
+  // players cells are taken in first. If a cell it thought was claimed is white again
+  // the position went backwards, and everything is built again from the board.
+  void sync() {
+    for (int e = 0; e < this.edgeCount; e++) {
+      byte cell = this.board.cells[this.edgeCell[e]];
+      if (this.status[e] != FREE && cell == BridgeItBoard.WHITE) {
+        this.build();
+        return;
+      }
+    }
+    for (int e = 0; e < this.edgeCount; e++) {
+      if (this.status[e] == FREE && this.board.cells[this.edgeCell[e]] == this.color) {
+        this.own(e);
+      }
+    }
+    for (int e = 0; e < this.edgeCount; e++) {
+      byte cell = this.board.cells[this.edgeCell[e]];
+      if (this.status[e] == FREE && cell != BridgeItBoard.WHITE) {
+        this.cut(e);
+      }
+    }
+  }
+
+  // This player claimed an edge. Contracting it can close a loop in a tree, in which
+  // case one edge of the loop comes out so the tree stays a tree.
+  void own(int edge) {
+    this.status[edge] = OWNED;
+    int f = this.forest[edge];
+    if (f != 0) {
+      this.removeFromForest(edge);
+    }
+    int a = this.contracted.find(this.edgeA[edge]);
+    int b = this.contracted.find(this.edgeB[edge]);
+    if (a == b) {
+      return;
+    }
+    for (int other = 1; other <= 2; other++) {
+      if (other != f && this.path(other, a, b) != -1) {
+        this.removeFromForest(this.parentEdge[b]);
+      }
+    }
+    this.merge(a, b);
+  }
+
+  // The other player claimed an edge. If it was in a tree the tree falls in two, and a
+  // spare edge joining the halves is put in its place if there is one.
+  void cut(int edge) {
+    this.status[edge] = CUT;
+    int f = this.forest[edge];
+    if (f == 0) {
+      return;
+    }
+    this.removeFromForest(edge);
+    int a = this.contracted.find(this.edgeA[edge]);
+    int b = this.contracted.find(this.edgeB[edge]);
+    int spare = this.crossing(f, a, b);
+    if (spare != -1) {
+      this.addToForest(spare, f);
+    }
+    else {
+      this.stale = true;
+    }
+  }
+
+  // Finds a free edge that isn't in either tree and joins the part of tree f holding a
+  // to the part holding b, or -1 if there isn't one
+  int crossing(int f, int a, int b) {
+    this.generation++;
+    int sideA = this.generation;
+    this.walk(f, a, -1, this.seen);
+    this.generation++;
+    int sideB = this.generation;
+    this.walk(f, b, -1, this.side);
+    for (int e = 0; e < this.edgeCount; e++) {
+      if (this.status[e] != FREE || this.forest[e] != 0) {
+        continue;
+      }
+      int x = this.contracted.find(this.edgeA[e]);
+      int y = this.contracted.find(this.edgeB[e]);
+      if ((this.seen[x] == sideA && this.side[y] == sideB)
+          || (this.seen[y] == sideA && this.side[x] == sideB)) {
+        return e;
+      }
+    }
+    return -1;
+  }
+
+  // Whether the trees promise this player a win from here. When they move next the
+  // trees can be one edge short, since their move makes up the difference.
+  boolean certain(boolean toMove) {
+    this.sync();
+    if (this.contracted.find(this.firstEdge) == this.contracted.find(this.secondEdge)) {
+      return true;
+    }
+    int allowed = toMove ? 1 : 0;
+    if (this.deficiency() > allowed && this.stale) {
+      this.repack(allowed);
+    }
+    return this.deficiency() <= allowed;
+  }
+
+  // The cell this player should claim when it is their turn, or -1 if the trees don't
+  // promise a win from here
+  int reply() {
+    this.sync();
+    int first = this.contracted.find(this.firstEdge);
+    int second = this.contracted.find(this.secondEdge);
+    if (first == second) {
+      return -1;
+    }
+    if (this.deficiency() > 1 && this.stale) {
+      this.repack(1);
+    }
+    int missing1 = (this.nodes - 1) - this.treeSize[1];
+    int missing2 = (this.nodes - 1) - this.treeSize[2];
+    if (missing1 == 0 && missing2 == 0) {
+      // Both trees span so any tree edge keeps them spanning. Take one on the way
+      // between the two edges of the board.
+      this.path(1, first, second);
+      return this.edgeCell[this.parentEdge[second]];
+    }
+    if (missing1 + missing2 == 1) {
+      // One tree is in two parts, take the edge of the other tree that joins them
+      int broken = missing1 == 1 ? 1 : 2;
+      int whole = 3 - broken;
+      this.generation++;
+      this.walk(broken, first, -1);
+      for (int e = 0; e < this.edgeCount; e++) {
+        if (this.forest[e] == whole) {
+          int x = this.contracted.find(this.edgeA[e]);
+          int y = this.contracted.find(this.edgeB[e]);
+          if ((this.seen[x] == this.generation) != (this.seen[y] == this.generation)) {
+            return this.edgeCell[e];
+          }
+        }
+      }
+    }
+    return -1;
+  }
+}
+
+// Plays with a ShannonSolver for whichever player it is asked to move for. When the
+// solver can't promise a win it hands the move to a fallback player instead.
+class ShannonPlayer implements IBridgeItPlayer {
+  IBridgeItPlayer fallback;
+  ShannonSolver pink;
+  ShannonSolver magenta;
+  int fallbacks; // How many moves were handed to the fallback
+
+  ShannonPlayer(IBridgeItPlayer fallback) {
+    this.fallback = fallback;
+  }
+
+  public int chooseMove(BridgeItBoard board, byte color) {
+    ShannonSolver solver = this.solverFor(board, color);
+    int move = solver.reply();
+    if (move == -1 || board.cells[move] != BridgeItBoard.WHITE) {
+      this.fallbacks++;
+      return this.fallback.chooseMove(board, color);
+    }
+    return move;
+  }
+
+  // The solver for the given player on the given board, made again for a new board
+  ShannonSolver solverFor(BridgeItBoard board, byte color) {
+    if (color == BridgeItBoard.PINK) {
+      if (this.pink == null || this.pink.board != board) {
+        this.pink = new ShannonSolver(board, color);
+      }
+      return this.pink;
+    }
+    else {
+      if (this.magenta == null || this.magenta.board != board) {
+        this.magenta = new ShannonSolver(board, color);
+      }
+      return this.magenta;
+    }
+  }
+}
+
+// Works out whether a game is already decided, long before anyone has a bridge. Just
+// checking if a player is cut off doesn't help: a cell one player takes is a cell the
+// other can't use, so a player is cut off at exactly the moment the other player gets
+// their bridge. Instead a game is decided once a ShannonSolver can show that one player
+// is certain to win however the other plays, which makes it a certain loss for the
+// other player since the board can't fill up without someone winning. The proof only
+// goes one way, so an open game might still be decided with perfect play.
+class BridgeItOutcome {
+  static final int OPEN = 0;
+  static final int WON = 1; // Has a bridge or is certain to get one
+  static final int LOST = 2; // The other player is certain to get a bridge
+
+  BridgeItBoard board;
+  ShannonSolver pink; // Made the first time they are needed
+  ShannonSolver magenta;
+
+  BridgeItOutcome(BridgeItBoard board) {
+    this.board = board;
+  }
+
+  // The player who is certain to win with toMove to play next, or WHITE if the game is
+  // still open
+  byte winner(byte toMove) {
+    if (this.board.hasBridge(BridgeItBoard.PINK)) {
+      return BridgeItBoard.PINK;
+    }
+    if (this.board.hasBridge(BridgeItBoard.MAGENTA)) {
+      return BridgeItBoard.MAGENTA;
+    }
+    if (this.solver(BridgeItBoard.PINK).certain(toMove == BridgeItBoard.PINK)) {
+      return BridgeItBoard.PINK;
+    }
+    if (this.solver(BridgeItBoard.MAGENTA).certain(toMove == BridgeItBoard.MAGENTA)) {
+      return BridgeItBoard.MAGENTA;
+    }
+    return BridgeItBoard.WHITE;
+  }
+
+  // WON, LOST or OPEN for the given player with toMove to play next
+  int status(byte color, byte toMove) {
+    byte winner = this.winner(toMove);
+    if (winner == color) {
+      return WON;
+    }
+    else if (winner == BridgeItBoard.WHITE) {
+      return OPEN;
+    }
+    else {
+      return LOST;
+    }
+  }
+
+  ShannonSolver solver(byte color) {
+    if (color == BridgeItBoard.PINK) {
+      if (this.pink == null) {
+        this.pink = new ShannonSolver(this.board, color);
+      }
+      return this.pink;
+    }
+    else {
+      if (this.magenta == null) {
+        this.magenta = new ShannonSolver(this.board, color);
+      }
+      return this.magenta;
+    }
+  }
+}
+
+class ExamplesBridgeItSolver {
+  // Checks that both trees really are forests made of free edges
+  boolean forestsAreValid(ShannonSolver solver) {
+    for (int f = 1; f <= 2; f++) {
+      UnionFind sets = new UnionFind(solver.dotCount);
+      int count = 0;
+      for (int e = 0; e < solver.edgeCount; e++) {
+        if (solver.forest[e] == f) {
+          int a = solver.contracted.find(solver.edgeA[e]);
+          int b = solver.contracted.find(solver.edgeB[e]);
+          if (solver.status[e] != ShannonSolver.FREE || sets.connected(a, b)) {
+            return false;
+          }
+          sets.union(a, b);
+          count++;
+        }
+      }
+      if (count != solver.treeSize[f]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  void testInitialTrees(Tester t) {
+    // At the start each player is exactly one edge short of two spanning trees
+    for (int size = 3; size <= 15; size += 2) {
+      BridgeItWorld world = new BridgeItWorld(size);
+      for (byte color = BridgeItBoard.PINK; color <= BridgeItBoard.MAGENTA; color++) {
+        ShannonSolver solver = new ShannonSolver(world.board, color);
+        int half = (size - 1) / 2;
+        t.checkExpect(solver.nodes, half * (half - 1) + 2);
+        t.checkExpect(solver.treeSize[1], solver.nodes - 1);
+        t.checkExpect(solver.deficiency(), 1);
+        t.checkExpect(this.forestsAreValid(solver), true);
+      }
+    }
+  }
+
+  void testFirstMove(Tester t) {
+    BridgeItWorld world = new BridgeItWorld(3);
+    ShannonSolver solver = new ShannonSolver(world.board, BridgeItBoard.PINK);
+    t.checkExpect(solver.reply(), world.board.index(1, 1));
+
+    // After the first move both trees span and keep spanning
+    BridgeItWorld world2 = new BridgeItWorld(7);
+    solver = new ShannonSolver(world2.board, BridgeItBoard.PINK);
+    int move = solver.reply();
+    world2.play(world2.board.row(move), world2.board.col(move));
+    solver.sync();
+    t.checkExpect(solver.deficiency(), 0);
+    t.checkExpect(this.forestsAreValid(solver), true);
+  }
+
+  void testCutIsAnswered(Tester t) {
+    BridgeItWorld world = new BridgeItWorld(9);
+    ShannonSolver solver = new ShannonSolver(world.board, BridgeItBoard.PINK);
+    int move = solver.reply();
+    world.play(world.board.row(move), world.board.col(move));
+    solver.sync();
+
+    // Player two takes an edge out of the first tree, after the reply both trees span
+    int cut = -1;
+    for (int e = 0; e < solver.edgeCount && cut == -1; e++) {
+      if (solver.forest[e] == 1) {
+        cut = solver.edgeCell[e];
+      }
+    }
+    t.checkExpect(world.play(world.board.row(cut), world.board.col(cut)), true);
+    move = solver.reply();
+    t.checkExpect(world.board.cells[move], BridgeItBoard.WHITE);
+    world.play(world.board.row(move), world.board.col(move));
+    solver.sync();
+    t.checkExpect(solver.deficiency(), 0);
+    t.checkExpect(this.forestsAreValid(solver), true);
+  }
+
+  // Plays games with the solver as player one and returns how many it won
+  int solverWins(int size, int games, IBridgeItPlayer opponent, ShannonPlayer solver) {
+    BridgeItSelfPlay selfPlay = new BridgeItSelfPlay(size, () -> solver, () -> opponent);
+    int wins = 0;
+    for (int i = 0; i < games; i++) {
+      if (selfPlay.playGame(solver, opponent).p1turn) {
+        wins++;
+      }
+    }
+    return wins;
+  }
+
+  void testPerfectPlay(Tester t) {
+    // Player one can always win, so the solver should win every game and never need
+    // its fallback
+    for (int size = 3; size <= 11; size += 2) {
+      ShannonPlayer solver = new ShannonPlayer(new RandomPlayer(new SplittableRandom(12)));
+      t.checkExpect(this.solverWins(size, 50, new RandomPlayer(new SplittableRandom(size)),
+          solver), 50);
+      t.checkExpect(this.solverWins(size, 20, new GreedyPlayer(new SplittableRandom(size)),
+          solver), 20);
+      t.checkExpect(solver.fallbacks, 0);
+    }
+  }
+
+  void testOracleAgainstMcts(Tester t) {
+    // Used as a reference, the solver beats the search player from the first move
+    ShannonPlayer solver = new ShannonPlayer(new RandomPlayer(new SplittableRandom(13)));
+    MctsPlayer mcts = new MctsPlayer(1000, 3000, 1, new SplittableRandom(14));
+    t.checkExpect(this.solverWins(7, 5, mcts, solver), 5);
+    t.checkExpect(solver.fallbacks, 0);
+  }
+
+  void testUndoneMovesRebuild(Tester t) {
+    BridgeItWorld world = new BridgeItWorld(5);
+    ShannonSolver solver = new ShannonSolver(world.board, BridgeItBoard.PINK);
+    int move = solver.reply();
+    world.board.cells[move] = BridgeItBoard.PINK;
+    solver.sync();
+    t.checkExpect(solver.deficiency(), 0);
+
+    // Putting the cell back to white builds the trees again from the board
+    world.board.cells[move] = BridgeItBoard.WHITE;
+    solver.sync();
+    t.checkExpect(solver.deficiency(), 1);
+    t.checkExpect(solver.reply(), move);
+  }
+
+  void testHint(Tester t) {
+    BridgeItWorld world = new BridgeItWorld(3);
+    t.checkExpect(world.hint, -1);
+    world.onKeyEvent("h");
+    t.checkExpect(world.hint, world.board.index(1, 1));
+    world.onMouseClicked(new Posn(0, 0));
+    t.checkExpect(world.hint, -1);
+  }
+
+  void testOutcome(Tester t) {
+    // Whoever moves first on an empty board is certain to win
+    BridgeItWorld world = new BridgeItWorld(7);
+    BridgeItOutcome outcome = new BridgeItOutcome(world.board);
+    t.checkExpect(outcome.winner(BridgeItBoard.PINK), BridgeItBoard.PINK);
+    t.checkExpect(outcome.status(BridgeItBoard.MAGENTA, BridgeItBoard.PINK),
+        BridgeItOutcome.LOST);
+    t.checkExpect(outcome.status(BridgeItBoard.MAGENTA, BridgeItBoard.MAGENTA),
+        BridgeItOutcome.WON);
+
+    // Wasting the first move hands the win to the other player
+    world.play(0, 0);
+    t.checkExpect(outcome.winner(BridgeItBoard.MAGENTA), BridgeItBoard.MAGENTA);
+    world.play(1, 1);
+    t.checkExpect(outcome.status(BridgeItBoard.PINK, BridgeItBoard.PINK),
+        BridgeItOutcome.LOST);
+
+    // A bridge is a win whoever is to move
+    BridgeItWorld small = new BridgeItWorld(3);
+    small.play(1, 1);
+    t.checkExpect(new BridgeItOutcome(small.board).status(BridgeItBoard.PINK,
+        BridgeItBoard.MAGENTA), BridgeItOutcome.WON);
+  }
+
+  void testDecidedGamesStayDecided(Tester t) {
+    // Random games are stopped once they are decided, then the player who is certain
+    // to win plays on with the solver and should always get their bridge
+    int decided = 0;
+    int open = 0;
+    for (int seed = 0; seed < 40; seed++) {
+      BridgeItWorld world = new BridgeItWorld(9);
+      BridgeItOutcome outcome = new BridgeItOutcome(world.board);
+      RandomPlayer random = new RandomPlayer(new SplittableRandom(seed));
+      byte winner = BridgeItBoard.WHITE;
+      // The first player is certain to win before anyone moves, so start after that
+      while (!world.gameOver && (winner == BridgeItBoard.WHITE || world.moveCount < 2)) {
+        int move = random.chooseMove(world.board, BridgeItSelfPlay.toMove(world));
+        world.play(world.board.row(move), world.board.col(move));
+        winner = outcome.winner(BridgeItSelfPlay.toMove(world));
+        if (winner == BridgeItBoard.WHITE) {
+          open++;
+        }
+      }
+      if (!world.gameOver) {
+        decided++;
+        ShannonPlayer solver = new ShannonPlayer(random);
+        while (!world.gameOver) {
+          byte color = BridgeItSelfPlay.toMove(world);
+          int move = color == winner ? solver.chooseMove(world.board, color)
+              : random.chooseMove(world.board, color);
+          world.play(world.board.row(move), world.board.col(move));
+        }
+        t.checkExpect(BridgeItSelfPlay.toMove(world), winner);
+        t.checkExpect(solver.fallbacks, 0);
+      }
+    }
+    t.checkExpect(decided > 20, true);
+    t.checkExpect(open > 0, true);
+  }
+}
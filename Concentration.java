@@ -1,31 +1,112 @@
 import tester.Tester;
-import java.util.ArrayList;
 import java.util.Arrays;
 import javalib.worldimages.*;
 import javalib.impworld.*;
 import java.awt.Color;
-import java.util.Collections;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
 
-// Represents a card in the Concentration game
+// Represents a card in the Concentration game. The suit and value are packed into one
+// small int, code = value * 4 + suit, with the suits ordered so the two red ones come
+// first. That makes bit 1 of the code the color, and code >> 1 the value and color
+// together, which is exactly what has to be the same for two cards to match. The
+// strings shown to the player all come from the shared tables below, so a card is
+// just its code and whether it is face up.
 class Card {
-  String suit; // The suit of the card
-  String value; // The value of the card
+  static final String[] SUITS = { "♥", "♦", "♠", "♣" };
+  static final String[] VALUES = { "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11",
+      "12", "13" };
+  static final int DECK_SIZE = SUITS.length * VALUES.length;
+  static final String[] LABELS = labels(); // value then suit, indexed by code
+
+  // Every face down card looks the same and every face up one looks like one of 52
+  // faces, so the images are put together once and shared by all the cards
+  static final WorldImage BACK = back();
+  static final WorldImage[] FACES = faces();
+
+  byte code; // The value and suit of the card
   boolean isFaceUp; // Indicates whether the card is face-up
 
   Card(String s, String v) {
-    this.suit = s;
-    this.value = v;
+    this(code(s, v));
+  }
+
+  // Makes the card with the given code
+  Card(int code) {
+    if (code < 0 || code >= DECK_SIZE) {
+      throw new IllegalArgumentException("Card code must be between 0 and 51");
+    }
+    this.code = (byte) code;
     this.isFaceUp = false; // Default to face-down
   }
 
+  // Works out the code for a suit and value, which have to be ones from the tables
+  static int code(String suit, String value) {
+    int s = Arrays.asList(SUITS).indexOf(suit);
+    int v = Arrays.asList(VALUES).indexOf(value);
+    if (s == -1 || v == -1) {
+      throw new IllegalArgumentException("Not a card: " + value + suit);
+    }
+    return v * SUITS.length + s;
+  }
+
+  // The text for every card face, made once so drawing never builds strings
+  static String[] labels() {
+    String[] labels = new String[DECK_SIZE];
+    for (int code = 0; code < DECK_SIZE; code++) {
+      labels[code] = VALUES[code / SUITS.length] + SUITS[code % SUITS.length];
+    }
+    return labels;
+  }
+
+  // The back of a card, a white outline around a red card with five white spots
+  static WorldImage back() {
+    WorldImage back = new OverlayOffsetImage(
+        new RectangleImage(37, 49, OutlineMode.SOLID, Color.RED), -1, -1,
+        new RectangleImage(38, 50, OutlineMode.OUTLINE, Color.WHITE));
+    WorldImage spot = new CircleImage(3, OutlineMode.SOLID, Color.WHITE);
+    back = new OverlayImage(spot, back);
+    int[][] offsets = { { 10, 15 }, { 10, -15 }, { -10, 15 }, { -10, -15 } };
+    for (int[] offset : offsets) {
+      back = new OverlayOffsetImage(spot, -offset[0], -offset[1], back);
+    }
+    return back;
+  }
+
+  // The face of every card, its value and suit in the suits color on the play mat
+  // inside a white outline. The mat color fills the card so a face drawn over a back
+  // covers it completely.
+  static WorldImage[] faces() {
+    WorldImage blank = new OverlayImage(
+        new RectangleImage(38, 50, OutlineMode.OUTLINE, Color.WHITE),
+        new RectangleImage(38, 50, OutlineMode.SOLID, ConcentrationWorld.MAT_COLOR));
+    WorldImage[] faces = new WorldImage[DECK_SIZE];
+    for (int code = 0; code < DECK_SIZE; code++) {
+      // Default text color is black so red cards have to change it
+      Color textColor = (code & 2) == 0 ? Color.RED : Color.BLACK;
+      faces[code] = new OverlayImage(new TextImage(LABELS[code], 20, textColor), blank);
+    }
+    return faces;
+  }
+
+  // The image for the card as it is lying right now
+  WorldImage sprite() {
+    if (this.isFaceUp) {
+      return FACES[this.code];
+    }
+    else {
+      return BACK;
+    }
+  }
+
   // Gets the card value
   public String getValue() {
-    return this.value;
+    return VALUES[this.code / SUITS.length];
   }
 
   // Gets the card suit
   public String getSuit() {
-    return this.suit;
+    return SUITS[this.code % SUITS.length];
   }
 
   // Checks if the card is face-up
@@ -41,7 +122,7 @@ class Card {
   // Converts a cards value and suit to a text representation
   public String toString() {
     if (isFaceUp) {
-      return this.value + this.suit;
+      return LABELS[this.code];
     }
     else {
       return "Face Down";
@@ -50,150 +131,635 @@ class Card {
 
   // Checks if this card matches another card based on value and color
   public boolean isMatch(Card other) {
-    boolean valuesMatch = this.value.equals(other.getValue());
-    boolean suitsMatch = (this.isRedSuit() && other.isRedSuit())
-        || (this.isBlackSuit() && other.isBlackSuit());
-    return valuesMatch && suitsMatch;
+    return (this.code >> 1) == (other.code >> 1);
+  }
+
+  // The code of the only other card in the deck this card matches, the same value in
+  // the other suit of the same color
+  int partnerCode() {
+    return this.code ^ 1;
   }
 
   // Check if the suit is red
   public boolean isRedSuit() {
-    return this.suit.equals("♥") || this.suit.equals("♦");
+    return (this.code & 2) == 0;
   }
 
   // Check if the suit is black
   public boolean isBlackSuit() {
-    return this.suit.equals("♠") || this.suit.equals("♣");
+    return (this.code & 2) != 0;
+  }
+}
+
+// The order of one or more decks shuffled together as their card codes, kept in a
+// plain array so shuffling it again doesn't allocate anything. Boards are dealt by
+// giving each card already on the board its new code, so a reset reuses the same Card
+// objects too.
+class ConcentrationDeck {
+  byte[] codes; // The code of each card, top of the deck first
+
+  ConcentrationDeck() {
+    this(1);
+  }
+
+  // Makes a deck out of the given number of whole decks
+  ConcentrationDeck(int decks) {
+    if (decks < 1) {
+      throw new IllegalArgumentException("Decks must be positive");
+    }
+    this.codes = new byte[decks * Card.DECK_SIZE];
+    reset(this.codes);
+  }
+
+  // Puts the codes back in new deck order, one deck after another
+  static void reset(byte[] codes) {
+    for (int i = 0; i < codes.length; i++) {
+      codes[i] = (byte) (i % Card.DECK_SIZE);
+    }
+  }
+
+  // Shuffles the codes in place. They are put in order first so the shuffle only
+  // depends on the random, and then it is a Fisher-Yates shuffle: each place from the
+  // bottom up swaps with a random place at or above it.
+  static void shuffle(byte[] codes, SplittableRandom random) {
+    reset(codes);
+    for (int i = codes.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      byte swap = codes[i];
+      codes[i] = codes[j];
+      codes[j] = swap;
+    }
+  }
+
+  // Shuffles this deck
+  void shuffle(SplittableRandom random) {
+    shuffle(this.codes, random);
+  }
+
+  // Lays the codes out over the cards on a board, all face down
+  static void dealInto(byte[] codes, Card[] cards) {
+    for (int i = 0; i < codes.length; i++) {
+      cards[i].code = codes[i];
+      cards[i].isFaceUp = false;
+    }
+  }
+
+  // Deals this deck onto a new board
+  Card[] deal() {
+    Card[] cards = new Card[this.codes.length];
+    for (int i = 0; i < cards.length; i++) {
+      cards[i] = new Card(this.codes[i]);
+    }
+    return cards;
+  }
+}
+
+// Shuffles decks ahead of time on a thread of its own, so taking a deal is just taking
+// it off a queue. The deals come out in the order they were shuffled in, so a pool
+// made with a seed always hands out the same deals. Arrays handed back with recycle
+// are shuffled again instead of making new ones.
+class DealPool implements AutoCloseable {
+  ArrayBlockingQueue<byte[]> ready; // Shuffled deals waiting to be taken
+  ArrayBlockingQueue<byte[]> spare; // Arrays that can be shuffled again
+  SplittableRandom random; // Only ever used by the filler thread
+  int decks; // How many decks are shuffled together for each deal
+  Thread filler; // Keeps ready full
+
+  DealPool(int size, long seed) {
+    this(size, 1, seed);
+  }
+
+  // Deals for boards of more than one deck
+  DealPool(int size, int decks, long seed) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Pool size must be positive");
+    }
+    if (decks < 1) {
+      throw new IllegalArgumentException("Decks must be positive");
+    }
+    this.decks = decks;
+    this.ready = new ArrayBlockingQueue<byte[]>(size);
+    this.spare = new ArrayBlockingQueue<byte[]>(size + 1);
+    this.random = new SplittableRandom(seed);
+    this.filler = new Thread(this::fill, "deal-pool");
+    this.filler.setDaemon(true);
+    this.filler.start();
+  }
+
+  // Shuffles deals until the pool is closed, waiting whenever ready is full
+  void fill() {
+    try {
+      while (true) {
+        byte[] codes = this.spare.poll();
+        if (codes == null) {
+          codes = new byte[this.decks * Card.DECK_SIZE];
+        }
+        ConcentrationDeck.shuffle(codes, this.random);
+        this.ready.put(codes);
+      }
+    }
+    catch (InterruptedException e) {
+      // Closed, the thread just stops
+    }
+  }
+
+  // The next deal, waiting for it only if the filler has fallen behind
+  byte[] take() {
+    try {
+      return this.ready.take();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for a deal", e);
+    }
+  }
+
+  // Gives back a deal that has been dealt so its array can be used again
+  void recycle(byte[] codes) {
+    this.spare.offer(codes);
+  }
+
+  // Stops the filler thread
+  public void close() {
+    this.filler.interrupt();
+  }
+}
+
+// Keeps track of where the unmatched cards of each kind are, a kind being a value in a
+// color, so finding a card's partner or a pair that has been seen doesn't mean looking
+// through the whole board. Every kind has the same number of cards, two for each
+// deck, so each gets a fixed run of slots holding the indexes of its cards: the ones
+// that have been seen, then the ones that haven't, then the ones that are matched.
+// Seeing or matching a card just swaps it into the next part of its run. The kinds
+// with at least two cards seen are kept in a list too, so a sure match can be found
+// straight away. Resetting refills the same arrays, so the index lasts between games.
+class ConcentrationIndex {
+  static final int KINDS = Card.DECK_SIZE / 2;
+
+  Card[] cards; // The board being indexed
+  int perKind; // Cards of each kind on the board
+  int[] slots; // Card indexes, a run of perKind for each kind
+  int[] at; // Where each card is in slots
+  int[] seen; // How many cards of each kind have been seen and not matched
+  int[] left; // How many cards of each kind aren't matched
+  int[] known; // The kinds with two or more cards seen, the first knownCount of them
+  int[] knownAt; // Where each kind is in known, or -1 if it isn't
+  int knownCount;
+  int pairsLeft;
+
+  ConcentrationIndex(Card[] cards) {
+    if (cards.length == 0 || cards.length % Card.DECK_SIZE != 0) {
+      throw new IllegalArgumentException("Boards must be made of whole decks");
+    }
+    this.cards = cards;
+    this.perKind = cards.length / KINDS;
+    this.slots = new int[cards.length];
+    this.at = new int[cards.length];
+    this.seen = new int[KINDS];
+    this.left = new int[KINDS];
+    this.known = new int[KINDS];
+    this.knownAt = new int[KINDS];
+    Arrays.fill(this.knownAt, -1);
+    this.reset();
+  }
+
+  // Indexes the cards as they are now, none of them seen or matched
+  void reset() {
+    Arrays.fill(this.left, 0);
+    Arrays.fill(this.seen, 0);
+    for (int i = 0; i < this.cards.length; i++) {
+      int kind = this.cards[i].code >> 1;
+      if (this.left[kind] == this.perKind) {
+        throw new IllegalArgumentException("Boards need the same number of every card");
+      }
+      this.put(i, kind * this.perKind + this.left[kind]);
+      this.left[kind]++;
+    }
+    for (int i = 0; i < this.knownCount; i++) {
+      this.knownAt[this.known[i]] = -1;
+    }
+    this.knownCount = 0;
+    this.pairsLeft = this.cards.length / 2;
+  }
+
+  // Puts a card index in a slot
+  void put(int index, int slot) {
+    this.slots[slot] = index;
+    this.at[index] = slot;
+  }
+
+  // Swaps the cards in two slots
+  void swap(int a, int b) {
+    int first = this.slots[a];
+    this.put(this.slots[b], a);
+    this.put(first, b);
+  }
+
+  // The kind of a card when it was indexed
+  int kind(int index) {
+    return this.at[index] / this.perKind;
+  }
+
+  // Whether a card has been seen, and not matched
+  boolean isSeen(int index) {
+    int kind = this.kind(index);
+    return this.at[index] < kind * this.perKind + this.seen[kind];
+  }
+
+  // Whether a card has been matched
+  boolean isMatched(int index) {
+    int kind = this.kind(index);
+    return this.at[index] >= kind * this.perKind + this.left[kind];
+  }
+
+  // Records that a card has been turned face up
+  void reveal(int index) {
+    if (this.isSeen(index) || this.isMatched(index)) {
+      return;
+    }
+    int kind = this.kind(index);
+    this.swap(this.at[index], kind * this.perKind + this.seen[kind]);
+    this.seen[kind]++;
+    if (this.seen[kind] == 2) {
+      this.knownAt[kind] = this.knownCount;
+      this.known[this.knownCount] = kind;
+      this.knownCount++;
+    }
+  }
+
+  // Records that two cards of the same kind have been matched
+  void match(int first, int second) {
+    if (this.kind(first) != this.kind(second) || first == second) {
+      throw new IllegalArgumentException("Cards " + first + " and " + second + " don't match");
+    }
+    this.remove(first);
+    this.remove(second);
+    this.pairsLeft--;
+    int kind = this.kind(first);
+    if (this.seen[kind] < 2 && this.knownAt[kind] != -1) {
+      // The last kind in the list takes its place
+      int last = this.known[this.knownCount - 1];
+      this.known[this.knownAt[kind]] = last;
+      this.knownAt[last] = this.knownAt[kind];
+      this.knownAt[kind] = -1;
+      this.knownCount--;
+    }
+  }
+
+  // Moves a card to the matched part of its kind's run
+  void remove(int index) {
+    if (this.isMatched(index)) {
+      throw new IllegalArgumentException("Card " + index + " is already matched");
+    }
+    int kind = this.kind(index);
+    int base = kind * this.perKind;
+    if (this.isSeen(index)) {
+      this.swap(this.at[index], base + this.seen[kind] - 1);
+      this.seen[kind]--;
+    }
+    this.swap(this.at[index], base + this.left[kind] - 1);
+    this.left[kind]--;
+  }
+
+  // An unmatched card that matches the given one, seen ones first, or -1 if it has
+  // no partner left
+  int partner(int index) {
+    int kind = this.kind(index);
+    int base = kind * this.perKind;
+    if (this.isMatched(index) || this.left[kind] < 2) {
+      return -1;
+    }
+    return this.slots[base] != index ? this.slots[base] : this.slots[base + 1];
+  }
+
+  // A seen card that matches the given one, or -1 if none has been seen
+  int knownPartner(int index) {
+    int kind = this.kind(index);
+    int base = kind * this.perKind;
+    for (int i = 0; i < Math.min(2, this.seen[kind]); i++) {
+      if (this.slots[base + i] != index) {
+        return this.slots[base + i];
+      }
+    }
+    return -1;
+  }
+
+  // Whether two seen cards are sure to match
+  boolean knownPairAvailable() {
+    return this.knownCount > 0;
+  }
+
+  // One card of a pair that has been seen, or -1 if there isn't one
+  int knownPair() {
+    if (this.knownCount == 0) {
+      return -1;
+    }
+    return this.slots[this.known[this.knownCount - 1] * this.perKind];
+  }
+
+  // How many pairs haven't been matched
+  int pairsLeft() {
+    return this.pairsLeft;
   }
 }
 
 //Represents the Concentration game world
 class ConcentrationWorld extends World {
-  ArrayList<ArrayList<Card>> board; // The grid of cards
+  Card[] cards; // The cards on the board, along each row from the top left
+  int columns; // How many cards there are in each row
+  int rows; // How many rows there are, the last one can be short
+  int viewRow; // The top row showing in the window
+  int viewColumn; // The leftmost column showing in the window
   int pairsLeft; // Number of pairs left to match
   Card firstSelected; // The first selected card
   Card secondSelected; // The second selected card
+  int firstIndex; // Where the first selected card is on the board
+  int secondIndex; // Where the second selected card is on the board
+  ConcentrationIndex index; // Where the unmatched cards of each kind are
   boolean waitingForMatch; // Indicates if the game is waiting to check a match
-  int elapsedTime; // Time elapsed since the game started
+  int elapsedTime; // Time elapsed since the game started, in thirtieths of a second
   int score; // Player's score
   int totalGuesses = 0; // Number of guesses made
   int maxSteps; // Maximum steps/guesses allowed before game over
   boolean gameWon; // Whether the game is won
   boolean gameOver; // Whether the game is over
+  WorldScene scene; // Kept from frame to frame, made again when this is null
+  boolean[] drawnFaceUp; // Which way up the card in each place in the view was drawn
+  int drawnSeconds; // The time on the scene
+  int drawnScore; // The score on the scene
+  int drawnGuesses; // The guesses on the scene
+  int drawnSteps; // The steps left on the scene
+  int drawnEnding; // NOT_OVER, WON or LOST, whichever message is on the scene
+  int placed; // Images placed on the scene since it was made
+  IGameClock clock; // Where the time comes from
+  long started; // When the game started, by the clock
+  TimerWheel timers; // Runs the match check when its time comes
+  GameTimer matchTimer; // The match check waiting to run, or null
+  SplittableRandom random; // Shuffles the deck for each new game
+  ConcentrationDeck deck; // Reused for every shuffle
+  DealPool deals; // Where new games get their deal from instead, or null
+
+  // The game keeps time in thirtieths of a second, which is how often it ticks, and a
+  // picked pair stays face up for a second before it is checked
+  static final long TICK_NANOS = 1_000_000_000L / 30;
+  static final long MATCH_DELAY = 30 * TICK_NANOS;
+
+  static final int NOT_OVER = 0;
+  static final int WON = 1;
+  static final int LOST = 2;
+  // The scene keeps every image ever placed on it, so once this many have been drawn
+  // over each other it is thrown away and drawn again from scratch
+  static final int REBUILD_AFTER = 2000;
+
+  // The window shows 4 rows of 13 cards, a whole deck, and bigger boards scroll under
+  // it. Only the cards in the view are ever looked at when drawing, so a frame costs
+  // the same however big the board is.
+  static final int VIEW_ROWS = 4;
+  static final int VIEW_COLUMNS = 13;
+
+  static final Color MAT_COLOR = new Color(1, 82, 15);
+  static final WorldImage MAT = new RectangleImage(750, 437, OutlineMode.SOLID, MAT_COLOR);
+  static final WorldImage TITLE = new TextImage("Concentration", 25, Color.BLACK);
+  // Blanks out the row of counters, or the end of game message, before it is redrawn
+  static final WorldImage STRIP = new RectangleImage(750, 40, OutlineMode.SOLID, Color.WHITE);
 
   // Default constructor: creates a shuffled board
   ConcentrationWorld() {
-    this(createBoard());
+    this(new SplittableRandom());
+  }
+
+  // Deals the first board and the board after every reset from the seed, so the same
+  // seed always gives the same games
+  ConcentrationWorld(long seed) {
+    this(new SplittableRandom(seed));
+  }
+
+  // Deals every board with the given random
+  ConcentrationWorld(SplittableRandom random) {
+    this(1, random);
+  }
+
+  // Plays with the given number of decks shuffled together, from a seed
+  ConcentrationWorld(int decks, long seed) {
+    this(decks, new SplittableRandom(seed));
+  }
+
+  // Plays with the given number of decks shuffled together, dealt with the random
+  ConcentrationWorld(int decks, SplittableRandom random) {
+    this(createBoard(decks, random));
+    this.random = random;
   }
 
   // Takes a custom board for testing
-  ConcentrationWorld(ArrayList<ArrayList<Card>> board) {
-    this.board = board;
-    this.pairsLeft = 1; // Always 26 pairs in a 52 card deck
+  ConcentrationWorld(Card[] cards) {
+    this(cards, new SystemGameClock());
+  }
+
+  // Takes the clock the game is timed by, which gets a timer wheel of its own
+  ConcentrationWorld(Card[] cards, IGameClock clock) {
+    this(cards, clock, new TimerWheel(64, TICK_NANOS, clock.nanos()));
+  }
+
+  // Shares a timer wheel with other games. Advancing the wheel runs every game's match
+  // checks, so one thread can keep lots of games going between their own ticks.
+  ConcentrationWorld(Card[] cards, IGameClock clock, TimerWheel timers) {
+    this(cards, columnsFor(cards.length), clock, timers);
+  }
+
+  // Lays the cards out in rows of the given length
+  ConcentrationWorld(Card[] cards, int columns, IGameClock clock, TimerWheel timers) {
+    if (cards.length == 0 || cards.length % Card.DECK_SIZE != 0) {
+      throw new IllegalArgumentException("Boards must be made of whole decks");
+    }
+    if (columns < 1) {
+      throw new IllegalArgumentException("Rows must have at least one card");
+    }
+    this.cards = cards;
+    this.columns = columns;
+    this.rows = (cards.length + columns - 1) / columns;
+    this.viewRow = 0;
+    this.viewColumn = 0;
+    this.pairsLeft = cards.length / 2; // 26 pairs in each 52 card deck
     this.firstSelected = null;
     this.secondSelected = null;
+    this.firstIndex = -1;
+    this.secondIndex = -1;
+    this.index = new ConcentrationIndex(cards);
     this.waitingForMatch = false;
     this.elapsedTime = 0;
-    this.score = 26; // Since 26 pairs there are 26 pairs to find
+    this.score = cards.length / 2; // There is a pair to find for each point
     this.totalGuesses = 0;
-    this.maxSteps = 100; // Allow up to 100 guesses
+    this.maxSteps = stepsAllowed(this.pairsLeft);
     this.gameWon = false;
     this.gameOver = false;
+    this.scene = null;
+    this.drawnFaceUp = new boolean[VIEW_ROWS * VIEW_COLUMNS];
+    this.clock = clock;
+    this.started = clock.nanos();
+    this.timers = timers;
+    this.matchTimer = null;
+    this.random = new SplittableRandom();
+    this.deck = new ConcentrationDeck(cards.length / Card.DECK_SIZE);
+    this.deals = null;
+  }
+
+  // How wide to make a board with this many cards. One deck is a row of 13 for each
+  // suit, and more decks make the board about as many decks wide as tall.
+  static int columnsFor(int cards) {
+    int decks = Math.max(1, cards / Card.DECK_SIZE);
+    return VIEW_COLUMNS * (int) Math.ceil(Math.sqrt(decks));
+  }
+
+  // The guesses allowed for a game with this many pairs, 100 for a 26 pair deck and
+  // the same per pair for bigger boards, rounded up
+  static int stepsAllowed(int pairs) {
+    return (pairs * 50 + 12) / 13;
   }
 
   // Creates and shuffles a deck of cards, and deals them into a 4x13 grid
-  public static ArrayList<ArrayList<Card>> createBoard() {
-    ArrayList<String> values = new ArrayList<>(
-        Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13"));
-    ArrayList<String> suits = new ArrayList<>(Arrays.asList("♥", "♦", "♠", "♣"));
-    ArrayList<Card> deck = new ArrayList<>();
-
-    // Generate the deck
-    for (String suit : suits) {
-      for (String value : values) {
-        deck.add(new Card(suit, value));
-      }
-    }
-    Collections.shuffle(deck);
+  public static Card[] createBoard() {
+    return createBoard(new SplittableRandom());
+  }
 
-    // Split the shuffled deck into a 4x13 grid
-    ArrayList<ArrayList<Card>> board = new ArrayList<>();
-    for (int i = 0; i < 4; i++) {
-      ArrayList<Card> row = new ArrayList<>();
-      for (int j = 0; j < 13; j++) {
-        row.add(deck.get(i * 13 + j));
+  // Creates a board where the same seed always gives the same deal
+  static Card[] createBoard(long seed) {
+    return createBoard(new SplittableRandom(seed));
+  }
+
+  // Creates a board shuffled with the given random instead of a shared one, so threads
+  // dealing lots of games don't all wait on the same random
+  static Card[] createBoard(SplittableRandom random) {
+    return createBoard(1, random);
+  }
+
+  // Creates a board of the given number of decks shuffled together
+  static Card[] createBoard(int decks, SplittableRandom random) {
+    ConcentrationDeck deck = new ConcentrationDeck(decks);
+    deck.shuffle(random);
+    return deck.deal();
+  }
+
+  // Deals a new game onto the cards already on the board, from the deal pool if there
+  // is one and otherwise by shuffling the world's own deck
+  void dealNewBoard() {
+    if (this.deals != null) {
+      byte[] codes = this.deals.take();
+      if (codes.length != this.cards.length) {
+        throw new IllegalStateException("Deal pool is for a different size of board");
       }
-      board.add(row);
+      ConcentrationDeck.dealInto(codes, this.cards);
+      this.deals.recycle(codes);
+    }
+    else {
+      this.deck.shuffle(this.random);
+      ConcentrationDeck.dealInto(this.deck.codes, this.cards);
     }
-    return board;
   }
 
-  // Renders the game
+  // Renders the game. The scene is kept between frames and only the cards in the view
+  // that were flipped and the counters that changed since the last frame are drawn
+  // over it. Scrolling draws the whole view again.
   public WorldScene makeScene() {
-    WorldScene scene = new WorldScene(750, 500);
-
-    // Draws green background (i.e. a play mat)
-    scene.placeImageXY(new RectangleImage(750, 437, OutlineMode.SOLID, new Color(1, 82, 15)), 375,
-        125);
-    // Draws the game name
-    scene.placeImageXY(new TextImage("Concentration", 25, Color.BLACK), 350, 321);
-
-    // Draw each card on the board
-    for (int row = 0; row < 4; row++) {
-      for (int col = 0; col < 13; col++) {
-        Card card = this.board.get(row).get(col);
-        int x = 50 + (col * 50);
-        int y = 50 + (row * 75);
-
-        // Creates an outline for all cards
-        RectangleImage cardOutline = new RectangleImage(38, 50, OutlineMode.OUTLINE, Color.WHITE);
-        scene.placeImageXY(cardOutline, x, y);
-
-        if (card.isFaceUp()) {
-          // Draw the card's value and suit if face-up. Default text color is black so we
-          // must have an if statement for red cards to change the color of the text.
-          Color textColor = Color.BLACK;
-          if (card.getSuit().equals("♥") || card.getSuit().equals("♦")) {
-            textColor = Color.RED;
-          }
-          scene.placeImageXY(new TextImage(card.toString(), 20, textColor), x, y);
+    FrameEvent event = new FrameEvent();
+    event.begin();
+    long start = GameMetrics.start();
+    boolean rebuilt = this.scene == null || this.placed > REBUILD_AFTER;
+    if (rebuilt) {
+      this.scene = new WorldScene(750, 500);
+      this.placed = 0;
+      // Draws green background (i.e. a play mat)
+      this.place(MAT, 375, 125);
+      // Draws the game name
+      this.place(TITLE, 350, 321);
+      // Shows where the view is on boards bigger than it
+      if (this.rows > VIEW_ROWS || this.columns > VIEW_COLUMNS) {
+        this.place(new TextImage("Row " + (this.viewRow + 1) + "/" + this.rows + ", Column "
+            + (this.viewColumn + 1) + "/" + this.columns, 15, Color.BLACK), 615, 321);
+      }
+    }
+
+    // Draw each card in the view that was flipped since it was last drawn
+    int drawn = 0;
+    for (int row = 0; row < VIEW_ROWS; row++) {
+      for (int col = 0; col < VIEW_COLUMNS; col++) {
+        int index = this.indexAt(this.viewRow + row, this.viewColumn + col);
+        int slot = row * VIEW_COLUMNS + col;
+        if (index == -1) {
+          continue;
         }
-        else {
-          // Draw the back of the card if face-down
-          scene.placeImageXY(new RectangleImage(37, 49, OutlineMode.SOLID, Color.RED), x + 1,
-              y + 1);
-          scene.placeImageXY(new CircleImage(3, OutlineMode.SOLID, Color.WHITE), x, y);
-          scene.placeImageXY(new CircleImage(3, OutlineMode.SOLID, Color.WHITE), x + 10, y + 15);
-          scene.placeImageXY(new CircleImage(3, OutlineMode.SOLID, Color.WHITE), x + 10, y - 15);
-          scene.placeImageXY(new CircleImage(3, OutlineMode.SOLID, Color.WHITE), x - 10, y + 15);
-          scene.placeImageXY(new CircleImage(3, OutlineMode.SOLID, Color.WHITE), x - 10, y - 15);
+        Card card = this.cards[index];
+        if (rebuilt || card.isFaceUp() != this.drawnFaceUp[slot]) {
+          this.place(card.sprite(), 50 + (col * 50), 50 + (row * 75));
+          this.drawnFaceUp[slot] = card.isFaceUp();
+          drawn++;
         }
       }
     }
 
     int secondsElapsed = (int) (this.elapsedTime / 30);
-    int guessesMade = this.totalGuesses;
-
-    // Displays the time elapsed
-    scene.placeImageXY(new TextImage("Time: " + secondsElapsed + "s", 25, Color.RED), 638, 475);
-    // Displays the score
-    scene.placeImageXY(new TextImage("Score: " + score, 25, Color.BLUE), 475, 475);
-    // Displays the amount of guesses the player has made
-    scene.placeImageXY(new TextImage("Guesses: " + totalGuesses, 25, Color.BLACK), 300, 475);
-    // Displays the amount of steps/guesses the player has left before a game over
-    scene.placeImageXY(new TextImage("Steps Left: " + maxSteps, 25, Color.MAGENTA), 100, 475);
-    // Displays text if the game is won showing the amount of guesses and time it
-    // took to win
-    if (gameWon) {
-      scene.placeImageXY(new TextImage(
-          "You win! Final Score: " + guessesMade + " guesses in " + secondsElapsed + " seconds!",
-          25, Color.GREEN), 350, 375);
-    }
-    // Displays text if the game is lost/over
-    else if (gameOver) {
-      scene.placeImageXY(new TextImage("Game Over! Steps exhausted!", 25, Color.RED), 350, 375);
-    }
-    return scene;
+    if (rebuilt || secondsElapsed != this.drawnSeconds || this.score != this.drawnScore
+        || this.totalGuesses != this.drawnGuesses || this.maxSteps != this.drawnSteps) {
+      this.place(STRIP, 375, 475);
+      // Displays the time elapsed
+      this.place(new TextImage("Time: " + secondsElapsed + "s", 25, Color.RED), 638, 475);
+      // Displays the score
+      this.place(new TextImage("Score: " + score, 25, Color.BLUE), 475, 475);
+      // Displays the amount of guesses the player has made
+      this.place(new TextImage("Guesses: " + totalGuesses, 25, Color.BLACK), 300, 475);
+      // Displays the amount of steps/guesses the player has left before a game over
+      this.place(new TextImage("Steps Left: " + maxSteps, 25, Color.MAGENTA), 100, 475);
+      this.drawnSeconds = secondsElapsed;
+      this.drawnScore = this.score;
+      this.drawnGuesses = this.totalGuesses;
+      this.drawnSteps = this.maxSteps;
+    }
+
+    int ending = gameWon ? WON : gameOver ? LOST : NOT_OVER;
+    if (rebuilt || ending != this.drawnEnding) {
+      if (!rebuilt) {
+        this.place(STRIP, 375, 375);
+      }
+      // Displays text if the game is won showing the amount of guesses and time it
+      // took to win
+      if (ending == WON) {
+        this.place(new TextImage("You win! Final Score: " + totalGuesses + " guesses in "
+            + secondsElapsed + " seconds!", 25, Color.GREEN), 350, 375);
+      }
+      // Displays text if the game is lost/over
+      else if (ending == LOST) {
+        this.place(new TextImage("Game Over! Steps exhausted!", 25, Color.RED), 350, 375);
+      }
+      this.drawnEnding = ending;
+    }
+    GameMetrics.CONCENTRATION_FRAMES.recordSince(start);
+    event.report("Concentration", drawn, rebuilt);
+    return this.scene;
+  }
+
+  // Places an image on the kept scene, counting it
+  void place(WorldImage image, int x, int y) {
+    this.scene.placeImageXY(image, x, y);
+    this.placed++;
+  }
+
+  // The index of the card at a row and column of the board, or -1 if there isn't one
+  int indexAt(int row, int col) {
+    if (row < 0 || col < 0 || col >= this.columns) {
+      return -1;
+    }
+    int index = row * this.columns + col;
+    return index < this.cards.length ? index : -1;
+  }
+
+  // Moves the view by some rows and columns, stopping at the edges of the board
+  void scroll(int rows, int cols) {
+    int row = Math.max(0, Math.min(this.viewRow + rows, this.rows - VIEW_ROWS));
+    int col = Math.max(0, Math.min(this.viewColumn + cols, this.columns - VIEW_COLUMNS));
+    if (row != this.viewRow || col != this.viewColumn) {
+      this.viewRow = row;
+      this.viewColumn = col;
+      this.scene = null;
+    }
   }
 
   // Handles mouse clicks to flip cards and process selections
@@ -201,6 +767,10 @@ class ConcentrationWorld extends World {
     if (waitingForMatch || gameOver || gameWon) {
       return; // Ignore clicks if game is paused or ended
     }
+    MoveEvent event = new MoveEvent();
+    event.begin();
+    long start = GameMetrics.start();
+    boolean flipped = false;
 
     // Dimensions and spacing for cards used for calculations
     int cardWidth = 38;
@@ -210,101 +780,216 @@ class ConcentrationWorld extends World {
     int colSpacing = 50;
     int rowSpacing = 75;
 
-    // Calculate the row and column of the clicked position
-    int col = (pos.x - xOffset + (colSpacing / 2)) / colSpacing;
-    int row = (pos.y - yOffset + (rowSpacing / 2)) / rowSpacing;
-
-    // Check if the click is within bounds
-    if (row >= 0 && row < 4 && col >= 0 && col < 13) {
-      Card clickedCard = this.board.get(row).get(col);
+    // Calculate the row and column of the clicked position in the view
+    int col = Math.floorDiv(pos.x - xOffset + (colSpacing / 2), colSpacing);
+    int row = Math.floorDiv(pos.y - yOffset + (rowSpacing / 2), rowSpacing);
 
+    // Check if the click is within the view
+    if (row >= 0 && row < VIEW_ROWS && col >= 0 && col < VIEW_COLUMNS) {
       // Verify the click is within the card's dimensions
       int cardX = xOffset + col * colSpacing;
       int cardY = yOffset + row * rowSpacing;
 
       if (Math.abs(pos.x - cardX) <= cardWidth / 2 && Math.abs(pos.y - cardY) <= cardHeight / 2) {
-        // Flip the card if it's face-down
-        if (!clickedCard.isFaceUp()) {
-          clickedCard.flip();
-          if (firstSelected == null) {
-            firstSelected = clickedCard; // Set as the first card
-          }
-          else if (secondSelected == null) {
-            secondSelected = clickedCard; // Set as the second card
-            waitingForMatch = true; // Wait to process match
-          }
+        // The card there is wherever the view has been scrolled to
+        int index = this.indexAt(this.viewRow + row, this.viewColumn + col);
+        flipped = index != -1 && this.pick(index);
+        if (flipped && this.waitingForMatch) {
+          this.waitForMatch(); // Wait to process match
         }
       }
     }
+    GameMetrics.CONCENTRATION_MOVES.recordSince(start);
+    event.report("Concentration", this.viewRow + row, this.viewColumn + col, flipped, false);
+  }
+
+  // The card at an index, counting along each row from the top left
+  Card card(int index) {
+    return this.cards[index];
   }
 
-  // Update the game on Tick
-  int flipTimer = 0; // Timer to control card flip duration
+  // Flips the card at an index as one of the pair being picked, the way a click on it
+  // does. Returns false if it can't be picked because it is face up, there is no such
+  // card, or a pair is already waiting or the game is over. Once the second card is
+  // picked the pair is waiting to be checked by checkMatch.
+  boolean pick(int index) {
+    if (waitingForMatch || gameOver || gameWon || index < 0 || index >= this.cards.length) {
+      return false;
+    }
+    Card card = this.card(index);
+    // Flip the card if it's face-down
+    if (card.isFaceUp()) {
+      return false;
+    }
+    card.flip();
+    this.index.reveal(index);
+    if (firstSelected == null) {
+      firstSelected = card; // Set as the first card
+      firstIndex = index;
+    }
+    else {
+      secondSelected = card; // Set as the second card
+      secondIndex = index;
+      waitingForMatch = true;
+    }
+    return true;
+  }
+
+  // A card to pick next that is sure to match, going by every card turned over so far:
+  // a seen partner of the first card picked, or one of a pair that has both been seen.
+  // Returns -1 if nothing seen is sure to match or a card can't be picked right now.
+  int hint() {
+    if (waitingForMatch || gameOver || gameWon) {
+      return -1;
+    }
+    else if (firstSelected != null) {
+      return this.index.knownPartner(firstIndex);
+    }
+    else {
+      return this.index.knownPair();
+    }
+  }
+
+  // Matches every pair that has both been seen, straight away instead of a second
+  // after each, and returns how many it matched. Each one still counts as a guess.
+  int autoSolve() {
+    int matched = 0;
+    while (firstSelected == null && this.index.knownPairAvailable() && !gameOver && !gameWon) {
+      int first = this.index.knownPair();
+      this.pick(first);
+      this.pick(this.index.knownPartner(first));
+      this.checkMatch();
+      matched++;
+    }
+    return matched;
+  }
+
+  // Shows the picked pair for a second, then checks it
+  void waitForMatch() {
+    this.matchTimer = this.timers.schedule(this.clock.nanos() + MATCH_DELAY,
+        this::checkMatch);
+  }
 
+  // Update the game on Tick. The time is read off the clock instead of counting ticks,
+  // so slow frames don't make the game clock fall behind, and the match check is a
+  // timer so nothing is counted down while no pair is waiting.
   public void onTick() {
     // Stops the game if game is won or lost
     if (this.gameWon || this.gameOver) {
       return;
     }
 
-    // Increases the time on every tick
-    this.elapsedTime++;
-
-    // Handles checking of the first and second selected cards, updating game state,
-    // and setting values such as score, guesses, ect.
-    if (waitingForMatch) {
-      flipTimer++;
-      if (flipTimer >= 30) {
-        if (firstSelected.isMatch(secondSelected)) {
-          pairsLeft--;
-          score = Math.max(0, score - 1);
-          totalGuesses++;
-          maxSteps = Math.max(0, maxSteps - 1);
-
-          firstSelected = null;
-          secondSelected = null;
-          waitingForMatch = false;
-
-          if (pairsLeft == 0) {
-            this.gameWon = true;
-          }
-          if (maxSteps == 0) {
-            this.gameOver = true;
-          }
-        }
-        else {
-          totalGuesses++;
-          maxSteps = Math.max(0, maxSteps - 1);
+    long now = this.clock.nanos();
+    this.elapsedTime = (int) ((now - this.started) / TICK_NANOS);
+    this.timers.advance(now);
+  }
 
-          firstSelected.flip();
-          secondSelected.flip();
+  // Handles checking of the first and second selected cards, updating game state,
+  // and setting values such as score, guesses, ect.
+  void checkMatch() {
+    this.matchTimer = null;
+    if (!waitingForMatch) {
+      return;
+    }
+    WinCheckEvent event = new WinCheckEvent();
+    event.begin();
+    long start = GameMetrics.start();
+    if (firstSelected.isMatch(secondSelected)) {
+      this.index.match(firstIndex, secondIndex);
+      pairsLeft--;
+      score = Math.max(0, score - 1);
+      totalGuesses++;
+      maxSteps = Math.max(0, maxSteps - 1);
 
-          firstSelected = null;
-          secondSelected = null;
-          waitingForMatch = false;
+      firstSelected = null;
+      secondSelected = null;
+      firstIndex = -1;
+      secondIndex = -1;
+      waitingForMatch = false;
 
-          if (maxSteps == 0) {
-            this.gameOver = true;
-          }
-        }
-        flipTimer = 0; // Reset the timer
+      if (pairsLeft == 0) {
+        this.gameWon = true;
+      }
+      if (maxSteps == 0) {
+        this.gameOver = true;
       }
     }
+    else {
+      totalGuesses++;
+      maxSteps = Math.max(0, maxSteps - 1);
+
+      firstSelected.flip();
+      secondSelected.flip();
+
+      firstSelected = null;
+      secondSelected = null;
+      firstIndex = -1;
+      secondIndex = -1;
+      waitingForMatch = false;
+
+      if (maxSteps == 0) {
+        this.gameOver = true;
+      }
+    }
+    GameMetrics.CONCENTRATION_WIN_CHECKS.recordSince(start);
+    // Checking a pair only ever looks at the two cards that were picked
+    event.report("Concentration", 2, 2, this.gameWon);
   }
 
-  // Resets the game to its default values with a new shuffled deck
+  // Resets the game to its default values with a new shuffled deck. "m" and "d" switch
+  // latency recording on and off and print it, the arrow keys scroll big boards and
+  // "h" picks the card hint suggests.
   public void onKeyEvent(String key) {
-    if (key.equals("r")) {
-      this.board = createBoard();
-      this.pairsLeft = 26;
-      this.firstSelected = null;
-      this.secondSelected = null;
-      this.waitingForMatch = false;
-      this.score = 26;
-      this.totalGuesses = 0;
-      this.maxSteps = 100;
-      this.gameWon = false;
-      this.gameOver = false;
+    if (GameMetrics.onKey(key)) {
+      return;
+    }
+    else if (key.equals("r")) {
+      this.newGame();
+    }
+    else if (key.equals("h")) {
+      if (this.pick(this.hint()) && this.waitingForMatch) {
+        this.waitForMatch();
+      }
+    }
+    else if (key.equals("up")) {
+      this.scroll(-1, 0);
+    }
+    else if (key.equals("down")) {
+      this.scroll(1, 0);
+    }
+    else if (key.equals("left")) {
+      this.scroll(0, -1);
+    }
+    else if (key.equals("right")) {
+      this.scroll(0, 1);
+    }
+  }
+
+  // Starts again with a new shuffled deck
+  void newGame() {
+    this.dealNewBoard();
+    // The index keeps its arrays and just takes in the new deal
+    this.index.reset();
+    this.pairsLeft = this.cards.length / 2;
+    this.firstSelected = null;
+    this.secondSelected = null;
+    this.firstIndex = -1;
+    this.secondIndex = -1;
+    this.waitingForMatch = false;
+    this.score = this.cards.length / 2;
+    this.totalGuesses = 0;
+    this.maxSteps = stepsAllowed(this.pairsLeft);
+    this.viewRow = 0;
+    this.viewColumn = 0;
+    this.gameWon = false;
+    this.gameOver = false;
+    // The new game's time starts from now, not from when the world was made
+    this.started = this.clock.nanos();
+    this.elapsedTime = 0;
+    this.scene = null;
+    if (this.matchTimer != null) {
+      this.matchTimer.cancel();
+      this.matchTimer = null;
     }
   }
 }
@@ -312,7 +997,7 @@ class ConcentrationWorld extends World {
 // Examples for the Concentration game
 class ExamplesConcentration {
   void testConcentrationWorld(Tester t) {
-    ArrayList<ArrayList<Card>> board = ConcentrationWorld.createBoard();
+    Card[] board = ConcentrationWorld.createBoard();
     ConcentrationWorld world = new ConcentrationWorld(board);
     world.bigBang(700, 500, 0.03);
   }
@@ -360,14 +1045,47 @@ class ExamplesConcentration {
     t.checkExpect(blackCard1.isRedSuit(), false);
   }
 
+  void testCardCodes(Tester t) {
+    t.checkExpect(new Card("♥", "1").code, (byte) 0);
+    t.checkExpect(new Card("♣", "13").code, (byte) 51);
+    t.checkExpect(new Card(Card.code("♠", "10")).getSuit(), "♠");
+    t.checkExpect(new Card(Card.code("♠", "10")).getValue(), "10");
+    t.checkConstructorException(new IllegalArgumentException("Card code must be between 0 and 51"),
+        "Card", 52);
+    t.checkConstructorException(new IllegalArgumentException("Not a card: 14♥"), "Card", "♥",
+        "14");
+
+    // Matching by code agrees with matching by value and color for every pair of cards
+    boolean agrees = true;
+    for (int a = 0; a < Card.DECK_SIZE; a++) {
+      for (int b = 0; b < Card.DECK_SIZE; b++) {
+        Card first = new Card(a);
+        Card second = new Card(b);
+        boolean sameColor = first.isRedSuit() == second.isRedSuit();
+        agrees = agrees && first.isMatch(second)
+            == (first.getValue().equals(second.getValue()) && sameColor);
+      }
+    }
+    t.checkExpect(agrees, true);
+
+    boolean partnered = true;
+    for (int code = 0; code < Card.DECK_SIZE; code++) {
+      Card card = new Card(code);
+      Card partner = new Card(card.partnerCode());
+      partnered = partnered && card.isMatch(partner) && partner.code != card.code;
+    }
+    t.checkExpect(partnered, true);
+  }
+
   void testCreateBoard(Tester t) {
-    ArrayList<ArrayList<Card>> board = ConcentrationWorld.createBoard();
-    t.checkExpect(board.size(), 4);
-    t.checkExpect(board.get(0).size(), 13);
+    Card[] board = ConcentrationWorld.createBoard();
+    t.checkExpect(board.length, 52);
+    t.checkExpect(new ConcentrationWorld(board).columns, 13);
+    t.checkExpect(new ConcentrationWorld(board).rows, 4);
   }
 
   void testGameReset(Tester t) {
-    ArrayList<ArrayList<Card>> board = ConcentrationWorld.createBoard();
+    Card[] board = ConcentrationWorld.createBoard();
     ConcentrationWorld world = new ConcentrationWorld(board);
     world.onKeyEvent("r");
     t.checkExpect(world.pairsLeft, 26);
@@ -380,18 +1098,524 @@ class ExamplesConcentration {
   }
 
   void testMouseClick(Tester t) {
-    ArrayList<ArrayList<Card>> board = ConcentrationWorld.createBoard();
+    Card[] board = ConcentrationWorld.createBoard();
     ConcentrationWorld world = new ConcentrationWorld(board);
-    Card card = board.get(0).get(0);
+    Card card = board[0];
     Posn pos = new Posn(50, 50);
     world.onMouseClicked(pos);
     t.checkExpect(card.isFaceUp(), true);
   }
 
+  void testRetainedScene(Tester t) {
+    Card[] board = ConcentrationWorld.createBoard();
+    ManualGameClock clock = new ManualGameClock(0);
+    ConcentrationWorld world = new ConcentrationWorld(board, clock);
+    WorldScene scene = world.makeScene();
+    // The mat, the title, 52 cards, the strip and four counters
+    t.checkExpect(world.placed, 59);
+    // A frame where nothing happened draws nothing
+    t.checkExpect(world.makeScene() == scene, true);
+    t.checkExpect(world.placed, 59);
+
+    board[15].flip();
+    world.makeScene();
+    t.checkExpect(world.placed, 60);
+    t.checkExpect(world.drawnFaceUp[15], true);
+
+    for (int i = 0; i < 29; i++) {
+      clock.advance(ConcentrationWorld.TICK_NANOS);
+      world.onTick();
+    }
+    world.makeScene();
+    t.checkExpect(world.placed, 60);
+    clock.advance(ConcentrationWorld.TICK_NANOS);
+    world.onTick();
+    world.makeScene();
+    t.checkExpect(world.placed, 65);
+    t.checkExpect(world.drawnSeconds, 1);
+
+    world.gameOver = true;
+    world.makeScene();
+    t.checkExpect(world.placed, 67);
+    t.checkExpect(world.drawnEnding, ConcentrationWorld.LOST);
+
+    world.onKeyEvent("r");
+    t.checkExpect(world.makeScene() == scene, false);
+    t.checkExpect(world.placed, 59);
+
+    world.placed = ConcentrationWorld.REBUILD_AFTER + 1;
+    world.makeScene();
+    t.checkExpect(world.placed, 59);
+  }
+
+  void testCardSprites(Tester t) {
+    Card card = new Card("♦", "12");
+    t.checkExpect(card.sprite() == Card.BACK, true);
+    card.flip();
+    t.checkExpect(card.sprite() == Card.FACES[card.code], true);
+    t.checkExpect(Card.FACES[0].equals(Card.FACES[1]), false);
+  }
+
   void testOnTick(Tester t) {
-    ArrayList<ArrayList<Card>> board = ConcentrationWorld.createBoard();
-    ConcentrationWorld world = new ConcentrationWorld(board);
+    Card[] board = ConcentrationWorld.createBoard();
+    ManualGameClock clock = new ManualGameClock(0);
+    ConcentrationWorld world = new ConcentrationWorld(board, clock);
+    clock.advance(ConcentrationWorld.TICK_NANOS);
     world.onTick();
     t.checkExpect(world.elapsedTime, 1);
   }
+
+  void testResetRestartsTime(Tester t) {
+    ManualGameClock clock = new ManualGameClock(0);
+    ConcentrationWorld world = new ConcentrationWorld(ConcentrationWorld.createBoard(), clock);
+    clock.advance(ConcentrationWorld.TICK_NANOS * 90);
+    world.onTick();
+    world.gameOver = true;
+    clock.advance(ConcentrationWorld.TICK_NANOS * 300);
+    // Neither the last game nor its game over screen count towards the new one
+    world.onKeyEvent("r");
+    t.checkExpect(world.elapsedTime, 0);
+    t.checkExpect(world.started, ConcentrationWorld.TICK_NANOS * 390);
+    clock.advance(ConcentrationWorld.TICK_NANOS * 2);
+    world.onTick();
+    t.checkExpect(world.elapsedTime, 2);
+    world.makeScene();
+    t.checkExpect(world.drawnSeconds, 0);
+  }
+
+  void testPick(Tester t) {
+    Card[] board = ConcentrationWorld.createBoard();
+    ConcentrationWorld world = new ConcentrationWorld(board);
+    t.checkExpect(world.card(14), board[14]);
+    t.checkExpect(world.pick(-1), false);
+    t.checkExpect(world.pick(52), false);
+    t.checkExpect(world.pick(14), true);
+    t.checkExpect(world.firstSelected, board[14]);
+    t.checkExpect(world.pick(14), false);
+    t.checkExpect(world.waitingForMatch, false);
+    t.checkExpect(world.pick(3), true);
+    t.checkExpect(world.secondSelected, board[3]);
+    t.checkExpect(world.waitingForMatch, true);
+    t.checkExpect(world.pick(4), false);
+    // Picking doesn't start the timer, clicking does
+    t.checkExpect(world.timers.pending(), 0);
+    world.checkMatch();
+    t.checkExpect(world.totalGuesses, 1);
+  }
+
+  // The codes of the cards on a board, along each row from the top left
+  byte[] codes(Card[] board) {
+    byte[] codes = new byte[board.length];
+    for (int i = 0; i < board.length; i++) {
+      codes[i] = board[i].code;
+    }
+    return codes;
+  }
+
+  void testSeededDeals(Tester t) {
+    t.checkExpect(codes(ConcentrationWorld.createBoard(42)),
+        codes(ConcentrationWorld.createBoard(42)));
+    t.checkExpect(Arrays.equals(codes(ConcentrationWorld.createBoard(42)),
+        codes(ConcentrationWorld.createBoard(43))), false);
+
+    ConcentrationWorld one = new ConcentrationWorld(7);
+    ConcentrationWorld two = new ConcentrationWorld(7);
+    t.checkExpect(codes(one.cards), codes(two.cards));
+    one.onKeyEvent("r");
+    two.onKeyEvent("r");
+    t.checkExpect(codes(one.cards), codes(two.cards));
+
+    // Every card is dealt once
+    boolean[] dealt = new boolean[52];
+    for (int i = 0; i < 52; i++) {
+      dealt[one.card(i).code] = true;
+    }
+    boolean all = true;
+    for (boolean card : dealt) {
+      all = all && card;
+    }
+    t.checkExpect(all, true);
+  }
+
+  void testResetReusesCards(Tester t) {
+    ConcentrationWorld world = new ConcentrationWorld(8);
+    Card corner = world.card(0);
+    byte[] before = codes(world.cards);
+    world.pick(0);
+    world.onKeyEvent("r");
+    t.checkExpect(world.card(0) == corner, true);
+    t.checkExpect(corner.isFaceUp(), false);
+    boolean moved = false;
+    for (int i = 0; i < 52; i++) {
+      moved = moved || before[i] != world.card(i).code;
+    }
+    t.checkExpect(moved, true);
+  }
+
+  void testDealPool(Tester t) {
+    try (DealPool one = new DealPool(4, 9); DealPool two = new DealPool(4, 9)) {
+      boolean same = true;
+      for (int i = 0; i < 10; i++) {
+        byte[] a = one.take();
+        byte[] b = two.take();
+        same = same && Arrays.equals(a, b);
+        one.recycle(a);
+        two.recycle(b);
+      }
+      t.checkExpect(same, true);
+
+      // Pools shuffle the same way a deck does with the same random
+      DealPool three = new DealPool(1, 10);
+      ConcentrationDeck deck = new ConcentrationDeck();
+      deck.shuffle(new SplittableRandom(10));
+      t.checkExpect(three.take(), deck.codes);
+      three.close();
+
+      // The world gets the eleventh deal the seed shuffles
+      ConcentrationWorld world = new ConcentrationWorld(11);
+      world.deals = one;
+      world.onKeyEvent("r");
+      SplittableRandom random = new SplittableRandom(9);
+      for (int i = 0; i < 11; i++) {
+        deck.shuffle(random);
+      }
+      t.checkExpect(codes(world.cards), deck.codes);
+    }
+    t.checkConstructorException(new IllegalArgumentException("Pool size must be positive"),
+        "DealPool", 0, 1L);
+  }
+
+  void testWinNeedsEveryPair(Tester t) {
+    Card[] board = ConcentrationWorld.createBoard();
+    ConcentrationWorld world = new ConcentrationWorld(board);
+    t.checkExpect(world.pairsLeft, 26);
+    int found = 0;
+    for (int i = 0; i < 52; i++) {
+      for (int j = i + 1; j < 52; j++) {
+        if (!world.card(i).isFaceUp() && world.card(i).isMatch(world.card(j))) {
+          world.pick(i);
+          world.pick(j);
+          world.checkMatch();
+          found++;
+          t.checkExpect(world.gameWon, found == 26);
+        }
+      }
+    }
+    t.checkExpect(world.pairsLeft, 0);
+    t.checkExpect(world.totalGuesses, 26);
+  }
+
+  void testMatchTimer(Tester t) {
+    Card[] board = ConcentrationWorld.createBoard();
+    ManualGameClock clock = new ManualGameClock(1000);
+    ConcentrationWorld world = new ConcentrationWorld(board, clock);
+    clock.advance(ConcentrationWorld.TICK_NANOS * 90);
+    world.onTick();
+    t.checkExpect(world.elapsedTime, 90);
+
+    // Two cards that can't match
+    board[0] = new Card("♥", "1");
+    board[1] = new Card("♠", "2");
+    world.onMouseClicked(new Posn(50, 50));
+    world.onMouseClicked(new Posn(100, 50));
+    t.checkExpect(world.waitingForMatch, true);
+    t.checkExpect(world.timers.pending(), 1);
+
+    clock.advance(ConcentrationWorld.MATCH_DELAY - 1);
+    world.onTick();
+    t.checkExpect(world.waitingForMatch, true);
+    t.checkExpect(world.totalGuesses, 0);
+    clock.advance(1);
+    world.onTick();
+    t.checkExpect(world.waitingForMatch, false);
+    t.checkExpect(world.totalGuesses, 1);
+    t.checkExpect(world.maxSteps, 99);
+    t.checkExpect(board[0].isFaceUp(), false);
+    t.checkExpect(world.timers.pending(), 0);
+
+    // Resetting while a pair is waiting throws the check away
+    world.onMouseClicked(new Posn(50, 50));
+    world.onMouseClicked(new Posn(100, 50));
+    world.onKeyEvent("r");
+    t.checkExpect(world.timers.pending(), 0);
+    t.checkExpect(world.matchTimer, null);
+  }
+
+  void testSharedTimers(Tester t) {
+    ManualGameClock clock = new ManualGameClock(0);
+    TimerWheel timers = new TimerWheel(64, ConcentrationWorld.TICK_NANOS, 0);
+    ConcentrationWorld one = new ConcentrationWorld(ConcentrationWorld.createBoard(), clock,
+        timers);
+    ConcentrationWorld two = new ConcentrationWorld(ConcentrationWorld.createBoard(), clock,
+        timers);
+    for (ConcentrationWorld world : new ConcentrationWorld[] { one, two }) {
+      world.onMouseClicked(new Posn(50, 50));
+      world.onMouseClicked(new Posn(100, 50));
+    }
+    t.checkExpect(timers.pending(), 2);
+    clock.advance(ConcentrationWorld.MATCH_DELAY);
+    t.checkExpect(timers.advance(clock.nanos()), 2);
+    t.checkExpect(one.waitingForMatch, false);
+    t.checkExpect(two.waitingForMatch, false);
+  }
+
+  void testBigBoards(Tester t) {
+    ConcentrationWorld world = new ConcentrationWorld(4, 5);
+    t.checkExpect(world.cards.length, 208);
+    t.checkExpect(world.columns, 26);
+    t.checkExpect(world.rows, 8);
+    t.checkExpect(world.pairsLeft, 104);
+    t.checkExpect(world.score, 104);
+    t.checkExpect(world.maxSteps, 400);
+    t.checkExpect(ConcentrationWorld.stepsAllowed(26), 100);
+    t.checkExpect(ConcentrationWorld.stepsAllowed(27), 104);
+
+    // Every card is dealt once for each deck
+    int[] dealt = new int[Card.DECK_SIZE];
+    for (Card card : world.cards) {
+      dealt[card.code]++;
+    }
+    int[] four = new int[Card.DECK_SIZE];
+    Arrays.fill(four, 4);
+    t.checkExpect(dealt, four);
+
+    world.onKeyEvent("r");
+    t.checkExpect(world.pairsLeft, 104);
+    t.checkExpect(world.maxSteps, 400);
+    t.checkExpect(new ConcentrationWorld(4, 5).cards[0].code, new ConcentrationWorld(4, 5)
+        .cards[0].code);
+
+    // Five decks make a board three decks wide with a short last row
+    ConcentrationWorld wide = new ConcentrationWorld(ConcentrationWorld.createBoard(5,
+        new SplittableRandom(1)));
+    t.checkExpect(wide.columns, 39);
+    t.checkExpect(wide.rows, 7);
+    t.checkExpect(wide.indexAt(6, 25), 259);
+    t.checkExpect(wide.indexAt(6, 26), -1);
+    t.checkExpect(wide.indexAt(0, 39), -1);
+
+    try (DealPool pool = new DealPool(2, 4, 3)) {
+      t.checkExpect(pool.take().length, 208);
+      world.deals = pool;
+      world.onKeyEvent("r");
+      ConcentrationWorld small = new ConcentrationWorld(1);
+      small.deals = pool;
+      t.checkException(new IllegalStateException("Deal pool is for a different size of board"),
+          small, "dealNewBoard");
+    }
+  }
+
+  void testViewport(Tester t) {
+    ConcentrationWorld world = new ConcentrationWorld(4, 6);
+    WorldScene scene = world.makeScene();
+    // The mat, the title, where the view is, 52 cards, the strip and four counters
+    t.checkExpect(world.placed, 60);
+    world.onKeyEvent("up");
+    world.onKeyEvent("left");
+    t.checkExpect(world.makeScene() == scene, true);
+
+    // The view stops at the bottom right edges
+    for (int i = 0; i < 20; i++) {
+      world.onKeyEvent("down");
+      world.onKeyEvent("right");
+    }
+    t.checkExpect(world.viewRow, 4);
+    t.checkExpect(world.viewColumn, 13);
+    t.checkExpect(world.makeScene() == scene, false);
+    t.checkExpect(world.placed, 60);
+
+    // Flipping a card out of the view draws nothing, flipping one in it draws it
+    world.cards[0].flip();
+    world.makeScene();
+    t.checkExpect(world.placed, 60);
+    world.cards[4 * 26 + 13].flip();
+    world.makeScene();
+    t.checkExpect(world.placed, 61);
+    t.checkExpect(world.drawnFaceUp[0], true);
+
+    // A new game goes back to the top left
+    world.onKeyEvent("r");
+    t.checkExpect(world.viewRow, 0);
+    t.checkExpect(world.viewColumn, 0);
+
+    // One deck fits in the view and doesn't scroll
+    ConcentrationWorld small = new ConcentrationWorld(1);
+    small.onKeyEvent("down");
+    small.onKeyEvent("right");
+    t.checkExpect(small.viewRow, 0);
+    t.checkExpect(small.viewColumn, 0);
+  }
+
+  void testScrolledClicks(Tester t) {
+    ConcentrationWorld world = new ConcentrationWorld(4, 7);
+    world.scroll(2, 3);
+    world.onMouseClicked(new Posn(50, 50));
+    t.checkExpect(world.firstSelected == world.cards[2 * 26 + 3], true);
+    world.onMouseClicked(new Posn(100, 125));
+    t.checkExpect(world.secondSelected == world.cards[3 * 26 + 4], true);
+    t.checkExpect(world.waitingForMatch, true);
+
+    // Clicks between cards or off the board don't pick anything
+    ConcentrationWorld other = new ConcentrationWorld(4, 7);
+    other.onMouseClicked(new Posn(75, 50));
+    other.onMouseClicked(new Posn(20, -40));
+    other.onMouseClicked(new Posn(740, 50));
+    t.checkExpect(other.firstSelected, null);
+  }
+
+  void testBadBoards(Tester t) {
+    t.checkConstructorException(new IllegalArgumentException("Boards must be made of whole decks"),
+        "ConcentrationWorld", new Object[] { new Card[0] });
+    t.checkConstructorException(new IllegalArgumentException("Decks must be positive"),
+        "ConcentrationDeck", 0);
+  }
+
+  void testIndex(Tester t) {
+    Card[] board = ConcentrationWorld.createBoard(12);
+    ConcentrationIndex index = new ConcentrationIndex(board);
+    t.checkExpect(index.pairsLeft(), 26);
+    // The index finds the same partners as looking at every card
+    boolean agrees = true;
+    for (int i = 0; i < 52; i++) {
+      int scanned = -1;
+      for (int j = 0; j < 52; j++) {
+        if (j != i && board[i].isMatch(board[j])) {
+          scanned = j;
+        }
+      }
+      agrees = agrees && index.partner(i) == scanned;
+    }
+    t.checkExpect(agrees, true);
+
+    int partner = index.partner(0);
+    t.checkExpect(index.knownPartner(0), -1);
+    index.reveal(0);
+    index.reveal(0);
+    t.checkExpect(index.isSeen(0), true);
+    t.checkExpect(index.knownPairAvailable(), false);
+    t.checkExpect(index.knownPartner(partner), 0);
+    index.reveal(partner);
+    t.checkExpect(index.knownPairAvailable(), true);
+    t.checkExpect(index.knownPair() == 0 || index.knownPair() == partner, true);
+    t.checkExpect(index.knownPartner(0), partner);
+
+    index.match(0, partner);
+    t.checkExpect(index.pairsLeft(), 25);
+    t.checkExpect(index.isMatched(0), true);
+    t.checkExpect(index.partner(0), -1);
+    t.checkExpect(index.knownPairAvailable(), false);
+    t.checkExpect(index.knownPair(), -1);
+    t.checkException(new IllegalArgumentException("Card 0 is already matched"), index,
+        "remove", 0);
+    int other = partner == 1 ? 2 : 1;
+    t.checkException(new IllegalArgumentException("Cards " + other + " and " + other
+        + " don't match"), index, "match", other, other);
+
+    // Resetting keeps the same arrays
+    int[] slots = index.slots;
+    index.reset();
+    t.checkExpect(index.slots == slots, true);
+    t.checkExpect(index.pairsLeft(), 26);
+    t.checkExpect(index.partner(0), partner);
+    t.checkExpect(index.isSeen(0), false);
+
+    board[1] = new Card(board[0].code);
+    t.checkConstructorException(
+        new IllegalArgumentException("Boards need the same number of every card"),
+        "ConcentrationIndex", new Object[] { board });
+  }
+
+  void testIndexTwoDecks(Tester t) {
+    Card[] board = ConcentrationWorld.createBoard(2, new SplittableRandom(13));
+    ConcentrationIndex index = new ConcentrationIndex(board);
+    t.checkExpect(index.perKind, 4);
+    t.checkExpect(index.pairsLeft(), 52);
+    // A kind has four cards on two decks, and any two of them match
+    int[] kind = new int[4];
+    int found = 0;
+    for (int i = 0; i < board.length && found < 4; i++) {
+      if (board[i].isMatch(board[0])) {
+        kind[found++] = i;
+      }
+    }
+    index.reveal(kind[0]);
+    index.reveal(kind[1]);
+    index.reveal(kind[2]);
+    index.match(kind[0], kind[1]);
+    // One seen card of the kind is left, so it isn't a sure pair any more
+    t.checkExpect(index.knownPairAvailable(), false);
+    t.checkExpect(index.knownPartner(kind[3]), kind[2]);
+    t.checkExpect(index.partner(kind[2]), kind[3]);
+    index.reveal(kind[3]);
+    t.checkExpect(index.knownPairAvailable(), true);
+    index.match(kind[2], kind[3]);
+    t.checkExpect(index.pairsLeft(), 50);
+    t.checkExpect(index.partner(kind[2]), -1);
+  }
+
+  void testHints(Tester t) {
+    ManualGameClock clock = new ManualGameClock(0);
+    Card[] board = ConcentrationWorld.createBoard(14);
+    ConcentrationWorld world = new ConcentrationWorld(board, clock);
+    int partner = world.index.partner(0);
+    int other = partner == 1 ? 2 : 1;
+    t.checkExpect(world.hint(), -1);
+
+    // A miss shows two cards, and the next pick of the first card's partner has a hint
+    world.pick(0);
+    world.pick(other);
+    world.checkMatch();
+    t.checkExpect(world.index.isSeen(0), true);
+    world.pick(partner);
+    t.checkExpect(world.hint(), 0);
+    world.onKeyEvent("h");
+    t.checkExpect(world.waitingForMatch, true);
+    t.checkExpect(world.timers.pending(), 1);
+    t.checkExpect(world.hint(), -1);
+    clock.advance(ConcentrationWorld.MATCH_DELAY);
+    world.onTick();
+    t.checkExpect(world.pairsLeft, 25);
+    t.checkExpect(world.index.pairsLeft(), 25);
+    t.checkExpect(world.index.partner(0), -1);
+
+    // Seeing a whole pair makes it something auto solve can match
+    int next = world.index.partner(other);
+    int miss = -1;
+    for (int i = 0; i < 52 && miss == -1; i++) {
+      if (!board[i].isFaceUp() && i != other && i != next) {
+        miss = i;
+      }
+    }
+    world.pick(next);
+    world.pick(miss);
+    world.checkMatch();
+    t.checkExpect(world.index.knownPairAvailable(), true);
+    t.checkExpect(world.autoSolve(), 1);
+    t.checkExpect(world.pairsLeft, 24);
+    t.checkExpect(world.totalGuesses, 4);
+    t.checkExpect(board[other].isFaceUp() && board[next].isFaceUp(), true);
+    t.checkExpect(world.autoSolve(), 0);
+
+    // A reset keeps the same index, dealt again
+    ConcentrationIndex index = world.index;
+    world.onKeyEvent("r");
+    t.checkExpect(world.index == index, true);
+    t.checkExpect(index.pairsLeft(), 26);
+    t.checkExpect(index.knownPairAvailable(), false);
+    boolean agrees = true;
+    for (int i = 0; i < 52; i++) {
+      agrees = agrees && board[index.partner(i)].isMatch(board[i]) && index.partner(i) != i;
+    }
+    t.checkExpect(agrees, true);
+  }
+
+  void testAutoSolveWins(Tester t) {
+    ConcentrationWorld world = new ConcentrationWorld(15);
+    for (int i = 0; i < 52; i++) {
+      world.index.reveal(i);
+    }
+    t.checkExpect(world.autoSolve(), 26);
+    t.checkExpect(world.gameWon, true);
+    t.checkExpect(world.totalGuesses, 26);
+  }
 }
@@ -0,0 +1,402 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import tester.*;
+
+// A computer player for Concentration. It is shown each card as it gets flipped and
+// decides which card to flip next, and how much it remembers is up to it.
+interface IConcentrationPlayer {
+  // Forgets everything from the last game
+  void newGame();
+
+  // Returns the index of the face down card to flip next. If a card has already been
+  // flipped this turn it is the worlds firstSelected.
+  int chooseCard(ConcentrationWorld world);
+
+  // Shows the player the card that was at index when it was flipped
+  void saw(int index, Card card);
+}
+
+// Flips face down cards at random and never remembers anything
+class RandomConcentrationPlayer implements IConcentrationPlayer {
+  SplittableRandom random;
+  int[] choices; // Room to list the cards it could pick
+
+  RandomConcentrationPlayer(SplittableRandom random) {
+    this.random = random;
+    this.choices = new int[52];
+  }
+
+  public void newGame() {
+  }
+
+  public int chooseCard(ConcentrationWorld world) {
+    return MemoryConcentrationPlayer.randomFaceDown(world, this.random, null, this.choices);
+  }
+
+  public void saw(int index, Card card) {
+  }
+}
+
+// Remembers the last capacity cards it saw. It flips a pair it knows about if it has
+// one, and otherwise a card it hasn't seen yet, then looks for the partner of that card
+// in what it remembers. With a capacity of 52 it never forgets anything.
+class MemoryConcentrationPlayer implements IConcentrationPlayer {
+  int capacity; // How many cards it can remember at once
+  SplittableRandom random;
+  int[] seenAt; // When each card was last seen, counting flips, or 0 if it isn't remembered
+  int[] whereIs; // The index of each remembered card by its code, or -1
+  int flips; // Cards seen so far this game
+  int remembered; // How many cards are remembered
+  int[] choices; // Room to list the cards it could pick
+
+  MemoryConcentrationPlayer(int capacity, SplittableRandom random) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity can't be negative");
+    }
+    this.capacity = capacity;
+    this.random = random;
+    this.seenAt = new int[52];
+    this.whereIs = new int[Card.DECK_SIZE];
+    this.choices = new int[52];
+    this.newGame();
+  }
+
+  // A player that remembers every card it has seen
+  static MemoryConcentrationPlayer perfect(SplittableRandom random) {
+    return new MemoryConcentrationPlayer(52, random);
+  }
+
+  public void newGame() {
+    Arrays.fill(this.seenAt, 0);
+    Arrays.fill(this.whereIs, -1);
+    this.flips = 0;
+    this.remembered = 0;
+  }
+
+  public int chooseCard(ConcentrationWorld world) {
+    Card first = world.firstSelected;
+    if (first == null) {
+      // A pair it already knows is a free match
+      for (int i = 0; i < 52; i++) {
+        if (this.knows(world, i)) {
+          int partner = this.partner(world, world.card(i), i);
+          if (partner != -1) {
+            return i;
+          }
+        }
+      }
+    }
+    else {
+      int partner = this.partner(world, first, -1);
+      if (partner != -1) {
+        return partner;
+      }
+    }
+    return randomFaceDown(world, this.random, this.seenAt, this.choices);
+  }
+
+  public void saw(int index, Card card) {
+    if (this.seenAt[index] == 0) {
+      this.remembered++;
+    }
+    this.flips++;
+    this.seenAt[index] = this.flips;
+    this.whereIs[card.code] = index;
+    // Forgets the card it saw longest ago
+    while (this.remembered > this.capacity) {
+      int oldest = -1;
+      for (int i = 0; i < 52; i++) {
+        if (this.seenAt[i] != 0 && (oldest == -1 || this.seenAt[i] < this.seenAt[oldest])) {
+          oldest = i;
+        }
+      }
+      this.seenAt[oldest] = 0;
+      for (int code = 0; code < Card.DECK_SIZE; code++) {
+        if (this.whereIs[code] == oldest) {
+          this.whereIs[code] = -1;
+        }
+      }
+      this.remembered--;
+    }
+  }
+
+  // Whether the card at index is remembered and still face down
+  boolean knows(ConcentrationWorld world, int index) {
+    return this.seenAt[index] != 0 && !world.card(index).isFaceUp();
+  }
+
+  // The remembered face down card other than skip that matches card, or -1
+  int partner(ConcentrationWorld world, Card card, int skip) {
+    int index = this.whereIs[card.partnerCode()];
+    if (index != -1 && index != skip && this.knows(world, index)) {
+      return index;
+    }
+    return -1;
+  }
+
+  // A random face down card, one that isn't remembered if seenAt is given and there
+  // are any, or -1 if every card is face up. The choices are listed in the given array.
+  static int randomFaceDown(ConcentrationWorld world, SplittableRandom random,
+      int[] seenAt, int[] choices) {
+    int count = 0;
+    int unseen = 0;
+    for (int i = 0; i < 52; i++) {
+      if (!world.card(i).isFaceUp()) {
+        // Unseen cards go at the front and the rest at the back
+        if (seenAt != null && seenAt[i] == 0) {
+          choices[count] = choices[unseen];
+          choices[unseen] = i;
+          unseen++;
+        }
+        else {
+          choices[count] = i;
+        }
+        count++;
+      }
+    }
+    if (count == 0) {
+      return -1;
+    }
+    if (unseen > 0) {
+      return choices[random.nextInt(unseen)];
+    }
+    return choices[random.nextInt(count)];
+  }
+}
+
+// What a batch of simulated Concentration games came out as
+class ConcentrationStats {
+  long games; // Games played
+  long wins; // Games where every pair was found before the steps ran out
+  long guesses; // Guesses made across every game
+  long[] guessCounts; // How many games took each number of guesses
+  long nanos; // Wall clock time for the whole batch
+
+  ConcentrationStats() {
+    this.guessCounts = new long[101];
+  }
+
+  // Counts one finished game
+  void add(ConcentrationWorld world) {
+    this.games++;
+    if (world.gameWon) {
+      this.wins++;
+    }
+    this.guesses += world.totalGuesses;
+    this.guessCounts[world.totalGuesses]++;
+  }
+
+  // Adds another batch's counts to this one, the time is left alone
+  void add(ConcentrationStats other) {
+    this.games += other.games;
+    this.wins += other.wins;
+    this.guesses += other.guesses;
+    for (int i = 0; i < this.guessCounts.length; i++) {
+      this.guessCounts[i] += other.guessCounts[i];
+    }
+  }
+
+  double gamesPerSecond() {
+    return this.games / Math.max(1e-9, this.nanos / 1e9);
+  }
+
+  double winRate() {
+    return this.games == 0 ? 0 : (double) this.wins / this.games;
+  }
+
+  double averageGuesses() {
+    return this.games == 0 ? 0 : (double) this.guesses / this.games;
+  }
+
+  // The fewest guesses that the given percent of games took at most
+  int guessPercentile(double percent) {
+    long rank = Math.max(1, (long) Math.ceil(percent / 100 * this.games));
+    long seen = 0;
+    for (int i = 0; i < this.guessCounts.length; i++) {
+      seen += this.guessCounts[i];
+      if (seen >= rank) {
+        return i;
+      }
+    }
+    return this.guessCounts.length - 1;
+  }
+
+  public String toString() {
+    return String.format("%d games, %.1f games/s, %.3f won, %.2f guesses/game,"
+        + " p10/p50/p90 guesses %d/%d/%d", this.games, this.gamesPerSecond(), this.winRate(),
+        this.averageGuesses(), this.guessPercentile(10), this.guessPercentile(50),
+        this.guessPercentile(90));
+  }
+}
+
+// Plays Concentration games with no window. Cards are flipped by index through
+// ConcentrationWorld.pick, and each pair is checked straight away with checkMatch
+// instead of waiting a second, so the rules and the 100 step limit are the games
+// own. Games are spread over a pool of threads, and each thread gets its own player,
+// random and clock, so nothing is shared while they run.
+class ConcentrationSimulator {
+  Supplier<IConcentrationPlayer> players; // Makes a player for each thread
+  SplittableRandom seeds; // Split up to shuffle each thread's decks
+
+  ConcentrationSimulator(Supplier<IConcentrationPlayer> players, SplittableRandom seeds) {
+    this.players = players;
+    this.seeds = seeds;
+  }
+
+  // Plays the game in the world to the end
+  static ConcentrationWorld playGame(IConcentrationPlayer player, ConcentrationWorld world) {
+    player.newGame();
+    while (!world.gameWon && !world.gameOver) {
+      for (int i = 0; i < 2; i++) {
+        int index = player.chooseCard(world);
+        if (!world.pick(index)) {
+          throw new IllegalStateException("Player picked a card it couldn't: " + index);
+        }
+        player.saw(index, world.card(index));
+      }
+      world.checkMatch();
+    }
+    return world;
+  }
+
+  // Plays the given number of games split over the given number of threads
+  ConcentrationStats run(int games, int threads) {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    long start = System.nanoTime();
+    try {
+      ArrayList<Callable<ConcentrationStats>> batches =
+          new ArrayList<Callable<ConcentrationStats>>();
+      for (int i = 0; i < threads; i++) {
+        int count = games / threads + (i < games % threads ? 1 : 0);
+        SplittableRandom random = this.seeds.split();
+        batches.add(() -> this.runBatch(count, random));
+      }
+
+      ConcentrationStats total = new ConcentrationStats();
+      for (Future<ConcentrationStats> batch : pool.invokeAll(batches)) {
+        total.add(batch.get());
+      }
+      total.nanos = System.nanoTime() - start;
+      return total;
+    }
+    catch (InterruptedException | ExecutionException e) {
+      throw new IllegalStateException("Simulation failed", e);
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  // Plays count games on the calling thread with a player made just for it. The games
+  // are all played in one world, which deals itself a new board for each.
+  ConcentrationStats runBatch(int count, SplittableRandom random) {
+    IConcentrationPlayer player = this.players.get();
+    ConcentrationWorld world = newWorld(random);
+    ConcentrationStats stats = new ConcentrationStats();
+    for (int i = 0; i < count; i++) {
+      world.newGame();
+      stats.add(playGame(player, world));
+    }
+    return stats;
+  }
+
+  // A world for playing games without a window, which deals with the given random.
+  // It never ticks so its clock never moves.
+  static ConcentrationWorld newWorld(SplittableRandom random) {
+    ConcentrationWorld world = new ConcentrationWorld(ConcentrationWorld.createBoard(random),
+        new ManualGameClock(0), new TimerWheel(1, ConcentrationWorld.TICK_NANOS, 0));
+    world.random = random;
+    return world;
+  }
+
+  // Runs a random player and players remembering 4, 8, 16 and every card.
+  // Usage: java ConcentrationSimulator [games] [threads]
+  public static void main(String[] args) {
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int threads = args.length > 1 ? Integer.parseInt(args[1])
+        : Runtime.getRuntime().availableProcessors();
+    SplittableRandom seeds = new SplittableRandom();
+
+    System.out.println("random: " + new ConcentrationSimulator(
+        () -> new RandomConcentrationPlayer(BridgeItSelfPlay.split(seeds)), seeds.split())
+        .run(games, threads));
+    for (int capacity : new int[] { 4, 8, 16, 52 }) {
+      System.out.println("memory " + capacity + ": " + new ConcentrationSimulator(
+          () -> new MemoryConcentrationPlayer(capacity, BridgeItSelfPlay.split(seeds)),
+          seeds.split()).run(games, threads));
+    }
+  }
+}
+
+class ExamplesConcentrationSimulator {
+  void testPerfectMemory(Tester t) {
+    SplittableRandom random = new SplittableRandom(1);
+    IConcentrationPlayer player = MemoryConcentrationPlayer.perfect(random);
+    ConcentrationWorld world = ConcentrationSimulator.newWorld(random);
+    boolean allWon = true;
+    for (int i = 0; i < 100; i++) {
+      world.newGame();
+      ConcentrationSimulator.playGame(player, world);
+      // Each guess either finds a pair or turns over a card it hadn't seen, so it
+      // never needs more than one guess per card
+      allWon = allWon && world.gameWon && world.totalGuesses <= 52 && world.pairsLeft == 0;
+    }
+    t.checkExpect(allWon, true);
+  }
+
+  void testRandomPlayer(Tester t) {
+    SplittableRandom random = new SplittableRandom(2);
+    ConcentrationWorld world = ConcentrationSimulator.playGame(
+        new RandomConcentrationPlayer(random), ConcentrationSimulator.newWorld(random));
+    t.checkExpect(world.gameOver, true);
+    t.checkExpect(world.totalGuesses, 100);
+    t.checkExpect(world.maxSteps, 0);
+  }
+
+  void testBoundedMemory(Tester t) {
+    MemoryConcentrationPlayer player = new MemoryConcentrationPlayer(2, new SplittableRandom(3));
+    player.newGame();
+    player.saw(5, new Card(0));
+    player.saw(9, new Card(10));
+    player.saw(5, new Card(0));
+    // Seeing 5 again leaves 9 as the oldest, so 9 is forgotten to make room for 20
+    player.saw(20, new Card(30));
+    t.checkExpect(player.remembered, 2);
+    t.checkExpect(player.seenAt[9], 0);
+    t.checkExpect(player.seenAt[5] != 0, true);
+    t.checkExpect(player.seenAt[20] != 0, true);
+    t.checkConstructorException(new IllegalArgumentException("Capacity can't be negative"),
+        "MemoryConcentrationPlayer", -1, new SplittableRandom(3));
+  }
+
+  void testRun(Tester t) {
+    ConcentrationStats perfect = new ConcentrationSimulator(
+        () -> MemoryConcentrationPlayer.perfect(new SplittableRandom(4)),
+        new SplittableRandom(5)).run(301, 3);
+    ConcentrationStats forgetful = new ConcentrationSimulator(
+        () -> new MemoryConcentrationPlayer(4, new SplittableRandom(6)),
+        new SplittableRandom(7)).run(301, 3);
+    t.checkExpect(perfect.games, 301L);
+    t.checkExpect(perfect.winRate(), 1.0);
+    t.checkExpect(perfect.averageGuesses() < forgetful.averageGuesses(), true);
+    t.checkExpect(perfect.guessPercentile(0) <= perfect.guessPercentile(50), true);
+    t.checkExpect(perfect.guessPercentile(100) <= 52, true);
+    long counted = 0;
+    for (long count : forgetful.guessCounts) {
+      counted += count;
+    }
+    t.checkExpect(counted, 301L);
+  }
+
+  void testSeeded(Tester t) {
+    ConcentrationStats one = new ConcentrationSimulator(
+        () -> new MemoryConcentrationPlayer(8, new SplittableRandom(8)),
+        new SplittableRandom(9)).run(50, 1);
+    ConcentrationStats two = new ConcentrationSimulator(
+        () -> new MemoryConcentrationPlayer(8, new SplittableRandom(8)),
+        new SplittableRandom(9)).run(50, 1);
+    t.checkExpect(one.guesses, two.guesses);
+    t.checkExpect(one.guessCounts, two.guessCounts);
+  }
+}
@@ -0,0 +1,513 @@
+import java.util.*;
+import java.util.concurrent.*;
+import tester.*;
+
+// Maps long keys to int values with open addressing, so looking a key up doesn't box
+// anything. Keys can't be -1, which marks an empty slot.
+class LongIntTable {
+  long[] keys;
+  int[] values;
+  int mask; // keys.length - 1
+  int size;
+
+  LongIntTable(int expected) {
+    int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) * 2;
+    this.keys = new long[capacity];
+    this.values = new int[capacity];
+    this.mask = capacity - 1;
+    Arrays.fill(this.keys, -1);
+  }
+
+  // The slot a key is in, or the empty slot it would go in
+  int slot(long key) {
+    long mixed = key * 0x9E3779B97F4A7C15L;
+    int slot = (int) (mixed ^ (mixed >>> 32)) & this.mask;
+    while (this.keys[slot] != -1 && this.keys[slot] != key) {
+      slot = (slot + 1) & this.mask;
+    }
+    return slot;
+  }
+
+  // Sets the value for a key, growing the table once it is half full
+  void put(long key, int value) {
+    if ((this.size + 1) * 2 > this.keys.length) {
+      long[] oldKeys = this.keys;
+      int[] oldValues = this.values;
+      this.keys = new long[oldKeys.length * 2];
+      this.values = new int[oldKeys.length * 2];
+      this.mask = this.keys.length - 1;
+      Arrays.fill(this.keys, -1);
+      this.size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != -1) {
+          this.put(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+    int slot = this.slot(key);
+    if (this.keys[slot] == -1) {
+      this.keys[slot] = key;
+      this.size++;
+    }
+    this.values[slot] = value;
+  }
+
+  // The value for a key, or -1 if it isn't in the table
+  int get(long key) {
+    int slot = this.slot(key);
+    return this.keys[slot] == -1 ? -1 : this.values[slot];
+  }
+}
+
+// Works out the fewest guesses Concentration takes on average with a perfect memory,
+// playing as well as possible, and how likely that play is to finish within a number
+// of guesses.
+//
+// With perfect memory the only thing that matters about a position is, for each
+// kind of card (a value in a color), how many of its cards are left and whether one
+// of them has been seen. Cards of a kind are interchangeable, so a state is just how
+// many kinds there are of each (left, seen) combination. With one deck every kind has
+// one pair, so this is the number of pairs no card has been seen of and the number
+// with one card seen. With more decks a kind has two cards per deck and any two of
+// them match. Two seen cards of a kind are always matched straight away, so seen is
+// only ever 0 or 1.
+//
+// Each guess turns over an unseen card first. If a card of its kind has been seen,
+// that is turned over next and they match. Otherwise the player picks between turning
+// over another unseen card, which might match or might show them something, and
+// turning over a card they have already seen, which can't match but shows the other
+// player nothing new. The solver tries both and keeps the better one.
+//
+// Every guess turns over at least one unseen card, so states are solved in order of
+// how many unseen cards they have. All the states with the same number only depend on
+// states with fewer, so each of those levels is solved in parallel with fork join.
+class ConcentrationSolver {
+  static final int BITS = 6; // Bits for each count in a state key
+  static final int MAX_KINDS = (1 << BITS) - 1;
+
+  int decks; // Pairs each kind of card starts with
+  int kinds; // Kinds of card, 26 for each value in each color
+  int types; // (left, seen) combinations, 2 * decks
+  long[] states; // Every state, in order of how many unseen cards they have
+  int[] levels; // Where the states with each number of unseen cards start in states
+  LongIntTable index; // Where each state is in states
+  double[] expected; // The expected guesses left from each state
+  int[] choices; // For each state, the bit for each type that turns over a seen card
+                 // second instead of an unseen one
+
+  ConcentrationSolver(int decks, int kinds) {
+    if (decks < 1 || 2 * decks * BITS > 64) {
+      throw new IllegalArgumentException("Decks must be between 1 and " + 64 / BITS / 2);
+    }
+    if (kinds < 1 || kinds > MAX_KINDS) {
+      throw new IllegalArgumentException("Kinds must be between 1 and " + MAX_KINDS);
+    }
+    this.decks = decks;
+    this.kinds = kinds;
+    this.types = 2 * decks;
+    this.enumerate();
+    this.solve();
+  }
+
+  // The solver for a normal 52 card game
+  static ConcentrationSolver standard() {
+    return new ConcentrationSolver(1, 26);
+  }
+
+  // The type for kinds with the given pairs left and seen cards
+  static int type(int pairs, int seen) {
+    return (pairs - 1) * 2 + seen;
+  }
+
+  // How many kinds in a state are of a type
+  static int count(long state, int type) {
+    return (int) (state >>> (type * BITS)) & MAX_KINDS;
+  }
+
+  // Moves one kind in a state from one type to another. A type of -1 means the kind
+  // has no pairs left.
+  static long move(long state, int from, int to) {
+    long moved = state - (1L << (from * BITS));
+    if (to != -1) {
+      moved += 1L << (to * BITS);
+    }
+    return moved;
+  }
+
+  // The type a kind becomes after one of its pairs is matched
+  static int afterMatch(int pairs) {
+    return pairs == 1 ? -1 : type(pairs - 1, 0);
+  }
+
+  // The number of unseen cards in a state
+  int unseen(long state) {
+    int unseen = 0;
+    for (int type = 0; type < this.types; type++) {
+      unseen += count(state, type) * (2 * (type / 2 + 1) - type % 2);
+    }
+    return unseen;
+  }
+
+  // The state a game starts in, every kind with all its pairs left and none seen
+  long start() {
+    return (long) this.kinds << (type(this.decks, 0) * BITS);
+  }
+
+  // Lists every state with at most kinds kinds in it, grouped by unseen cards
+  void enumerate() {
+    ArrayList<Long> found = new ArrayList<Long>();
+    this.enumerate(0, 0L, this.kinds, found);
+    int maxUnseen = this.kinds * 2 * this.decks;
+    this.levels = new int[maxUnseen + 2];
+    for (long state : found) {
+      this.levels[this.unseen(state) + 1]++;
+    }
+    for (int i = 1; i < this.levels.length; i++) {
+      this.levels[i] += this.levels[i - 1];
+    }
+    this.states = new long[found.size()];
+    int[] next = Arrays.copyOf(this.levels, this.levels.length);
+    for (long state : found) {
+      this.states[next[this.unseen(state)]++] = state;
+    }
+    this.index = new LongIntTable(this.states.length);
+    for (int i = 0; i < this.states.length; i++) {
+      this.index.put(this.states[i], i);
+    }
+  }
+
+  // Adds every way of giving the types from type on at most left kinds between them
+  void enumerate(int type, long state, int left, ArrayList<Long> found) {
+    if (type == this.types) {
+      found.add(state);
+      return;
+    }
+    for (int count = 0; count <= left; count++) {
+      this.enumerate(type + 1, state | ((long) count << (type * BITS)), left - count, found);
+    }
+  }
+
+  // Solves every level in order, each one in parallel
+  void solve() {
+    this.expected = new double[this.states.length];
+    this.choices = new int[this.states.length];
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    for (int level = 0; level + 1 < this.levels.length; level++) {
+      pool.invoke(new SolverTask(this, this.levels[level], this.levels[level + 1], -1));
+    }
+  }
+
+  // The expected guesses from a state that has already been solved
+  double expectedFrom(long state) {
+    return this.expected[this.index.get(state)];
+  }
+
+  // Works out the expected guesses left from states[i] and which second card to turn
+  // over for each type of first card
+  void solveState(int i) {
+    long state = this.states[i];
+    int unseen = this.unseen(state);
+    if (unseen == 0) {
+      return;
+    }
+    boolean anySeen = false;
+    for (int type = 1; type < this.types; type += 2) {
+      anySeen = anySeen || count(state, type) > 0;
+    }
+
+    double total = 0;
+    int choice = 0;
+    for (int type = 0; type < this.types; type++) {
+      int kinds = count(state, type);
+      if (kinds == 0) {
+        continue;
+      }
+      int pairs = type / 2 + 1;
+      int seen = type % 2;
+      double chance = (double) kinds * (2 * pairs - seen) / unseen;
+      if (seen == 1) {
+        // The seen card of its kind matches it
+        total += chance * (1 + this.expectedFrom(move(state, type, afterMatch(pairs))));
+      }
+      else {
+        long shown = move(state, type, type(pairs, 1));
+        double another = this.anotherUnseen(state, shown, type, unseen - 1);
+        if (anySeen && 1 + this.expectedFrom(shown) < another) {
+          total += chance * (1 + this.expectedFrom(shown));
+          choice |= 1 << type;
+        }
+        else {
+          total += chance * another;
+        }
+      }
+    }
+    this.expected[i] = total;
+    this.choices[i] = choice;
+  }
+
+  // The expected guesses left after the first card, of a type with nothing seen,
+  // is followed by another unseen card. shown is the state with the first card seen.
+  double anotherUnseen(long state, long shown, int first, int unseen) {
+    int pairs = first / 2 + 1;
+    // Another card of the same kind matches it
+    double total = (2.0 * pairs - 1) / unseen
+        * (1 + this.expectedFrom(move(state, first, afterMatch(pairs))));
+    for (int type = 0; type < this.types; type++) {
+      int kinds = count(state, type) - (type == first ? 1 : 0);
+      if (kinds == 0) {
+        continue;
+      }
+      int otherPairs = type / 2 + 1;
+      if (type % 2 == 1) {
+        // It matches a card seen before, which gets matched on the next guess
+        total += (double) kinds * (2 * otherPairs - 1) / unseen
+            * (2 + this.expectedFrom(move(shown, type, afterMatch(otherPairs))));
+      }
+      else {
+        // It is the first card seen of another kind
+        total += (double) kinds * 2 * otherPairs / unseen
+            * (1 + this.expectedFrom(move(shown, type, type(otherPairs, 1))));
+      }
+    }
+    return total;
+  }
+
+  // The fewest guesses a game takes on average
+  double expectedGuesses() {
+    return this.expectedFrom(this.start());
+  }
+
+  // The chance of finishing in at most t guesses, for every t up to steps, playing the
+  // way that takes the fewest guesses on average. This keeps steps + 1 numbers for
+  // every state so it is only meant for boards of one or two decks.
+  double[] finishWithin(int steps) {
+    if (steps < 0) {
+      throw new IllegalArgumentException("Steps can't be negative");
+    }
+    double[] within = new double[this.states.length * (steps + 1)];
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    for (int level = 0; level + 1 < this.levels.length; level++) {
+      pool.invoke(new SolverTask(this, this.levels[level], this.levels[level + 1], steps,
+          within));
+    }
+    int start = this.index.get(this.start());
+    return Arrays.copyOfRange(within, start * (steps + 1), (start + 1) * (steps + 1));
+  }
+
+  // Fills in the chances of finishing from states[i] within each number of guesses
+  void finishState(int i, int steps, double[] within) {
+    long state = this.states[i];
+    int row = i * (steps + 1);
+    int unseen = this.unseen(state);
+    if (unseen == 0) {
+      Arrays.fill(within, row, row + steps + 1, 1.0);
+      return;
+    }
+    for (int type = 0; type < this.types; type++) {
+      int kinds = count(state, type);
+      if (kinds == 0) {
+        continue;
+      }
+      int pairs = type / 2 + 1;
+      double chance = (double) kinds * (2 * pairs - type % 2) / unseen;
+      if (type % 2 == 1) {
+        this.addWithin(within, row, steps, chance, 1, move(state, type, afterMatch(pairs)));
+        continue;
+      }
+      long shown = move(state, type, type(pairs, 1));
+      if ((this.choices[i] & (1 << type)) != 0) {
+        this.addWithin(within, row, steps, chance, 1, shown);
+        continue;
+      }
+      this.addWithin(within, row, steps, chance * (2.0 * pairs - 1) / (unseen - 1), 1,
+          move(state, type, afterMatch(pairs)));
+      for (int other = 0; other < this.types; other++) {
+        int kindsLeft = count(state, other) - (other == type ? 1 : 0);
+        if (kindsLeft == 0) {
+          continue;
+        }
+        int otherPairs = other / 2 + 1;
+        if (other % 2 == 1) {
+          this.addWithin(within, row, steps,
+              chance * kindsLeft * (2 * otherPairs - 1) / (unseen - 1), 2,
+              move(shown, other, afterMatch(otherPairs)));
+        }
+        else {
+          this.addWithin(within, row, steps, chance * kindsLeft * 2 * otherPairs / (unseen - 1),
+              1, move(shown, other, type(otherPairs, 1)));
+        }
+      }
+    }
+  }
+
+  // Adds chance times the chances of finishing from next, cost guesses later
+  void addWithin(double[] within, int row, int steps, double chance, int cost, long next) {
+    int nextRow = this.index.get(next) * (steps + 1);
+    for (int t = cost; t <= steps; t++) {
+      within[row + t] += chance * within[nextRow + t - cost];
+    }
+  }
+
+  // The fewest steps to allow so that perfect play finishes in time with at least the
+  // given chance, for setting how hard the game is
+  int stepsFor(double chance) {
+    if (chance <= 0 || chance >= 1) {
+      throw new IllegalArgumentException("Chance must be between 0 and 1");
+    }
+    int steps = this.kinds * this.decks;
+    while (true) {
+      double[] within = this.finishWithin(steps);
+      for (int t = 0; t <= steps; t++) {
+        if (within[t] >= chance) {
+          return t;
+        }
+      }
+      steps *= 2;
+    }
+  }
+
+  // Prints the par for a standard game, the chance of beating the step limit and the
+  // limits that perfect play beats half, nine tenths and almost all of the time, then
+  // the par for bigger boards.
+  // Usage: java ConcentrationSolver [steps]
+  public static void main(String[] args) {
+    int steps = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    long start = System.nanoTime();
+    ConcentrationSolver solver = standard();
+    double[] within = solver.finishWithin(steps);
+    System.out.printf("1 deck: %.4f guesses, %.6f finish within %d, steps for 50%%/90%%/99%%:"
+        + " %d/%d/%d (%.1f ms)%n", solver.expectedGuesses(), within[steps], steps,
+        solver.stepsFor(0.5), solver.stepsFor(0.9), solver.stepsFor(0.99),
+        (System.nanoTime() - start) / 1e6);
+    for (int decks = 2; decks <= 3; decks++) {
+      start = System.nanoTime();
+      ConcentrationSolver big = new ConcentrationSolver(decks, 26);
+      System.out.printf("%d decks: %.4f guesses, %d states (%.1f ms)%n", decks,
+          big.expectedGuesses(), big.states.length, (System.nanoTime() - start) / 1e6);
+    }
+  }
+}
+
+// Solves one range of states from a level, splitting it in half and solving the
+// halves in parallel while it is big. With steps of -1 it works out the expected
+// guesses, otherwise the chances of finishing within up to steps guesses.
+class SolverTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  static final int SPLIT = 512; // Ranges smaller than this are solved on one thread
+
+  ConcentrationSolver solver;
+  int from; // First state to solve
+  int to; // One past the last state to solve
+  int steps;
+  double[] within;
+
+  SolverTask(ConcentrationSolver solver, int from, int to, int steps) {
+    this(solver, from, to, steps, null);
+  }
+
+  SolverTask(ConcentrationSolver solver, int from, int to, int steps, double[] within) {
+    this.solver = solver;
+    this.from = from;
+    this.to = to;
+    this.steps = steps;
+    this.within = within;
+  }
+
+  protected void compute() {
+    if (this.to - this.from > SPLIT) {
+      int middle = (this.from + this.to) >>> 1;
+      invokeAll(new SolverTask(this.solver, this.from, middle, this.steps, this.within),
+          new SolverTask(this.solver, middle, this.to, this.steps, this.within));
+    }
+    else {
+      for (int i = this.from; i < this.to; i++) {
+        if (this.steps == -1) {
+          this.solver.solveState(i);
+        }
+        else {
+          this.solver.finishState(i, this.steps, this.within);
+        }
+      }
+    }
+  }
+}
+
+class ExamplesConcentrationSolver {
+  void testLongIntTable(Tester t) {
+    LongIntTable table = new LongIntTable(2);
+    for (long key = 0; key < 1000; key++) {
+      table.put(key * 7919, (int) key);
+    }
+    table.put(7919, -5);
+    t.checkExpect(table.get(7919), -5);
+    t.checkExpect(table.get(999 * 7919), 999);
+    t.checkExpect(table.get(3), -1);
+    t.checkExpect(table.size, 1000);
+  }
+
+  void testSmallGames(Tester t) {
+    t.checkInexact(new ConcentrationSolver(1, 1).expectedGuesses(), 1.0, 1e-12);
+    // With two pairs the first guess matches a third of the time and one more guess
+    // finishes it, otherwise both pairs are known and take two more, 1/3 * 2 + 2/3 * 3
+    t.checkInexact(new ConcentrationSolver(1, 2).expectedGuesses(), 8.0 / 3, 1e-12);
+    // Four cards that all match each other always pair up in two guesses
+    t.checkInexact(new ConcentrationSolver(2, 1).expectedGuesses(), 2.0, 1e-12);
+  }
+
+  void testStandardGame(Tester t) {
+    ConcentrationSolver solver = ConcentrationSolver.standard();
+    // Velleman and Warrington's formula for the best expected guesses is very close for
+    // this many pairs
+    double formula = (3 - 2 * Math.log(2)) * 26 + 7.0 / 8 - 2 * Math.log(2);
+    t.checkInexact(solver.expectedGuesses(), formula, 1e-3);
+    // The perfect memory player doesn't play quite this well
+    ConcentrationStats stats = new ConcentrationSimulator(
+        () -> MemoryConcentrationPlayer.perfect(new SplittableRandom(1)),
+        new SplittableRandom(2)).run(2000, 1);
+    t.checkExpect(stats.averageGuesses() > solver.expectedGuesses() - 0.2, true);
+  }
+
+  void testFinishWithin(Tester t) {
+    ConcentrationSolver solver = ConcentrationSolver.standard();
+    double[] within = solver.finishWithin(100);
+    t.checkExpect(within.length, 101);
+    // It can't be done in fewer guesses than pairs
+    t.checkExpect(within[25], 0.0);
+    t.checkExpect(within[26] > 0, true);
+    t.checkInexact(within[100], 1.0, 1e-6);
+    boolean rising = true;
+    double mean = 0;
+    for (int i = 1; i <= 100; i++) {
+      rising = rising && within[i] >= within[i - 1];
+      mean += (within[i] - within[i - 1]) * i;
+    }
+    t.checkExpect(rising, true);
+    // The distribution's mean is the expected guesses
+    t.checkInexact(mean, solver.expectedGuesses(), 1e-6);
+
+    int median = solver.stepsFor(0.5);
+    t.checkExpect(within[median] >= 0.5 && within[median - 1] < 0.5, true);
+    t.checkException(new IllegalArgumentException("Chance must be between 0 and 1"), solver,
+        "stepsFor", 1.0);
+  }
+
+  void testTwoDecks(Tester t) {
+    ConcentrationSolver solver = new ConcentrationSolver(2, 6);
+    double[] within = solver.finishWithin(200);
+    double mean = 0;
+    for (int i = 1; i <= 200; i++) {
+      mean += (within[i] - within[i - 1]) * i;
+    }
+    t.checkInexact(mean, solver.expectedGuesses(), 1e-6);
+    // Two decks of the same kinds is never worse than twice as many different pairs
+    t.checkExpect(solver.expectedGuesses() <= new ConcentrationSolver(1, 12).expectedGuesses(),
+        true);
+  }
+
+  void testBadSizes(Tester t) {
+    t.checkConstructorException(new IllegalArgumentException("Decks must be between 1 and 5"),
+        "ConcentrationSolver", 6, 26);
+    t.checkConstructorException(new IllegalArgumentException("Kinds must be between 1 and 63"),
+        "ConcentrationSolver", 1, 64);
+  }
+}
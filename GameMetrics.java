@@ -0,0 +1,405 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import jdk.jfr.*;
+import jdk.jfr.consumer.*;
+import javalib.worldimages.*;
+import tester.*;
+
+// Flight Recorder event for a move being applied, a click in Concentration or a cell
+// being claimed in BridgeIt. The duration is how long the move took. When nobody is
+// recording these events the JIT turns begin and shouldCommit into nothing, so they
+// can stay in the game code.
+@Name("games.Move")
+@Label("Move")
+@Category("Games")
+@Description("A move being applied to a game")
+class MoveEvent extends Event {
+  @Label("Game")
+  String game;
+  @Label("Row")
+  int row;
+  @Label("Column")
+  int col;
+  @Label("Accepted")
+  @Description("Whether the move changed the game")
+  boolean accepted;
+  @Label("Finished")
+  @Description("Whether the move ended the game")
+  boolean finished;
+
+  // Fills in the fields and commits the event, only if someone is recording it
+  void report(String game, int row, int col, boolean accepted, boolean finished) {
+    if (this.shouldCommit()) {
+      this.game = game;
+      this.row = row;
+      this.col = col;
+      this.accepted = accepted;
+      this.finished = finished;
+      this.commit();
+    }
+  }
+}
+
+// Flight Recorder event for checking if a game has been won. For BridgeIt's path
+// search the counts say how much of the board was walked to get the answer.
+@Name("games.WinCheck")
+@Label("Win Check")
+@Category("Games")
+@Description("A check for whether a game has been won")
+class WinCheckEvent extends Event {
+  @Label("Game")
+  String game;
+  @Label("Nodes Visited")
+  int nodesVisited;
+  @Label("Cells Scanned")
+  int cellsScanned;
+  @Label("Won")
+  boolean won;
+
+  // Fills in the fields and commits the event, only if someone is recording it
+  void report(String game, int nodesVisited, int cellsScanned, boolean won) {
+    if (this.shouldCommit()) {
+      this.game = game;
+      this.nodesVisited = nodesVisited;
+      this.cellsScanned = cellsScanned;
+      this.won = won;
+      this.commit();
+    }
+  }
+}
+
+// Flight Recorder event for one call to makeScene
+@Name("games.Frame")
+@Label("Frame")
+@Category("Games")
+@Description("Building the scene for one frame")
+class FrameEvent extends Event {
+  @Label("Game")
+  String game;
+  @Label("Cells Drawn")
+  int cellsDrawn;
+  @Label("Rebuilt")
+  @Description("Whether the whole scene was drawn from scratch")
+  boolean rebuilt;
+
+  // Fills in the fields and commits the event, only if someone is recording it
+  void report(String game, int cellsDrawn, boolean rebuilt) {
+    if (this.shouldCommit()) {
+      this.game = game;
+      this.cellsDrawn = cellsDrawn;
+      this.rebuilt = rebuilt;
+      this.commit();
+    }
+  }
+}
+
+// Counts latencies in nanoseconds the same way an HdrHistogram does. Small values get
+// a bucket each and above that every power of two is split into SUB_BUCKETS / 2 equal
+// buckets, so any value is off by at most 1 / 64 of itself and a long always fits in
+// a few thousand buckets. Recording is one atomic increment so the game threads never
+// wait on each other.
+class LatencyHistogram {
+  static final int SUB_BITS = 7;
+  static final int SUB_BUCKETS = 1 << SUB_BITS; // 128
+  static final int HALF = SUB_BUCKETS / 2; // 64
+  static final int BUCKETS = (63 - SUB_BITS + 1) * HALF + HALF;
+
+  String name;
+  AtomicLongArray counts;
+
+  LatencyHistogram(String name) {
+    this.name = name;
+    this.counts = new AtomicLongArray(BUCKETS);
+  }
+
+  // The bucket a value is counted in
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) Math.max(0, value);
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+    return shift * HALF + (int) (value >>> shift);
+  }
+
+  // The smallest value counted in a bucket
+  static long lowest(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / HALF - 1;
+    return (long) (bucket % HALF + HALF) << shift;
+  }
+
+  // The largest value counted in a bucket, which is what gets reported for it so the
+  // percentiles never look better than they were
+  static long highest(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    return lowest(bucket) + (1L << (bucket / HALF - 1)) - 1;
+  }
+
+  // Counts one latency
+  void record(long nanos) {
+    this.counts.getAndIncrement(bucket(nanos));
+  }
+
+  // Counts the time since start, which came from GameMetrics.start. Does nothing if
+  // start is 0 because recording was off when it was taken.
+  void recordSince(long start) {
+    if (start != 0) {
+      this.record(System.nanoTime() - start);
+    }
+  }
+
+  // How many latencies have been counted
+  long count() {
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += this.counts.get(i);
+    }
+    return total;
+  }
+
+  // The latency that the given percent of the counted ones are at or below, or 0 if
+  // nothing has been counted
+  long percentile(double percent) {
+    if (percent < 0 || percent > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100");
+    }
+    long total = this.count();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percent / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += this.counts.get(i);
+      if (seen >= rank) {
+        return highest(i);
+      }
+    }
+    return this.max();
+  }
+
+  // The biggest latency counted, to within a bucket
+  long max() {
+    for (int i = BUCKETS - 1; i >= 0; i--) {
+      if (this.counts.get(i) != 0) {
+        return highest(i);
+      }
+    }
+    return 0;
+  }
+
+  // Forgets everything that has been counted
+  void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      this.counts.set(i, 0);
+    }
+  }
+
+  // Prints one line with the count and the usual percentiles in microseconds
+  void dump(PrintStream out) {
+    out.printf("%-24s n=%-9d p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n",
+        this.name, this.count(), this.percentile(50) / 1e3, this.percentile(90) / 1e3,
+        this.percentile(99) / 1e3, this.percentile(99.9) / 1e3, this.max() / 1e3);
+  }
+}
+
+// The latency histograms the games record into. They are off unless the program is
+// started with -Dgames.metrics=true or recording is switched on, and while they are
+// off timing something costs one read of a boolean. Pressing "m" in either game
+// switches recording on and off and "d" prints what has been recorded.
+class GameMetrics {
+  static volatile boolean recording = Boolean.getBoolean("games.metrics");
+
+  static final LatencyHistogram BRIDGEIT_MOVES = new LatencyHistogram("BridgeIt move");
+  static final LatencyHistogram BRIDGEIT_WIN_CHECKS =
+      new LatencyHistogram("BridgeIt path search");
+  static final LatencyHistogram BRIDGEIT_FRAMES = new LatencyHistogram("BridgeIt makeScene");
+  static final LatencyHistogram CONCENTRATION_MOVES =
+      new LatencyHistogram("Concentration click");
+  static final LatencyHistogram CONCENTRATION_WIN_CHECKS =
+      new LatencyHistogram("Concentration match");
+  static final LatencyHistogram CONCENTRATION_FRAMES =
+      new LatencyHistogram("Concentration makeScene");
+
+  static final LatencyHistogram[] ALL = {BRIDGEIT_MOVES, BRIDGEIT_WIN_CHECKS, BRIDGEIT_FRAMES,
+      CONCENTRATION_MOVES, CONCENTRATION_WIN_CHECKS, CONCENTRATION_FRAMES};
+
+  // The time to pass to recordSince when the thing being timed is done, or 0 if
+  // recording is off
+  static long start() {
+    return recording ? System.nanoTime() : 0;
+  }
+
+  // Handles the metrics keys for a game, returning true if the key was one of them
+  static boolean onKey(String key) {
+    if (key.equals("m")) {
+      recording = !recording;
+      return true;
+    }
+    else if (key.equals("d")) {
+      dump(System.out);
+      return true;
+    }
+    return false;
+  }
+
+  // Prints every histogram that has something in it
+  static void dump(PrintStream out) {
+    for (LatencyHistogram histogram : ALL) {
+      if (histogram.count() > 0) {
+        histogram.dump(out);
+      }
+    }
+  }
+
+  // Empties every histogram
+  static void reset() {
+    for (LatencyHistogram histogram : ALL) {
+      histogram.reset();
+    }
+  }
+}
+
+// Examples for the latency histograms and flight recorder events
+class ExamplesGameMetrics {
+  void testBuckets(Tester t) {
+    t.checkExpect(LatencyHistogram.bucket(0), 0);
+    t.checkExpect(LatencyHistogram.bucket(127), 127);
+    t.checkExpect(LatencyHistogram.bucket(128), 128);
+    t.checkExpect(LatencyHistogram.bucket(129), 128);
+    t.checkExpect(LatencyHistogram.bucket(130), 129);
+    t.checkExpect(LatencyHistogram.bucket(Long.MAX_VALUE), LatencyHistogram.BUCKETS - 1);
+    t.checkExpect(LatencyHistogram.highest(LatencyHistogram.BUCKETS - 1), Long.MAX_VALUE);
+
+    // Every value lands in a bucket that covers it, and no bucket is wider than 1 / 64
+    // of the values in it
+    boolean covered = true;
+    boolean narrow = true;
+    long value = 1;
+    while (value > 0) {
+      for (long v = value - 1; v <= value + 1; v++) {
+        int bucket = LatencyHistogram.bucket(v);
+        long low = LatencyHistogram.lowest(bucket);
+        long high = LatencyHistogram.highest(bucket);
+        covered = covered && low <= v && v <= high;
+        narrow = narrow && high - low <= Math.max(0, low / 64);
+      }
+      value = value * 3 / 2 + 1;
+    }
+    t.checkExpect(covered, true);
+    t.checkExpect(narrow, true);
+  }
+
+  void testPercentiles(Tester t) {
+    LatencyHistogram histogram = new LatencyHistogram("test");
+    t.checkExpect(histogram.percentile(99), 0L);
+    t.checkExpect(histogram.max(), 0L);
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    histogram.record(1_000_000);
+    t.checkExpect(histogram.count(), 101L);
+    t.checkExpect(histogram.percentile(0), 1L);
+    t.checkExpect(histogram.percentile(50), 51L);
+    t.checkExpect(histogram.percentile(99), 100L);
+    t.checkInexact((double) histogram.percentile(100), 1e6, 1.0 / 64);
+    t.checkExpect(histogram.max(), histogram.percentile(100));
+    t.checkException(new IllegalArgumentException("Percentile must be between 0 and 100"),
+        histogram, "percentile", 101.0);
+    histogram.reset();
+    t.checkExpect(histogram.count(), 0L);
+  }
+
+  void testRecording(Tester t) {
+    boolean was = GameMetrics.recording;
+    GameMetrics.recording = false;
+    GameMetrics.reset();
+    t.checkExpect(GameMetrics.start(), 0L);
+    GameMetrics.BRIDGEIT_MOVES.recordSince(GameMetrics.start());
+    BridgeItWorld world = new BridgeItWorld(5);
+    world.play(1, 1);
+    world.makeScene();
+    t.checkExpect(GameMetrics.BRIDGEIT_MOVES.count(), 0L);
+
+    t.checkExpect(GameMetrics.onKey("m"), true);
+    t.checkExpect(GameMetrics.recording, true);
+    world.play(2, 2);
+    world.hasPathDFS();
+    world.makeScene();
+    t.checkExpect(GameMetrics.BRIDGEIT_MOVES.count(), 1L);
+    t.checkExpect(GameMetrics.BRIDGEIT_WIN_CHECKS.count(), 1L);
+    t.checkExpect(GameMetrics.BRIDGEIT_FRAMES.count(), 1L);
+
+    ConcentrationWorld concentration = new ConcentrationWorld();
+    concentration.onMouseClicked(new Posn(50, 50));
+    concentration.makeScene();
+    t.checkExpect(GameMetrics.CONCENTRATION_MOVES.count(), 1L);
+    t.checkExpect(GameMetrics.CONCENTRATION_FRAMES.count(), 1L);
+    t.checkExpect(GameMetrics.onKey("x"), false);
+
+    GameMetrics.onKey("m");
+    t.checkExpect(GameMetrics.recording, false);
+    GameMetrics.reset();
+    GameMetrics.recording = was;
+  }
+
+  void testFlightRecorder(Tester t) {
+    Path file = null;
+    try (Recording recording = new Recording()) {
+      recording.enable("games.Move");
+      recording.enable("games.WinCheck");
+      recording.enable("games.Frame");
+      recording.start();
+
+      BridgeItWorld world = new BridgeItWorld(5);
+      world.play(1, 1);
+      world.play(2, 2);
+      world.hasPathDFS();
+      world.makeScene();
+
+      recording.stop();
+      file = Files.createTempFile("games", ".jfr");
+      recording.dump(file);
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+
+      int moves = 0;
+      int frames = 0;
+      RecordedEvent check = null;
+      for (RecordedEvent event : events) {
+        String name = event.getEventType().getName();
+        if (name.equals("games.Move")) {
+          moves++;
+        }
+        else if (name.equals("games.Frame")) {
+          frames++;
+          t.checkExpect(event.getInt("cellsDrawn"), 25);
+          t.checkExpect(event.getBoolean("rebuilt"), true);
+        }
+        else if (name.equals("games.WinCheck")) {
+          check = event;
+        }
+      }
+      t.checkExpect(moves, 2);
+      t.checkExpect(frames, 1);
+      t.checkExpect(check.getString("game"), "BridgeIt");
+      t.checkExpect(check.getBoolean("won"), false);
+      // Pink's two edge cells, then (1, 1) and (1, 2) which the top one leads to
+      t.checkExpect(check.getInt("nodesVisited"), 4);
+      t.checkExpect(check.getInt("cellsScanned") > 4, true);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Reading the recording failed", e);
+    }
+    finally {
+      if (file != null) {
+        file.toFile().delete();
+      }
+    }
+  }
+}
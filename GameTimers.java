@@ -0,0 +1,259 @@
+import tester.*;
+
+// Where a game gets the time from. Games only ever look at differences between two
+// readings, so the numbers don't have to mean anything on their own.
+interface IGameClock {
+  // The current time in nanoseconds
+  long nanos();
+}
+
+// The real clock. System.nanoTime never goes backwards, unlike the wall clock, so a
+// game's timers can't be thrown off by the computer's clock being changed.
+class SystemGameClock implements IGameClock {
+  public long nanos() {
+    return System.nanoTime();
+  }
+}
+
+// A clock that only moves when it is told to, for tests and simulations
+class ManualGameClock implements IGameClock {
+  long now; // The current time in nanoseconds
+
+  ManualGameClock(long now) {
+    this.now = now;
+  }
+
+  public long nanos() {
+    return this.now;
+  }
+
+  // Moves the clock forward
+  void advance(long nanos) {
+    if (nanos < 0) {
+      throw new IllegalArgumentException("Clocks can't go backwards");
+    }
+    this.now += nanos;
+  }
+}
+
+// Something to run once the clock reaches its deadline. Timers live in one slot of a
+// TimerWheel, in a doubly linked list so they can be cancelled without a search.
+class GameTimer {
+  TimerWheel wheel; // The wheel the timer is on
+  long deadline; // When to run it, by the wheel's clock
+  Runnable action; // What to run
+  boolean scheduled; // False once the timer has run or been cancelled
+  int slot; // The slot it is in
+  GameTimer prev; // The timer before it in the slot, or null if it is first
+  GameTimer next; // The timer after it in the slot, or null if it is last
+
+  GameTimer(TimerWheel wheel, long deadline, Runnable action) {
+    this.wheel = wheel;
+    this.deadline = deadline;
+    this.action = action;
+    this.scheduled = false;
+  }
+
+  // Stops the timer from running. Returns false if it already ran or was cancelled.
+  boolean cancel() {
+    if (!this.scheduled) {
+      return false;
+    }
+    this.wheel.unlink(this);
+    return true;
+  }
+}
+
+// A hashed timer wheel. Time is cut into ticks and a timer goes in the slot for the
+// tick its deadline falls in, wrapping around the wheel, so scheduling and cancelling
+// are constant time however many timers there are. Advancing only looks at the slots
+// for the ticks that went by, and does nothing at all when no timers are waiting, so
+// one wheel on one thread can drive any number of idle games. Timers more than a turn
+// of the wheel away just sit in their slot until their deadline comes around.
+// Nothing here is synchronized, everything has to happen on the thread that advances
+// the wheel.
+class TimerWheel {
+  GameTimer[] slots; // The first timer in each slot
+  int mask; // slots.length - 1, the length is a power of two
+  long tickNanos; // How long a tick is
+  long origin; // The time tick 0 started at
+  long tick; // The first tick that might still have timers to run
+  int pending; // Timers scheduled and not yet run or cancelled
+
+  TimerWheel(int slotCount, long tickNanos, long origin) {
+    if (slotCount < 1 || Integer.bitCount(slotCount) != 1) {
+      throw new IllegalArgumentException("Slot count must be a power of two");
+    }
+    if (tickNanos < 1) {
+      throw new IllegalArgumentException("Ticks must be at least a nanosecond");
+    }
+    this.slots = new GameTimer[slotCount];
+    this.mask = slotCount - 1;
+    this.tickNanos = tickNanos;
+    this.origin = origin;
+    this.tick = 0;
+    this.pending = 0;
+  }
+
+  // The tick a time falls in
+  long tickOf(long nanos) {
+    return Math.floorDiv(nanos - this.origin, this.tickNanos);
+  }
+
+  // Runs action the first time the wheel is advanced to deadline or later. A deadline
+  // that has already passed runs on the next advance.
+  GameTimer schedule(long deadline, Runnable action) {
+    GameTimer timer = new GameTimer(this, deadline, action);
+    long at = Math.max(this.tick, this.tickOf(deadline));
+    timer.slot = (int) (at & this.mask);
+    timer.prev = null;
+    timer.next = this.slots[timer.slot];
+    if (timer.next != null) {
+      timer.next.prev = timer;
+    }
+    this.slots[timer.slot] = timer;
+    timer.scheduled = true;
+    this.pending++;
+    return timer;
+  }
+
+  // Takes a timer out of its slot
+  void unlink(GameTimer timer) {
+    if (timer.prev == null) {
+      this.slots[timer.slot] = timer.next;
+    }
+    else {
+      timer.prev.next = timer.next;
+    }
+    if (timer.next != null) {
+      timer.next.prev = timer.prev;
+    }
+    timer.scheduled = false;
+    this.pending--;
+  }
+
+  // Runs every timer whose deadline is at or before now and returns how many ran.
+  // Timers that come due in the same advance run in the order of their ticks, and
+  // newest first within a tick.
+  int advance(long now) {
+    long target = this.tickOf(now);
+    int ran = 0;
+    if (this.pending > 0) {
+      // Going round more than once would only look at the same slots again
+      long last = Math.min(target, this.tick + this.slots.length - 1);
+      for (long t = this.tick; t <= last; t++) {
+        GameTimer timer = this.slots[(int) (t & this.mask)];
+        while (timer != null) {
+          GameTimer next = timer.next;
+          if (timer.scheduled && timer.deadline <= now) {
+            this.unlink(timer);
+            timer.action.run();
+            ran++;
+          }
+          timer = next;
+        }
+      }
+    }
+    // The target tick is only partly over, it gets looked at again next time
+    this.tick = Math.max(this.tick, target);
+    return ran;
+  }
+
+  // How many timers are waiting to run
+  int pending() {
+    return this.pending;
+  }
+}
+
+// Examples for the game clocks and the timer wheel
+class ExamplesGameTimers {
+  void testManualClock(Tester t) {
+    ManualGameClock clock = new ManualGameClock(5);
+    t.checkExpect(clock.nanos(), 5L);
+    clock.advance(10);
+    t.checkExpect(clock.nanos(), 15L);
+    t.checkException(new IllegalArgumentException("Clocks can't go backwards"), clock,
+        "advance", -1L);
+  }
+
+  void testTimersRunAtDeadlines(Tester t) {
+    TimerWheel wheel = new TimerWheel(8, 10, 1000);
+    StringBuilder ran = new StringBuilder();
+    wheel.schedule(1025, () -> ran.append("b"));
+    wheel.schedule(1005, () -> ran.append("a"));
+    wheel.schedule(1029, () -> ran.append("c"));
+    t.checkExpect(wheel.pending(), 3);
+
+    t.checkExpect(wheel.advance(1004), 0);
+    t.checkExpect(wheel.advance(1005), 1);
+    t.checkExpect(wheel.advance(1026), 1);
+    t.checkExpect(ran.toString(), "ab");
+    // c is in the same tick as the last advance and still has to run
+    t.checkExpect(wheel.advance(1029), 1);
+    t.checkExpect(ran.toString(), "abc");
+    t.checkExpect(wheel.advance(5000), 0);
+    t.checkExpect(wheel.pending(), 0);
+
+    // A deadline that has already gone by runs on the next advance
+    wheel.schedule(0, () -> ran.append("d"));
+    t.checkExpect(wheel.advance(5000), 1);
+    t.checkExpect(ran.toString(), "abcd");
+  }
+
+  void testTimersPastOneTurn(Tester t) {
+    TimerWheel wheel = new TimerWheel(4, 10, 0);
+    StringBuilder ran = new StringBuilder();
+    wheel.schedule(15, () -> ran.append("near"));
+    // Far is more than a turn of the wheel away, in the same slot as near
+    wheel.schedule(55, () -> ran.append("far"));
+    t.checkExpect(wheel.advance(20), 1);
+    t.checkExpect(ran.toString(), "near");
+    t.checkExpect(wheel.advance(50), 0);
+    t.checkExpect(wheel.advance(1000), 1);
+    t.checkExpect(ran.toString(), "nearfar");
+  }
+
+  void testCancel(Tester t) {
+    TimerWheel wheel = new TimerWheel(4, 10, 0);
+    StringBuilder ran = new StringBuilder();
+    GameTimer a = wheel.schedule(5, () -> ran.append("a"));
+    // Timers in the same slot run newest first, so c runs before b
+    GameTimer[] b = new GameTimer[1];
+    b[0] = wheel.schedule(7, () -> ran.append("b"));
+    wheel.schedule(6, () -> {
+      ran.append("c");
+      b[0].cancel();
+    });
+    t.checkExpect(a.cancel(), true);
+    t.checkExpect(a.cancel(), false);
+    t.checkExpect(wheel.pending(), 2);
+    t.checkExpect(wheel.advance(10), 1);
+    t.checkExpect(ran.toString(), "c");
+    t.checkExpect(wheel.pending(), 0);
+    t.checkExpect(b[0].cancel(), false);
+  }
+
+  void testRescheduling(Tester t) {
+    TimerWheel wheel = new TimerWheel(16, 1, 0);
+    int[] count = new int[1];
+    Runnable[] again = new Runnable[1];
+    again[0] = () -> {
+      count[0]++;
+      if (count[0] < 5) {
+        wheel.schedule(count[0] * 10, again[0]);
+      }
+    };
+    wheel.schedule(0, again[0]);
+    t.checkExpect(wheel.advance(0), 1);
+    t.checkExpect(wheel.advance(100), 1);
+    t.checkExpect(wheel.advance(100), 1);
+    t.checkExpect(count[0], 3);
+  }
+
+  void testBadWheels(Tester t) {
+    t.checkConstructorException(new IllegalArgumentException("Slot count must be a power of two"),
+        "TimerWheel", 6, 10L, 0L);
+    t.checkConstructorException(new IllegalArgumentException("Ticks must be at least a nanosecond"),
+        "TimerWheel", 8, 0L, 0L);
+  }
+}
@@ -0,0 +1,245 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import tester.*;
+
+// A fixed size table of search results keyed by position hash, shared by every search
+// thread without locks. Each slot is two longs, the data and the hash xor the data.
+// A slot that was half written by another thread doesn't decode back to its hash, so
+// it just reads as a miss (Hyatt's lockless hashing).
+//
+// Slots come in pairs. The first of the pair keeps whichever result was searched the
+// deepest, unless it is from an old search, and the second always takes the newest
+// result, so deep results survive while shallow ones still get cached.
+class TranspositionTable {
+  static final long MISS = 0L; // Returned by probe when there is nothing for a hash
+
+  long[] checks; // Hash xor data for each slot
+  long[] data; // Packed move, score, depth and age for each slot
+  int mask; // Bucket count minus one
+  int age; // Bumped for each new search so stale results can be replaced
+  LongAdder probes;
+  LongAdder hits;
+  LongAdder stores;
+
+  // Makes a table that uses at most the given number of bytes
+  TranspositionTable(long bytes) {
+    long buckets = Long.highestOneBit(Math.max(1, bytes / 32));
+    if (buckets > (1 << 29)) {
+      throw new IllegalArgumentException("Table was too big");
+    }
+    this.checks = new long[(int) buckets * 2];
+    this.data = new long[(int) buckets * 2];
+    this.mask = (int) buckets - 1;
+    this.probes = new LongAdder();
+    this.hits = new LongAdder();
+    this.stores = new LongAdder();
+  }
+
+  // Packs a result into one long. The move gets 28 bits, the score 16, the depth 12 and
+  // the age 7. The last bit is always set, so no result packs to MISS, which is also
+  // what an empty slot holds.
+  static long pack(int move, int score, int depth, int age) {
+    return ((long) (move & 0xFFFFFFF) << 36) | ((long) (score & 0xFFFF) << 20)
+        | ((long) (depth & 0xFFF) << 8) | 0x80 | (age & 0x7F);
+  }
+
+  static int move(long packed) {
+    int move = (int) (packed >>> 36);
+    // -1 is stored as all ones and comes back as -1
+    return move == 0xFFFFFFF ? -1 : move;
+  }
+
+  static int score(long packed) {
+    return (short) (packed >>> 20);
+  }
+
+  static int depth(long packed) {
+    return (int) (packed >>> 8) & 0xFFF;
+  }
+
+  static int age(long packed) {
+    return (int) packed & 0x7F;
+  }
+
+  // Starts a new search so results from older ones can be replaced first
+  void newSearch() {
+    this.age = (this.age + 1) & 0x7F;
+  }
+
+  // Looks up a hash and returns the packed result, or MISS
+  long probe(long hash) {
+    this.probes.increment();
+    int bucket = (int) (hash ^ (hash >>> 32)) & this.mask;
+    for (int slot = bucket * 2; slot < bucket * 2 + 2; slot++) {
+      long packed = this.data[slot];
+      if ((this.checks[slot] ^ packed) == hash && packed != MISS) {
+        this.hits.increment();
+        return packed;
+      }
+    }
+    return MISS;
+  }
+
+  // Saves a result for a hash
+  void store(long hash, int move, int score, int depth) {
+    this.stores.increment();
+    long packed = pack(move, score, depth, this.age);
+    int bucket = (int) (hash ^ (hash >>> 32)) & this.mask;
+    int deep = bucket * 2;
+    long old = this.data[deep];
+    boolean sameHash = (this.checks[deep] ^ old) == hash;
+    if (old == MISS || sameHash || depth >= depth(old) || age(old) != this.age) {
+      this.data[deep] = packed;
+      this.checks[deep] = hash ^ packed;
+    }
+    else {
+      this.data[deep + 1] = packed;
+      this.checks[deep + 1] = hash ^ packed;
+    }
+  }
+
+  // Fraction of probes that found something
+  double hitRate() {
+    long probes = this.probes.sum();
+    return probes == 0 ? 0 : (double) this.hits.sum() / probes;
+  }
+
+  // Bytes used by the slots
+  long memoryBytes() {
+    return 16L * this.data.length;
+  }
+
+  public String toString() {
+    return String.format("%d slots, %.1f MB, %d probes, %.1f%% hits, %d stores",
+        this.data.length, this.memoryBytes() / 1048576.0, this.probes.sum(),
+        100 * this.hitRate(), this.stores.sum());
+  }
+}
+
+class ExamplesTranspositionTable {
+  void testPack(Tester t) {
+    long packed = TranspositionTable.pack(12345, -300, 17, 100);
+    t.checkExpect(TranspositionTable.move(packed), 12345);
+    t.checkExpect(TranspositionTable.score(packed), -300);
+    t.checkExpect(TranspositionTable.depth(packed), 17);
+    t.checkExpect(TranspositionTable.age(packed), 100);
+    t.checkExpect(TranspositionTable.move(TranspositionTable.pack(-1, 0, 0, 0)), -1);
+
+    // Neither all zeros nor all ones can be mistaken for a miss
+    t.checkExpect(TranspositionTable.pack(0, 0, 0, 0) == TranspositionTable.MISS, false);
+    t.checkExpect(TranspositionTable.pack(-1, -1, -1, -1) == TranspositionTable.MISS, false);
+  }
+
+  void testIncrementalHash(Tester t) {
+    // The hash only depends on which cells are claimed, not the order
+    BridgeItWorld world = new BridgeItWorld(7);
+    world.play(1, 1);
+    world.play(3, 3);
+    world.play(2, 2);
+    BridgeItWorld world2 = new BridgeItWorld(7);
+    world2.play(2, 2);
+    world2.play(3, 3);
+    world2.play(1, 1);
+    t.checkExpect(world.board.hash(BridgeItBoard.MAGENTA),
+        world2.board.hash(BridgeItBoard.MAGENTA));
+    t.checkExpect(world.board.hash(BridgeItBoard.MAGENTA) == world.board
+        .hash(BridgeItBoard.PINK), false);
+    t.checkExpect(world.board.hash(BridgeItBoard.PINK) == new BridgeItWorld(7).board
+        .hash(BridgeItBoard.PINK), false);
+  }
+
+  void testSymmetricPositions(Tester t) {
+    // Player one at (1,1) is the same as player one at (5,5) turned around, and the
+    // same as player two at (1,1) on the flipped board with the players swapped
+    BridgeItWorld world = new BridgeItWorld(7);
+    world.play(1, 1);
+    BridgeItWorld turned = new BridgeItWorld(7);
+    turned.play(5, 5);
+    t.checkExpect(world.board.canonicalHash(BridgeItBoard.MAGENTA),
+        turned.board.canonicalHash(BridgeItBoard.MAGENTA));
+    t.checkExpect(world.board.hash(BridgeItBoard.MAGENTA) == turned.board
+        .hash(BridgeItBoard.MAGENTA), false);
+
+    BridgeItBoard swapped = new BridgeItBoard(7);
+    swapped.initialize();
+    swapped.linkEdges();
+    swapped.claim(swapped.index(1, 1), BridgeItBoard.MAGENTA);
+    t.checkExpect(world.board.canonicalHash(BridgeItBoard.MAGENTA),
+        swapped.canonicalHash(BridgeItBoard.PINK));
+
+    // A different move doesn't line up with it
+    BridgeItWorld other = new BridgeItWorld(7);
+    other.play(3, 3);
+    t.checkExpect(world.board.canonicalHash(BridgeItBoard.MAGENTA) == other.board
+        .canonicalHash(BridgeItBoard.MAGENTA), false);
+
+    // The symmetry maps cells back onto the starting pattern
+    for (int symmetry = 0; symmetry < 4; symmetry++) {
+      int cell = world.board.mapCell(world.board.index(1, 0), symmetry);
+      t.checkExpect(BridgeItBoard.initialColor(world.board.row(cell), world.board.col(cell)),
+          BridgeItBoard.mapColor(BridgeItBoard.PINK, symmetry));
+    }
+  }
+
+  void testProbeAndStore(Tester t) {
+    TranspositionTable table = new TranspositionTable(1024);
+    t.checkExpect(table.memoryBytes(), 1024L);
+    t.checkExpect(table.probe(42), TranspositionTable.MISS);
+    table.store(42, 7, 100, 3);
+    t.checkExpect(TranspositionTable.move(table.probe(42)), 7);
+    t.checkExpect(TranspositionTable.score(table.probe(42)), 100);
+
+    // A result of all zeros for a hash of zero is still found, and an empty slot isn't
+    t.checkExpect(table.probe(0), TranspositionTable.MISS);
+    table.store(0, 0, 0, 0);
+    t.checkExpect(table.probe(0) == TranspositionTable.MISS, false);
+    t.checkExpect(TranspositionTable.depth(table.probe(0)), 0);
+
+    // Two hashes in the same bucket, the shallow one goes in the second slot
+    long clash = 42 + (1L << 40) + (1L << 8);
+    table.store(clash, 8, 50, 1);
+    t.checkExpect(TranspositionTable.move(table.probe(42)), 7);
+    t.checkExpect(TranspositionTable.move(table.probe(clash)), 8);
+
+    // A deeper result takes over the first slot
+    long third = 42 + (1L << 41) + (1L << 9);
+    table.store(third, 9, 0, 5);
+    t.checkExpect(TranspositionTable.move(table.probe(third)), 9);
+    t.checkExpect(table.probe(42), TranspositionTable.MISS);
+    t.checkExpect(table.hitRate() > 0.5, true);
+  }
+
+  void testSharedBetweenThreads(Tester t) {
+    // Every thread stores moves worked out from the hash, so anything read back has to
+    // match its hash or the lockless check let a torn slot through
+    TranspositionTable table = new TranspositionTable(1 << 12);
+    boolean[] bad = new boolean[1];
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      long seed = i;
+      threads[i] = new Thread(() -> {
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int n = 0; n < 200000; n++) {
+          long hash = random.nextLong(1, 5000);
+          long found = table.probe(hash);
+          if (found != TranspositionTable.MISS
+              && TranspositionTable.move(found) != (int) (hash % 1000)) {
+            bad[0] = true;
+          }
+          table.store(hash, (int) (hash % 1000), (int) hash % 7, random.nextInt(10));
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      }
+      catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    t.checkExpect(bad[0], false);
+    t.checkExpect(table.probes.sum(), 800000L);
+  }
+}